@@ -0,0 +1,168 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache de résolution des chemins de requête vers le système de fichiers.
+ * Mémorise le résultat de la normalisation, de la vérification anti-traversée (getCanonicalPath) et du type
+ * de la cible (fichier, répertoire, introuvable), pour éviter ces appels système à chaque requête.
+ * Les résultats négatifs (404) ont une durée de vie courte ; toute modification détectée par le WatchService
+ * dans un répertoire déjà consulté vide le cache.
+ */
+public class CacheChemins {
+
+    private static final long DUREE_VIE_POSITIVE_MILLIS = 60_000;
+    private static final long DUREE_VIE_NEGATIVE_MILLIS = 2_000;
+    private static final int NOMBRE_MAX_ENTREES = 10_000; // Borne la mémoire face aux rafales de 404 aléatoires
+
+    public enum Type { FICHIER, REPERTOIRE, INTROUVABLE, HORS_RACINE }
+
+    /**
+     * Résultat de la résolution d'un chemin de requête.
+     */
+    public static final class Resolution {
+        private final Type type;
+        private final File fichier;
+        private final long expiration;
+
+        Resolution(Type type, File fichier, long expiration) {
+            this.type = type;
+            this.fichier = fichier;
+            this.expiration = expiration;
+        }
+
+        public Type getType() { return type; }
+
+        public File getFichier() { return fichier; }
+    }
+
+    private final String racine;
+    private final String racineCanonique; // Calculé une seule fois
+    private final ConcurrentHashMap<String, Resolution> resolutions = new ConcurrentHashMap<>();
+    private final Set<Path> repertoiresSurveilles = ConcurrentHashMap.newKeySet();
+    private final WatchService surveillance;
+
+    public CacheChemins(String racine) throws IOException {
+        this.racine = racine;
+        this.racineCanonique = new File(racine).getCanonicalPath();
+        this.surveillance = creerSurveillance();
+    }
+
+    public String getRacineCanonique() {
+        return racineCanonique;
+    }
+
+    /**
+     * Résout un chemin de requête (ex. "/css/style.css") par rapport au DocumentRoot.
+     * @throws IOException si le chemin canonique ne peut pas être calculé.
+     */
+    public Resolution resoudre(String cheminRequete) throws IOException {
+        long maintenant = System.currentTimeMillis();
+        Resolution resolution = resolutions.get(cheminRequete);
+        if (resolution != null && resolution.expiration > maintenant) {
+            return resolution;
+        }
+
+        File file = Paths.get(racine, cheminRequete).normalize().toFile();
+        String canonique = file.getCanonicalPath();
+        Type type;
+        // Vérification anti-traversée : la cible doit être la racine elle-même ou se trouver en dessous
+        if (!canonique.equals(racineCanonique) && !canonique.startsWith(racineCanonique + File.separator)) {
+            type = Type.HORS_RACINE;
+        } else if (file.isDirectory()) {
+            type = Type.REPERTOIRE;
+        } else if (file.isFile()) {
+            type = Type.FICHIER;
+        } else {
+            type = Type.INTROUVABLE;
+        }
+
+        long dureeVie = type == Type.INTROUVABLE ? DUREE_VIE_NEGATIVE_MILLIS : DUREE_VIE_POSITIVE_MILLIS;
+        resolution = new Resolution(type, file, maintenant + dureeVie);
+        if (resolutions.size() >= NOMBRE_MAX_ENTREES) {
+            resolutions.values().removeIf(r -> r.expiration <= maintenant);
+            if (resolutions.size() >= NOMBRE_MAX_ENTREES) {
+                resolutions.clear();
+            }
+        }
+        resolutions.put(cheminRequete, resolution);
+        if (type != Type.HORS_RACINE) {
+            surveiller(type == Type.REPERTOIRE ? file.toPath() : file.toPath().getParent());
+        }
+        return resolution;
+    }
+
+    /**
+     * Vide le cache (modification du système de fichiers, changement de configuration...).
+     */
+    public void invalider() {
+        resolutions.clear();
+    }
+
+    /**
+     * Arrête la surveillance (cache remplacé après un changement de DocumentRoot).
+     */
+    public void fermer() {
+        if (surveillance != null) {
+            try {
+                surveillance.close();
+            } catch (IOException e) {
+                System.out.println("Erreur à la fermeture de la surveillance du DocumentRoot : " + e.getMessage());
+            }
+        }
+    }
+
+    private WatchService creerSurveillance() {
+        try {
+            WatchService service = FileSystems.getDefault().newWatchService();
+            Thread thread = new Thread(() -> boucleSurveillance(service), "surveillance-chemins");
+            thread.setDaemon(true);
+            thread.start();
+            return service;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Sans WatchService, seules les durées de vie limitent la fraîcheur du cache
+            System.out.println("Avertissement : Surveillance du DocumentRoot indisponible (" + e.getMessage() + "). Invalidation par durée de vie uniquement.");
+            return null;
+        }
+    }
+
+    /**
+     * Enregistre un répertoire auprès du WatchService (une seule fois) ; le chemin n'existe pas forcément.
+     */
+    private void surveiller(Path repertoire) {
+        if (surveillance == null || repertoire == null || !repertoiresSurveilles.add(repertoire)) {
+            return;
+        }
+        try {
+            repertoire.register(surveillance, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            repertoiresSurveilles.remove(repertoire); // Répertoire absent : on retentera à la prochaine résolution
+        } catch (ClosedWatchServiceException e) {
+            // Cache fermé : les requêtes encore en cours s'en servent sans surveillance
+        }
+    }
+
+    private void boucleSurveillance(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                key.pollEvents();
+                invalider();
+                if (!key.reset()) {
+                    repertoiresSurveilles.remove((Path) key.watchable()); // Répertoire supprimé
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Arrêt de la surveillance
+        }
+    }
+}
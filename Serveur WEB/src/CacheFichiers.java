@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache mémoire des réponses complètes (ligne de statut + en-têtes + corps) des petits fichiers statiques.
+ * Éviction LRU dans la limite d'un budget total en octets. Une entrée est revalidée par comparaison
+ * taille/date de modification au plus une fois par seconde : un fichier modifié est resservi depuis le disque.
+ */
+public class CacheFichiers {
+
+    private static final long INTERVALLE_REVALIDATION_MILLIS = 1000;
+
+    private final long budgetOctets;
+    private final long tailleMaxEntree;
+    // LinkedHashMap en ordre d'accès : le premier élément est le moins récemment utilisé
+    private final LinkedHashMap<String, Entree> entrees = new LinkedHashMap<>(64, 0.75f, true);
+    private long octetsUtilises;
+
+    private final LongAdder succes = new LongAdder();
+    private final LongAdder echecs = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param budgetOctets    Taille totale maximale des réponses en cache (0 désactive le cache).
+     * @param tailleMaxEntree Taille maximale d'un fichier pour être mis en cache.
+     */
+    public CacheFichiers(long budgetOctets, long tailleMaxEntree) {
+        this.budgetOctets = budgetOctets;
+        this.tailleMaxEntree = Math.min(tailleMaxEntree, budgetOctets);
+    }
+
+    /**
+     * Réponse pré-construite d'un fichier. L'en-tête Connection est ajouté à l'envoi car il dépend de la connexion.
+     */
+    public static final class Entree {
+        private final Path fichier;
+        private final long taille;
+        private final long dateModification;
+        private final String etag; // Calculé une seule fois par version du fichier
+        private final byte[] enTetes; // Ligne de statut et en-têtes, sans Connection ni ligne vide finale
+        private final byte[] corps;
+        private volatile long verifieeA;
+
+        Entree(Path fichier, BasicFileAttributes attributs, String etag, byte[] enTetes, byte[] corps) {
+            this.fichier = fichier;
+            this.taille = attributs.size();
+            this.dateModification = attributs.lastModifiedTime().toMillis();
+            this.etag = etag;
+            this.enTetes = enTetes;
+            this.corps = corps;
+            this.verifieeA = System.currentTimeMillis();
+        }
+
+        public String getEtag() { return etag; }
+
+        public long getDateModification() { return dateModification; }
+
+        long poids() {
+            return enTetes.length + corps.length;
+        }
+
+        public void ecrire(SortieHttp out) throws IOException {
+            out.write(enTetes);
+            out.write(out.ligneConnexion());
+            out.write(corps);
+            out.flush();
+        }
+    }
+
+    public boolean isActif() {
+        return budgetOctets > 0;
+    }
+
+    public boolean accepte(long tailleFichier) {
+        return isActif() && tailleFichier <= tailleMaxEntree;
+    }
+
+    /**
+     * Retourne la réponse en cache pour ce chemin de requête, ou null (absente ou fichier modifié depuis).
+     */
+    public Entree obtenir(String cle) {
+        if (!isActif()) {
+            return null;
+        }
+        Entree entree;
+        synchronized (this) {
+            entree = entrees.get(cle);
+        }
+        if (entree != null && !estAJour(entree)) {
+            retirer(cle, entree);
+            entree = null;
+        }
+        if (entree == null) {
+            echecs.increment();
+        } else {
+            succes.increment();
+        }
+        return entree;
+    }
+
+    /**
+     * Lit le fichier (et le compresse une fois pour toutes si demandé) puis construit la réponse à mettre en cache.
+     * @param attributs Attributs lus lors de la construction des en-têtes (taille, date de modification).
+     * @param enTetes   En-têtes de la réponse 200, sans Content-Length (ajouté ici), Connection ni ligne vide finale.
+     */
+    public Entree charger(String cle, Path fichier, BasicFileAttributes attributs, String etag, String enTetes, boolean gzip) throws IOException {
+        byte[] contenu = Files.readAllBytes(fichier);
+        byte[] corps = gzip ? Compression.gzip(contenu) : contenu;
+        byte[] enTetesComplets = (enTetes + "Content-Length: " + corps.length + "\r\n").getBytes(StandardCharsets.UTF_8);
+        Entree entree = new Entree(fichier, attributs, etag, enTetesComplets, corps);
+        // Si la taille lue diffère, le fichier est en cours de modification : on le sert sans le garder
+        if (contenu.length == attributs.size()) {
+            ajouter(cle, entree);
+        }
+        return entree;
+    }
+
+    private synchronized void ajouter(String cle, Entree entree) {
+        Entree ancienne = entrees.put(cle, entree);
+        if (ancienne != null) {
+            octetsUtilises -= ancienne.poids();
+        }
+        octetsUtilises += entree.poids();
+        Iterator<Map.Entry<String, Entree>> it = entrees.entrySet().iterator();
+        while (octetsUtilises > budgetOctets && it.hasNext()) {
+            Map.Entry<String, Entree> plusAncienne = it.next();
+            if (plusAncienne.getValue() == entree) {
+                continue;
+            }
+            octetsUtilises -= plusAncienne.getValue().poids();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private synchronized void retirer(String cle, Entree entree) {
+        if (entrees.remove(cle, entree)) {
+            octetsUtilises -= entree.poids();
+        }
+    }
+
+    /**
+     * Compare taille et date de modification avec le disque, au plus une fois par intervalle.
+     */
+    private static boolean estAJour(Entree entree) {
+        long maintenant = System.currentTimeMillis();
+        if (maintenant - entree.verifieeA < INTERVALLE_REVALIDATION_MILLIS) {
+            return true;
+        }
+        try {
+            BasicFileAttributes attributs = Files.readAttributes(entree.fichier, BasicFileAttributes.class);
+            if (attributs.size() != entree.taille || attributs.lastModifiedTime().toMillis() != entree.dateModification) {
+                return false;
+            }
+            entree.verifieeA = maintenant;
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            WebServeur.logError("Erreur de revalidation du cache pour " + entree.fichier + " : " + e.getMessage());
+            return false;
+        }
+    }
+
+    public long getSucces() { return succes.sum(); }
+
+    public long getEchecs() { return echecs.sum(); }
+
+    public long getEvictions() { return evictions.sum(); }
+
+    public synchronized long getOctetsUtilises() { return octetsUtilises; }
+
+    public synchronized int getNombreEntrees() { return entrees.size(); }
+
+    public long getBudgetOctets() { return budgetOctets; }
+}
@@ -0,0 +1,90 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Négociation Accept-Encoding et compression gzip des réponses textuelles.
+ */
+public class Compression {
+
+    /**
+     * Suffixe ajouté à l'ETag de la variante compressée d'un fichier.
+     */
+    public static final String SUFFIXE_GZIP = "-gz";
+
+    /**
+     * Préfixe de la clé de cache de la variante compressée. Un chemin de requête commence toujours par '/' :
+     * aucune clé de variante ne peut être celle d'un autre fichier (un suffixe comme "-gz" serait un nom valide).
+     */
+    public static final String PREFIXE_CLE_GZIP = "gz:";
+
+    /**
+     * Indique si le client accepte gzip (RFC 9110, section 12.5.3) : la qualité de "gzip" s'il est cité,
+     * sinon celle de "*", doit être non nulle. "gzip;q=0, *" refuse donc gzip, quel que soit l'ordre.
+     */
+    public static boolean accepteGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double qualiteGzip = -1; // -1 : non cité
+        double qualiteEtoile = -1;
+        for (String codage : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            String[] parties = codage.split(";");
+            String nom = parties[0].trim();
+            if ("gzip".equals(nom) || "x-gzip".equals(nom)) {
+                qualiteGzip = Math.max(qualiteGzip, qualite(parties));
+            } else if ("*".equals(nom)) {
+                qualiteEtoile = Math.max(qualiteEtoile, qualite(parties));
+            }
+        }
+        return (qualiteGzip >= 0 ? qualiteGzip : qualiteEtoile) > 0;
+    }
+
+    /**
+     * Paramètre q d'un codage (1 par défaut, 0 s'il est invalide).
+     */
+    private static double qualite(String[] parties) {
+        for (int i = 1; i < parties.length; i++) {
+            String parametre = parties[i].trim();
+            if (parametre.startsWith("q=")) {
+                try {
+                    double q = Double.parseDouble(parametre.substring(2).trim());
+                    return q >= 0 && q <= 1 ? q : 0;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Types texte qui gagnent à être compressés. Images, audio et vidéo sont déjà compressés.
+     */
+    public static boolean estCompressible(String contentType) {
+        String type = contentType.toLowerCase(Locale.ROOT);
+        int pointVirgule = type.indexOf(';');
+        if (pointVirgule >= 0) {
+            type = type.substring(0, pointVirgule).trim();
+        }
+        return type.equals("text/html") || type.equals("text/css") || type.equals("text/plain")
+                || type.equals("application/javascript") || type.equals("application/json")
+                || type.equals("image/svg+xml");
+    }
+
+    public static byte[] gzip(byte[] donnees) throws IOException {
+        ByteArrayOutputStream resultat = new ByteArrayOutputStream(Math.max(64, donnees.length / 3));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(resultat)) {
+            gzip.write(donnees);
+        }
+        return resultat.toByteArray();
+    }
+
+    /**
+     * ETag de la variante compressée : distinct de celui de la variante brute (les octets diffèrent).
+     */
+    public static String etagGzip(String etag) {
+        return etag.substring(0, etag.length() - 1) + SUFFIXE_GZIP + "\"";
+    }
+}
@@ -0,0 +1,437 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration en service : les valeurs lues dans conf.xml et les objets construits à partir d'elles
+ * (filtres IP, limiteur, sites avec leurs caches, journaux). Immuable ; WebServeur la publie par une seule référence volatile.
+ * Une requête lit cette référence une fois et garde le même instantané jusqu'à sa fin, même si un rechargement
+ * en publie un nouveau entre-temps.
+ */
+public final class ConfigActive {
+
+    // Délai avant de fermer les objets remplacés : les requêtes en cours qui les utilisent encore ont le temps de finir
+    private static final long DELAI_RETRAIT_SECONDES = 30;
+
+    /**
+     * Site servi : le site principal (configuration de premier niveau) ou un hôte virtuel.
+     * Chaque site a son propre cache de fichiers, pour qu'un site très sollicité n'évince pas les fichiers chauds des autres.
+     */
+    public static final class Site {
+        private final WebServeurConfig.HoteVirtuel hote; // null pour le site principal
+        private final String documentRoot;
+        private final boolean directoryListing;
+        private final FiltreIp allowedIps; // null : pas de règles propres au site (site principal)
+        private final FiltreIp deniedIps;
+        private final boolean defaultAccept;
+        private final CacheFichiers cacheFichiers;
+        private final CacheChemins cacheChemins;
+        private final JournalAsync journalAcces; // null si le journal est désactivé
+        private final JournalAsync journalErreurs;
+
+        private Site(WebServeurConfig.HoteVirtuel hote, String documentRoot, String directoryListing, CacheFichiers cacheFichiers,
+                     CacheChemins cacheChemins, JournalAsync journalAcces, JournalAsync journalErreurs) {
+            this.hote = hote;
+            this.documentRoot = documentRoot;
+            this.directoryListing = "on".equalsIgnoreCase(directoryListing);
+            this.allowedIps = hote != null ? new FiltreIp(hote.getAllowedIps()) : null;
+            this.deniedIps = hote != null ? new FiltreIp(hote.getDeniedIps()) : null;
+            this.defaultAccept = hote == null || hote.isDefaultAccept();
+            this.cacheFichiers = cacheFichiers;
+            this.cacheChemins = cacheChemins;
+            this.journalAcces = journalAcces;
+            this.journalErreurs = journalErreurs;
+        }
+
+        /**
+         * Nom du site pour l'affichage et les métriques ("default" pour le site principal).
+         */
+        public String getNom() { return hote != null ? hote.getServerName() : "default"; }
+
+        public String getDocumentRoot() { return documentRoot; }
+
+        public boolean isDirectoryListing() { return directoryListing; }
+
+        /**
+         * Règles d'accès propres au site, appliquées à chaque requête (le filtrage des connexions a déjà eu lieu).
+         */
+        public boolean isIpAllowed(InetAddress clientAddress) {
+            if (allowedIps == null) {
+                return true;
+            }
+            if (deniedIps.contient(clientAddress)) {
+                return false;
+            }
+            return allowedIps.contient(clientAddress) || defaultAccept;
+        }
+
+        public CacheFichiers getCacheFichiers() { return cacheFichiers; }
+
+        public CacheChemins getCacheChemins() { return cacheChemins; }
+
+        public JournalAsync getJournalAcces() { return journalAcces; }
+
+        public JournalAsync getJournalErreurs() { return journalErreurs; }
+    }
+
+    private final WebServeurConfig config;
+    private final FiltreIp allowedIps;
+    private final FiltreIp deniedIps;
+    private final LimiteurIp limiteur;
+    private final Site sitePrincipal;
+    private final List<Site> hotesVirtuels;
+    private final Map<String, Site> sitesParNom; // ServerName et ServerAlias en minuscules : recherche en O(1)
+    private final Map<String, JournalAsync> journaux; // Un seul journal par fichier, partagé par les sites qui l'utilisent
+    private final RegistreUtilisateurs registre; // Données du formulaire, null si le magasin n'a pas pu être ouvert
+    private final Map<String, PoolTravailleurs> traitementsExternes; // Par chemin, dans l'ordre de conf.xml
+    private final Path repertoireEnvoi; // UploadDir, absolu et normalisé
+    private final Set<String> extensionsEnvoi; // UploadExtensions
+
+    private ConfigActive(WebServeurConfig config, ConfigActive precedente) throws IOException {
+        this.config = config;
+        this.allowedIps = new FiltreIp(config.getAllowedIps()); // Compilé en arbre préfixe, immuable
+        this.deniedIps = new FiltreIp(config.getDeniedIps());
+        this.limiteur = precedente != null && memeLimiteur(precedente.config, config) ? precedente.limiteur : creerLimiteur(config);
+        this.journaux = new HashMap<>();
+        this.repertoireEnvoi = Paths.get(config.getUploadDir()).toAbsolutePath().normalize();
+        this.extensionsEnvoi = Collections.unmodifiableSet(new HashSet<>(config.getUploadExtensions()));
+
+        this.sitePrincipal = creerSite(null, config.getDocumentRoot(), config.getDirectoryListing(), config.getFileCacheSize(),
+                config.getAccessLogPath(), config.getErrorLogPath(), precedente != null ? precedente.sitePrincipal : null, precedente);
+        List<Site> hotes = new ArrayList<>();
+        Map<String, Site> parNom = new HashMap<>();
+        for (WebServeurConfig.HoteVirtuel hote : config.getHotesVirtuels()) {
+            Site ancien = precedente != null ? precedente.sitesParNom.get(hote.getServerName()) : null;
+            Site site = creerSite(hote, hote.getDocumentRoot(), hote.getDirectoryListing(), hote.getFileCacheSize(),
+                    hote.getAccessLogPath(), hote.getErrorLogPath(), ancien, precedente);
+            hotes.add(site);
+            for (String nom : hote.getNoms()) {
+                if (parNom.putIfAbsent(nom, site) != null) {
+                    System.out.println("Avertissement : Nom d'hôte " + nom + " déclaré par plusieurs hôtes virtuels. Seul le premier est retenu.");
+                }
+            }
+        }
+        this.hotesVirtuels = Collections.unmodifiableList(hotes);
+        this.sitesParNom = parNom;
+        this.registre = precedente != null && precedente.registre != null
+                && precedente.registre.getChemin().equals(config.getFormDataDir()) ? precedente.registre : ouvrirRegistre(config);
+
+        this.traitementsExternes = new LinkedHashMap<>();
+        for (WebServeurConfig.TraitementExterne traitement : config.getTraitementsExternes()) {
+            // Doublon écarté avant tout : le pool du premier, éventuellement repris de la configuration précédente, reste seul
+            if (traitementsExternes.containsKey(traitement.getChemin())) {
+                System.out.println("Avertissement : Chemin " + traitement.getChemin() + " déclaré par plusieurs traitements externes. Seul le premier est retenu.");
+                continue;
+            }
+            PoolTravailleurs pool = precedente != null ? precedente.traitementsExternes.get(traitement.getChemin()) : null;
+            if (pool == null || !memeTraitement(pool.getDefinition(), traitement)) {
+                pool = new PoolTravailleurs(traitement); // Processus déjà lancés et chauds repris tels quels sinon
+            }
+            traitementsExternes.put(traitement.getChemin(), pool);
+        }
+    }
+
+    private static boolean memeTraitement(WebServeurConfig.TraitementExterne avant, WebServeurConfig.TraitementExterne apres) {
+        return avant.getCommande().equals(apres.getCommande())
+                && Objects.equals(avant.getRepertoire(), apres.getRepertoire())
+                && avant.getMinWorkers() == apres.getMinWorkers()
+                && avant.getMaxWorkers() == apres.getMaxWorkers()
+                && avant.getDelaiMaxMillis() == apres.getDelaiMaxMillis()
+                && avant.getIntervalleControle() == apres.getIntervalleControle();
+    }
+
+    /**
+     * Le serveur démarre même si le magasin de données est inutilisable : seul le formulaire répond alors 503.
+     */
+    private static RegistreUtilisateurs ouvrirRegistre(WebServeurConfig config) {
+        try {
+            return new RegistreUtilisateurs(config.getFormDataDir(), config.getFormDataFile());
+        } catch (IOException e) {
+            WebServeur.logError("Impossible d'ouvrir les données du formulaire " + config.getFormDataDir() + " : " + e.getMessage());
+            System.out.println("Avertissement : Impossible d'ouvrir les données du formulaire " + config.getFormDataDir() + " : " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Construit tous les objets à partir de la configuration (démarrage du serveur).
+     * @throws IOException si un DocumentRoot ne peut pas être résolu.
+     */
+    public static ConfigActive creer(WebServeurConfig config) throws IOException {
+        return new ConfigActive(config, null);
+    }
+
+    /**
+     * Construit l'instantané qui succède à celui-ci. Seuls les objets concernés par un paramètre modifié sont recréés :
+     * les autres (et ce qu'ils ont en cache) sont repris tels quels.
+     * @throws IOException si un nouveau DocumentRoot ne peut pas être résolu.
+     */
+    public ConfigActive recharger(WebServeurConfig nouvelle) throws IOException {
+        return new ConfigActive(nouvelle, this);
+    }
+
+    /**
+     * Crée un site en reprenant, autant que possible, les objets du site qu'il remplace (même nom) ou d'un autre site
+     * de l'instantané précédent (même racine, même fichier de journal).
+     */
+    private Site creerSite(WebServeurConfig.HoteVirtuel hote, String racine, String directoryListing, long tailleCache,
+                           String cheminAcces, String cheminErreurs, Site ancien, ConfigActive precedente) throws IOException {
+        CacheChemins chemins = null;
+        if (precedente != null) {
+            for (Site site : precedente.tousLesSites()) {
+                if (site.documentRoot.equals(racine)) {
+                    chemins = site.cacheChemins; // Résolutions valables quel que soit le site qui partage cette racine
+                    break;
+                }
+            }
+        }
+        if (chemins == null) {
+            chemins = new CacheChemins(racine);
+        }
+        // Clés du cache de fichiers = chemins de requête, réponses compressées selon les réglages gzip
+        boolean memeCacheFichiers = ancien != null && ancien.documentRoot.equals(racine)
+                && ancien.cacheFichiers.getBudgetOctets() == tailleCache
+                && precedente.config.getFileCacheMaxEntry() == config.getFileCacheMaxEntry()
+                && precedente.config.getGzip().equals(config.getGzip())
+                && precedente.config.getGzipMinSize() == config.getGzipMinSize()
+                && precedente.repertoireEnvoi.equals(repertoireEnvoi); // En-têtes des fichiers envoyés, gardés en cache
+        CacheFichiers fichiers = memeCacheFichiers ? ancien.cacheFichiers : new CacheFichiers(tailleCache, config.getFileCacheMaxEntry());
+        return new Site(hote, racine, directoryListing, fichiers, chemins,
+                journal(cheminAcces, precedente), journal(cheminErreurs, precedente));
+    }
+
+    /**
+     * Journal écrivant dans ce fichier : déjà ouvert par un autre site, repris de l'instantané précédent si ses réglages
+     * n'ont pas changé, sinon créé.
+     */
+    private JournalAsync journal(String chemin, ConfigActive precedente) {
+        if (chemin == null) {
+            return null;
+        }
+        JournalAsync journal = journaux.get(chemin);
+        if (journal == null) {
+            if (precedente != null && memesReglagesJournaux(precedente.config, config)) {
+                journal = precedente.journaux.get(chemin);
+            }
+            if (journal == null) {
+                journal = creerJournal(chemin, config);
+            }
+            journaux.put(chemin, journal);
+        }
+        return journal;
+    }
+
+    /**
+     * Site à servir pour la valeur de l'en-tête Host ("exemple.fr:8000", "[::1]:8000"...), le site principal par défaut.
+     */
+    public Site getSite(String enTeteHost) {
+        if (enTeteHost == null || sitesParNom.isEmpty()) {
+            return sitePrincipal;
+        }
+        String nom = enTeteHost.trim();
+        int finNom = nom.startsWith("[") ? nom.indexOf(']') + 1 : nom.indexOf(':'); // Le port suit le nom
+        if (finNom > 0) {
+            nom = nom.substring(0, finNom);
+        }
+        if (nom.endsWith(".")) {
+            nom = nom.substring(0, nom.length() - 1); // Nom pleinement qualifié : "exemple.fr."
+        }
+        Site site = sitesParNom.get(nom.toLowerCase());
+        return site != null ? site : sitePrincipal;
+    }
+
+    public Site getSitePrincipal() { return sitePrincipal; }
+
+    public List<Site> getHotesVirtuels() { return hotesVirtuels; }
+
+    /**
+     * Site principal puis hôtes virtuels.
+     */
+    public List<Site> tousLesSites() {
+        List<Site> sites = new ArrayList<>(hotesVirtuels.size() + 1);
+        sites.add(sitePrincipal);
+        sites.addAll(hotesVirtuels);
+        return sites;
+    }
+
+    private static boolean memeLimiteur(WebServeurConfig avant, WebServeurConfig apres) {
+        return avant.getRateLimit() == apres.getRateLimit()
+                && avant.getRateLimitBurst() == apres.getRateLimitBurst()
+                && avant.getMaxConnectionsPerIp() == apres.getMaxConnectionsPerIp()
+                && avant.getRateLimitTableSize() == apres.getRateLimitTableSize();
+    }
+
+    private static boolean memesReglagesJournaux(WebServeurConfig avant, WebServeurConfig apres) {
+        return avant.getLogBufferSize() == apres.getLogBufferSize()
+                && avant.getLogOverflow().equals(apres.getLogOverflow())
+                && avant.getLogFlushInterval() == apres.getLogFlushInterval()
+                && avant.getLogRotateSize() == apres.getLogRotateSize()
+                && avant.getLogRotatePeriod().equals(apres.getLogRotatePeriod())
+                && avant.getLogRetention() == apres.getLogRetention()
+                && avant.getLogCompress().equals(apres.getLogCompress());
+    }
+
+    /**
+     * Paramètres pris en compte seulement au démarrage, modifiés entre cet instantané et le suivant.
+     */
+    public List<String> parametresNecessitantRedemarrage(ConfigActive suivante) {
+        WebServeurConfig nouvelle = suivante.config;
+        List<String> parametres = new ArrayList<>();
+        signalerSiModifie(parametres, "port", config.getPort(), nouvelle.getPort());
+        signalerSiModifie(parametres, "Engine", config.getEngine(), nouvelle.getEngine());
+        signalerSiModifie(parametres, "EventLoops", config.getEventLoops(), nouvelle.getEventLoops());
+        signalerSiModifie(parametres, "Executor", config.getExecutor(), nouvelle.getExecutor());
+        signalerSiModifie(parametres, "MaxThreads", config.getMaxThreads(), nouvelle.getMaxThreads());
+        signalerSiModifie(parametres, "InfoRefreshInterval", config.getInfoRefreshInterval(), nouvelle.getInfoRefreshInterval());
+        return parametres;
+    }
+
+    private static void signalerSiModifie(List<String> parametres, String nom, Object avant, Object apres) {
+        if (!avant.equals(apres)) {
+            parametres.add(nom);
+        }
+    }
+
+    /**
+     * Ferme, après un délai de grâce, les objets de cet instantané que le suivant n'a pas repris.
+     */
+    public void retirerAuProfitDe(ConfigActive suivante) {
+        Set<Object> repris = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Site site : suivante.tousLesSites()) {
+            repris.add(site.cacheChemins);
+        }
+        repris.addAll(suivante.journaux.values());
+
+        List<Runnable> fermetures = new ArrayList<>();
+        for (Site site : tousLesSites()) {
+            if (repris.add(site.cacheChemins)) { // add : un cache partagé par plusieurs sites n'est fermé qu'une fois
+                fermetures.add(site.cacheChemins::fermer);
+            }
+        }
+        for (JournalAsync journal : journaux.values()) {
+            if (!repris.contains(journal)) {
+                fermetures.add(journal::fermer);
+            }
+        }
+        if (registre != null && registre != suivante.registre) {
+            fermetures.add(registre::fermer);
+        }
+        for (PoolTravailleurs pool : traitementsExternes.values()) {
+            if (!suivante.traitementsExternes.containsValue(pool)) {
+                fermetures.add(pool::fermer);
+            }
+        }
+        if (!fermetures.isEmpty()) {
+            CompletableFuture.delayedExecutor(DELAI_RETRAIT_SECONDES, TimeUnit.SECONDS)
+                    .execute(() -> fermetures.forEach(Runnable::run));
+        }
+    }
+
+    private static LimiteurIp creerLimiteur(WebServeurConfig config) {
+        return new LimiteurIp(config.getRateLimit(), config.getRateLimitBurst(), config.getMaxConnectionsPerIp(), config.getRateLimitTableSize());
+    }
+
+    private static JournalAsync creerJournal(String chemin, WebServeurConfig config) {
+        JournalAsync.Rotation rotation = new JournalAsync.Rotation(config.getLogRotateSize(),
+                JournalAsync.Periode.valueOf(config.getLogRotatePeriod().toUpperCase()),
+                config.getLogRetention(), "on".equals(config.getLogCompress()));
+        return new JournalAsync(chemin, config.getLogBufferSize(),
+                JournalAsync.Debordement.valueOf(config.getLogOverflow().toUpperCase()), config.getLogFlushInterval(), rotation);
+    }
+
+    public WebServeurConfig getConfig() { return config; }
+
+    public FiltreIp getAllowedIps() { return allowedIps; }
+
+    public FiltreIp getDeniedIps() { return deniedIps; }
+
+    public boolean isDefaultAccept() { return config.isDefaultAccept(); }
+
+    public LimiteurIp getLimiteur() { return limiteur; }
+
+    public int getKeepAliveTimeout() { return config.getKeepAliveTimeout(); }
+
+    public int getMaxKeepAliveRequests() { return config.getMaxKeepAliveRequests(); }
+
+    public boolean isGzipActif() { return "on".equalsIgnoreCase(config.getGzip()); }
+
+    public int getGzipTailleMin() { return config.getGzipMinSize(); }
+
+    public int getIntervalleFluxInfo() { return config.getInfoStreamInterval(); }
+
+    public long getTailleMaxCorps() { return config.getMaxBodySize(); }
+
+    public RegistreUtilisateurs getRegistre() { return registre; }
+
+    /**
+     * Indique si le chemin de requête (sans la chaîne de requête) est celui de l'envoi de fichiers.
+     */
+    public boolean isCheminEnvoi(String chemin) {
+        String cheminEnvoi = config.getUploadPath();
+        if (cheminEnvoi.isEmpty() || chemin == null) {
+            return false;
+        }
+        int debutRequete = chemin.indexOf('?');
+        return cheminEnvoi.equals(debutRequete >= 0 ? chemin.substring(0, debutRequete) : chemin);
+    }
+
+    public Path getRepertoireEnvoi() { return repertoireEnvoi; }
+
+    public Set<String> getExtensionsEnvoi() { return extensionsEnvoi; }
+
+    /**
+     * Indique si ce fichier a été déposé par un envoi (il se trouve sous UploadDir) : son contenu vient d'un client,
+     * il est donc servi en téléchargement et sans déduction de type par le navigateur.
+     */
+    public boolean isFichierEnvoye(File fichier) {
+        return fichier.toPath().toAbsolutePath().normalize().startsWith(repertoireEnvoi);
+    }
+
+    public long getTailleMaxEnvoi() { return config.getMaxUploadSize(); }
+
+    public long getTailleMaxFichierEnvoi() { return config.getMaxUploadPartSize(); }
+
+    /**
+     * Pool chargé de ce chemin de requête (sans la chaîne de requête) : même chemin, ou chemin commençant
+     * par celui d'un traitement qui se termine par '/'. null si le chemin est servi par le serveur lui-même.
+     */
+    public PoolTravailleurs getTraitementExterne(String chemin) {
+        if (traitementsExternes.isEmpty() || chemin == null) {
+            return null;
+        }
+        int debutRequete = chemin.indexOf('?');
+        String sansRequete = debutRequete >= 0 ? chemin.substring(0, debutRequete) : chemin;
+        PoolTravailleurs pool = traitementsExternes.get(sansRequete);
+        if (pool != null) {
+            return pool;
+        }
+        for (Map.Entry<String, PoolTravailleurs> e : traitementsExternes.entrySet()) {
+            if (e.getKey().endsWith("/") && sansRequete.startsWith(e.getKey())) {
+                return e.getValue();
+            }
+        }
+        return null;
+    }
+
+    public Collection<PoolTravailleurs> getTraitementsExternes() { return Collections.unmodifiableCollection(traitementsExternes.values()); }
+
+    /**
+     * Tous les journaux ouverts, chacun une seule fois même s'il est partagé par plusieurs sites.
+     */
+    public Collection<JournalAsync> getJournaux() { return Collections.unmodifiableCollection(journaux.values()); }
+}
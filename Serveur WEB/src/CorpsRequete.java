@@ -0,0 +1,347 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Corps d'une requête, lu au fil de sa réception : délimité par Content-Length ou décodé depuis
+ * Transfer-Encoding: chunked. Un petit corps reste dans un tampon emprunté à un pool partagé ; dès qu'il
+ * dépasse ce tampon, il est écrit dans un fichier temporaire au fur et à mesure qu'il arrive, si bien qu'un
+ * gros envoi n'occupe jamais le tas.
+ * Le décodage fonctionne par poussée (consommer) : le moteur NIO y verse ce qu'il reçoit, le moteur bloquant
+ * passe par lireDepuis. Dans les deux cas les octets qui suivent le corps (requête suivante) ne sont pas touchés.
+ * Un envoi de fichiers (multipart/form-data vers le chemin d'envoi) n'est pas conservé tel quel : il est découpé
+ * au fil de la réception par un ReceptionMultipart, qui écrit directement les fichiers à leur place.
+ */
+public final class CorpsRequete implements Closeable {
+
+    static final int TAILLE_TAMPON = 16 * 1024; // Au-delà, le corps part dans un fichier temporaire
+    private static final int TAILLE_POOL = 64; // Tampons gardés pour être réutilisés (1 Mo au plus)
+    private static final int TAILLE_MAX_LIGNE = 1024; // Ligne de taille d'un bloc ou ligne de trailer
+    private static final int NOMBRE_MAX_LIGNES_TRAILER = 100;
+
+    private static final ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(TAILLE_POOL);
+
+    private enum Etat {
+        DONNEES,     // Octets du corps (tout le corps avec Content-Length, un bloc en chunked)
+        TAILLE_BLOC, // Ligne "taille-hexa[;extensions]"
+        FIN_BLOC,    // CRLF qui suit les données d'un bloc
+        TRAILER,     // En-têtes de fin, jusqu'à la ligne vide
+        TERMINE
+    }
+
+    private final boolean chunked;
+    private final boolean conserve; // false : les octets sont lus puis jetés
+    private final long tailleMax;
+    private final long tailleAnnoncee; // Content-Length, -1 en chunked
+    private Etat etat;
+    private long restant; // Octets restant à lire dans l'état DONNEES
+    private final StringBuilder ligne = new StringBuilder();
+    private int lignesTrailer;
+    private long taille; // Octets reçus : conservés, ou seulement comptés pour un corps jeté
+    private byte[] tampon; // Corps en mémoire (emprunté au pool), null une fois passé en fichier
+    private Path fichier;
+    private OutputStream sortieFichier;
+    private ReceptionMultipart reception; // Envoi de fichiers, découpé au lieu d'être conservé
+
+    private CorpsRequete(boolean chunked, boolean conserve, long tailleMax, long tailleAnnoncee) {
+        this.chunked = chunked;
+        this.conserve = conserve;
+        this.tailleMax = tailleMax;
+        this.tailleAnnoncee = tailleAnnoncee;
+        this.etat = chunked ? Etat.TAILLE_BLOC : Etat.DONNEES;
+        this.restant = chunked ? 0 : tailleAnnoncee;
+    }
+
+    /**
+     * Prépare la lecture du corps selon la configuration : un POST multipart/form-data vers le chemin d'envoi
+     * de fichiers est découpé à la réception (limites MaxUploadSize et MaxUploadPartSize), les autres POST sont
+     * conservés et le corps des autres méthodes est jeté, tous deux dans la limite MaxBodySize.
+     */
+    public static CorpsRequete preparer(RequeteHttp requete, ConfigActive config) throws RequeteInvalideException {
+        boolean post = "POST".equalsIgnoreCase(requete.getMethode());
+        String limite = post && config.isCheminEnvoi(requete.getChemin()) ? ReceptionMultipart.limite(requete.getEnTete("content-type")) : null;
+        if (limite == null) {
+            return preparer(requete, post, config.getTailleMaxCorps());
+        }
+        CorpsRequete corps = preparer(requete, true, config.getTailleMaxEnvoi());
+        if (corps != null) {
+            corps.reception = new ReceptionMultipart(limite, config.getRepertoireEnvoi(), config.getExtensionsEnvoi(),
+                    config.getTailleMaxFichierEnvoi());
+        }
+        return corps;
+    }
+
+    /**
+     * Prépare la lecture du corps annoncé par les en-têtes de la requête.
+     *
+     * @param conserve  false pour jeter le corps.
+     * @param tailleMax Taille maximale du corps, en octets, qu'il soit conservé ou jeté : un corps jeté occupe
+     *                  tout de même la connexion et un thread (ou une boucle) pendant sa lecture.
+     * @return Le corps à lire, ou null si la requête n'en a pas.
+     * @throws RequeteInvalideException 400 (longueur invalide), 413 (corps trop volumineux) ou 501 (codage inconnu).
+     */
+    public static CorpsRequete preparer(RequeteHttp requete, boolean conserve, long tailleMax) throws RequeteInvalideException {
+        String transferEncoding = requete.getEnTete("transfer-encoding");
+        if (transferEncoding != null) {
+            // Transfer-Encoding prime sur Content-Length (RFC 9112, section 6.3)
+            if (!"chunked".equalsIgnoreCase(transferEncoding.trim())) {
+                throw new RequeteInvalideException("501 Not Implemented", "Transfer-Encoding non pris en charge : " + transferEncoding);
+            }
+            return new CorpsRequete(true, conserve, tailleMax, -1);
+        }
+        long longueur = requete.getContentLength();
+        if (longueur < 0) {
+            throw new RequeteInvalideException("400 Bad Request", "Content-Length invalide.");
+        }
+        if (longueur == 0) {
+            return null;
+        }
+        if (longueur > tailleMax) {
+            throw trop(tailleMax);
+        }
+        return new CorpsRequete(false, conserve, tailleMax, longueur);
+    }
+
+    private static RequeteInvalideException trop(long tailleMax) {
+        return new RequeteInvalideException("413 Content Too Large", "Corps de requête trop volumineux (" + tailleMax + " octets max).");
+    }
+
+    /**
+     * Consomme les octets du corps présents dans src, sans jamais aller au-delà de sa fin.
+     *
+     * @return Nombre d'octets consommés (moins que longueur seulement si le corps est terminé).
+     * @throws RequeteInvalideException si le codage chunked est invalide ou si le corps dépasse la taille maximale.
+     */
+    public int consommer(byte[] src, int debut, int longueur) throws IOException {
+        int i = debut;
+        int fin = debut + longueur;
+        while (i < fin && etat != Etat.TERMINE) {
+            if (etat == Etat.DONNEES) {
+                int n = (int) Math.min(restant, fin - i);
+                stocker(src, i, n);
+                i += n;
+                restant -= n;
+                if (restant == 0) {
+                    if (chunked) {
+                        etat = Etat.FIN_BLOC;
+                    } else {
+                        terminer();
+                    }
+                }
+                continue;
+            }
+            byte octet = src[i++];
+            if (octet == '\n') {
+                finDeLigne();
+            } else if (octet != '\r') {
+                if (ligne.length() >= TAILLE_MAX_LIGNE) {
+                    throw new RequeteInvalideException("400 Bad Request", "Ligne de codage chunked trop longue.");
+                }
+                ligne.append((char) (octet & 0xFF));
+            }
+        }
+        return i - debut;
+    }
+
+    private void finDeLigne() throws IOException {
+        String texte = ligne.toString();
+        ligne.setLength(0);
+        switch (etat) {
+            case TAILLE_BLOC:
+                long tailleBloc = lireTailleBloc(texte);
+                if (tailleBloc == 0) {
+                    etat = Etat.TRAILER;
+                } else {
+                    if (tailleBloc > tailleMax - taille) {
+                        throw trop(tailleMax);
+                    }
+                    restant = tailleBloc;
+                    etat = Etat.DONNEES;
+                }
+                break;
+            case FIN_BLOC:
+                if (!texte.isEmpty()) {
+                    throw new RequeteInvalideException("400 Bad Request", "Bloc chunked plus long que sa taille annoncée.");
+                }
+                etat = Etat.TAILLE_BLOC;
+                break;
+            case TRAILER:
+                if (texte.isEmpty()) {
+                    terminer();
+                } else if (++lignesTrailer > NOMBRE_MAX_LIGNES_TRAILER) {
+                    throw new RequeteInvalideException("431 Request Header Fields Too Large", "Trop d'en-têtes de fin dans le corps chunked.");
+                }
+                break; // Les en-têtes de fin ne sont pas utilisés
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Taille hexadécimale d'un bloc, les extensions éventuelles (après ';') étant ignorées.
+     */
+    private static long lireTailleBloc(String texte) throws RequeteInvalideException {
+        int finTaille = texte.indexOf(';');
+        String hexa = (finTaille >= 0 ? texte.substring(0, finTaille) : texte).trim();
+        if (hexa.isEmpty() || hexa.length() > 15) { // 15 chiffres : pas de dépassement d'un long
+            throw new RequeteInvalideException("400 Bad Request", "Taille de bloc chunked invalide : " + texte);
+        }
+        long valeur = 0;
+        for (int i = 0; i < hexa.length(); i++) {
+            int chiffre = Character.digit(hexa.charAt(i), 16);
+            if (chiffre < 0) {
+                throw new RequeteInvalideException("400 Bad Request", "Taille de bloc chunked invalide : " + texte);
+            }
+            valeur = valeur * 16 + chiffre;
+        }
+        return valeur;
+    }
+
+    private void stocker(byte[] src, int debut, int n) throws IOException {
+        if (!conserve) {
+            taille += n; // Jeté, mais compté pour la taille maximale
+            return;
+        }
+        if (n == 0) {
+            return;
+        }
+        if (reception != null) {
+            reception.consommer(src, debut, n);
+            taille += n;
+            return;
+        }
+        if (sortieFichier == null && (taille + n > TAILLE_TAMPON || tailleAnnoncee > TAILLE_TAMPON)) {
+            versFichier();
+        }
+        if (sortieFichier != null) {
+            sortieFichier.write(src, debut, n);
+        } else {
+            if (tampon == null) {
+                tampon = emprunter();
+            }
+            System.arraycopy(src, debut, tampon, (int) taille, n);
+        }
+        taille += n;
+    }
+
+    /**
+     * Bascule vers un fichier temporaire : ce qui était en mémoire y est recopié et le tampon rendu au pool.
+     */
+    private void versFichier() throws IOException {
+        fichier = Files.createTempFile("corps-", ".tmp");
+        sortieFichier = new BufferedOutputStream(Files.newOutputStream(fichier), 8192);
+        if (tampon != null) {
+            sortieFichier.write(tampon, 0, (int) taille);
+            rendre(tampon);
+            tampon = null;
+        }
+    }
+
+    private void terminer() throws IOException {
+        etat = Etat.TERMINE;
+        if (sortieFichier != null) {
+            sortieFichier.close();
+            sortieFichier = null;
+        }
+        if (reception != null) {
+            reception.terminer();
+        }
+    }
+
+    /**
+     * Lit tout le corps depuis un flux bloquant.
+     *
+     * @throws RequeteInvalideException si le corps est invalide, trop volumineux ou coupé avant sa fin.
+     */
+    public void lireDepuis(InputStream in) throws IOException {
+        byte[] lu = emprunter();
+        try {
+            while (etat != Etat.TERMINE) {
+                // Ne demande jamais plus que la fin du corps, même si le flux sous-jacent a déjà la suite en tampon
+                int demande = etat == Etat.DONNEES ? (int) Math.min(restant, lu.length) : 1;
+                int n = in.read(lu, 0, demande);
+                if (n < 0) {
+                    throw new RequeteInvalideException("400 Bad Request", "Connexion fermée au milieu du corps de la requête.");
+                }
+                consommer(lu, 0, n);
+            }
+        } finally {
+            rendre(lu);
+        }
+    }
+
+    public boolean isComplet() { return etat == Etat.TERMINE; }
+
+    public boolean isConserve() { return conserve; }
+
+    /**
+     * Taille du corps reçu (décodé), en octets.
+     */
+    public long getTaille() { return taille; }
+
+    /**
+     * Indique si le corps a dû être écrit sur disque.
+     */
+    public boolean isSurDisque() { return fichier != null; }
+
+    /**
+     * Envoi de fichiers découpé à la réception, null pour un corps conservé tel quel.
+     */
+    public ReceptionMultipart getReception() { return reception; }
+
+    /**
+     * Ouvre le corps complet en lecture (depuis la mémoire ou le fichier temporaire). Vide pour un envoi
+     * de fichiers, dont seules les parties sont gardées (voir getReception).
+     */
+    public InputStream ouvrir() throws IOException {
+        if (fichier != null) {
+            return Files.newInputStream(fichier);
+        }
+        return tampon != null ? new ByteArrayInputStream(tampon, 0, (int) taille) : InputStream.nullInputStream();
+    }
+
+    /**
+     * Rend le tampon au pool et supprime le fichier temporaire. Le corps ne doit plus être lu ensuite.
+     */
+    @Override
+    public void close() {
+        if (reception != null) {
+            reception.close(); // Fichiers d'un envoi non publié ; ceux d'un envoi publié restent en place
+        }
+        if (tampon != null) {
+            rendre(tampon);
+            tampon = null;
+        }
+        if (sortieFichier != null) {
+            try {
+                sortieFichier.close();
+            } catch (IOException e) {
+                // Le fichier est supprimé juste après
+            }
+            sortieFichier = null;
+        }
+        if (fichier != null) {
+            try {
+                Files.deleteIfExists(fichier);
+            } catch (IOException e) {
+                WebServeur.logError("Impossible de supprimer le fichier temporaire " + fichier + " : " + e.getMessage());
+            }
+            fichier = null;
+        }
+    }
+
+    private static byte[] emprunter() {
+        byte[] tampon = POOL.poll();
+        return tampon != null ? tampon : new byte[TAILLE_TAMPON];
+    }
+
+    private static void rendre(byte[] tampon) {
+        POOL.offer(tampon); // Pool plein : le tampon est simplement abandonné au ramasse-miettes
+    }
+}
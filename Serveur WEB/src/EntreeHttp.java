@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Flux d'entrée tamponné d'une connexion du moteur bloquant. Contrairement à BufferedInputStream, il laisse
+ * RequeteHttp analyser les en-têtes directement dans son tampon, sans lecture octet par octet ni copie ligne par ligne ;
+ * les octets qui suivent les en-têtes (corps, requête suivante) restent dans le tampon pour les lectures suivantes.
+ */
+public class EntreeHttp extends InputStream {
+
+    private static final int TAILLE_TAMPON = 8 * 1024; // Agrandi jusqu'à RequeteHttp.TAILLE_MAX_EN_TETES pour de gros en-têtes
+
+    private final InputStream in;
+    private byte[] tampon = new byte[TAILLE_TAMPON];
+    private int debut; // Octets non lus : tampon[debut, fin)
+    private int fin;
+
+    public EntreeHttp(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Lit les en-têtes de la requête suivante et les analyse dans requete.
+     *
+     * @return false si le client a fermé la connexion avant d'envoyer une requête.
+     * @throws RequeteInvalideException si la requête est mal formée, dépasse les limites ou est coupée avant la fin des en-têtes.
+     */
+    public boolean lireEnTetes(RequeteHttp requete) throws IOException {
+        int finEnTetes;
+        int examines = 0; // Octets déjà examinés depuis debut (relatif : remplir peut déplacer les données)
+        while ((finEnTetes = RequeteHttp.chercherFinEnTetes(tampon, debut, debut + examines, fin)) < 0) {
+            examines = fin - debut;
+            if (fin - debut >= RequeteHttp.TAILLE_MAX_EN_TETES) {
+                throw new RequeteInvalideException("431 Request Header Fields Too Large", "En-têtes de requête trop volumineux.");
+            }
+            if (!remplir()) {
+                if (estVide()) {
+                    return false; // Fermeture entre deux requêtes (éventuellement après des lignes vides)
+                }
+                throw new RequeteInvalideException("400 Bad Request", "Connexion fermée au milieu des en-têtes.");
+            }
+        }
+        requete.analyser(tampon, debut, finEnTetes);
+        debut = finEnTetes;
+        return true;
+    }
+
+    /**
+     * Indique si les octets en attente ne sont que des fins de ligne (tolérées entre deux requêtes).
+     */
+    private boolean estVide() {
+        for (int i = debut; i < fin; i++) {
+            if (tampon[i] != '\r' && tampon[i] != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ajoute au tampon ce que le socket a reçu, en tassant ou en agrandissant le tampon si besoin.
+     * @return false en fin de flux.
+     */
+    private boolean remplir() throws IOException {
+        if (debut > 0 && fin == tampon.length) {
+            System.arraycopy(tampon, debut, tampon, 0, fin - debut);
+            fin -= debut;
+            debut = 0;
+        }
+        if (fin == tampon.length) {
+            byte[] agrandi = new byte[Math.min(tampon.length * 2, RequeteHttp.TAILLE_MAX_EN_TETES)];
+            System.arraycopy(tampon, debut, agrandi, 0, fin - debut);
+            fin -= debut;
+            debut = 0;
+            tampon = agrandi;
+        }
+        int lus = in.read(tampon, fin, tampon.length - fin);
+        if (lus < 0) {
+            return false;
+        }
+        fin += lus;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (debut == fin) {
+            debut = fin = 0;
+            if (!remplir()) {
+                return -1;
+            }
+        }
+        return tampon[debut++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (debut == fin) {
+            if (len >= tampon.length) {
+                return in.read(b, off, len); // Gros corps : lu directement, sans passer par le tampon
+            }
+            debut = fin = 0;
+            if (!remplir()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, fin - debut);
+        System.arraycopy(tampon, debut, b, off, n);
+        debut += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (fin - debut) + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
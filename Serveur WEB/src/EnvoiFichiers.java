@@ -0,0 +1,55 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Réponse à un envoi de fichiers (formulaire multipart/form-data de index.html). Les fichiers ont déjà été écrits
+ * dans le répertoire d'envoi pendant la réception du corps (voir ReceptionMultipart) : il ne reste qu'à les publier,
+ * maintenant que la requête a passé les contrôles d'accès du site, et à en rendre compte.
+ */
+public final class EnvoiFichiers {
+
+    private EnvoiFichiers() {
+    }
+
+    /**
+     * Publie les fichiers reçus puis envoie la page qui les liste, avec un lien vers chacun s'il est servi par le site.
+     *
+     * @return Ligne de statut envoyée, pour le journal d'accès.
+     */
+    public static String repondre(SortieHttp out, ConfigActive.Site site, RequeteHttp requete) throws IOException {
+        CorpsRequete corps = requete.getCorps();
+        ReceptionMultipart reception = corps != null ? corps.getReception() : null;
+        if (reception == null) {
+            return FormulaireUtilisateurs.envoyer(out, "415 Unsupported Media Type", "Erreur d'envoi",
+                    "<p>Les fichiers doivent être envoyés en multipart/form-data.</p>");
+        }
+        if (reception.getFichiers().isEmpty()) {
+            return FormulaireUtilisateurs.envoyer(out, "400 Bad Request", "Erreur d'envoi", "<p>Aucun fichier reçu.</p>");
+        }
+        try {
+            reception.publier();
+        } catch (IOException e) {
+            WebServeur.logError("Publication des fichiers envoyés impossible : " + e.getMessage());
+            return FormulaireUtilisateurs.envoyer(out, "500 Internal Server Error", "Erreur d'envoi",
+                    "<p>Enregistrement des fichiers impossible.</p>");
+        }
+
+        Path racine = Paths.get(site.getDocumentRoot()).toAbsolutePath().normalize();
+        StringBuilder liste = new StringBuilder("<ul>");
+        for (ReceptionMultipart.FichierRecu fichier : reception.getFichiers()) {
+            String nom = FormulaireUtilisateurs.echapper(fichier.getFichier().getFileName().toString());
+            liste.append("<li>");
+            if (fichier.getFichier().startsWith(racine)) {
+                // Noms réduits à [A-Za-z0-9._-] à la réception : utilisables tels quels dans l'URL
+                String url = "/" + racine.relativize(fichier.getFichier()).toString().replace('\\', '/');
+                liste.append("<a href=\"").append(FormulaireUtilisateurs.echapper(url)).append("\">").append(nom).append("</a>");
+            } else {
+                liste.append(nom);
+            }
+            liste.append(" (").append(fichier.getTaille()).append(" octets)</li>");
+        }
+        liste.append("</ul>");
+        return FormulaireUtilisateurs.envoyer(out, "201 Created", "Envoi réussi !", liste.toString());
+    }
+}
@@ -0,0 +1,185 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ensemble de plages d'adresses (CIDR IPv4 et IPv6) compilé en deux arbres préfixes binaires, un par famille.
+ * La recherche parcourt au plus 32 ou 128 nœuds quel que soit le nombre de plages, sans allocation ni comparaison
+ * de chaînes : deux écritures différentes d'une même adresse IPv6 ("::1" et "0:0:0:0:0:0:0:1") donnent les mêmes octets.
+ * Immuable une fois construit, donc partageable sans synchronisation entre les threads de connexion.
+ */
+public class FiltreIp {
+
+    private static final int NOMBRE_MAX_AFFICHEES = 10;
+
+    /**
+     * Arbre binaire sur les bits de l'adresse, stocké dans des tableaux : le nœud n a ses fils en
+     * enfants[2n] (bit 0) et enfants[2n + 1] (bit 1), 0 signifiant "pas de fils" (0 est la racine).
+     */
+    private static final class Arbre {
+        private int[] enfants = new int[64];
+        private boolean[] terminal = new boolean[32]; // Une plage se termine sur ce nœud : tout le sous-arbre est couvert
+        private int nombreNoeuds = 1;
+
+        void ajouter(byte[] adresse, int longueurPrefixe) {
+            int noeud = 0;
+            for (int bit = 0; bit < longueurPrefixe; bit++) {
+                if (terminal[noeud]) {
+                    return; // Déjà couvert par une plage plus large
+                }
+                int index = 2 * noeud + bitA(adresse, bit);
+                if (enfants[index] == 0) {
+                    int nouveau = nouveauNoeud(); // Avant l'affectation : nouveauNoeud() peut remplacer le tableau
+                    enfants[index] = nouveau;
+                }
+                noeud = enfants[index];
+            }
+            terminal[noeud] = true;
+            // Les plages plus étroites déjà insérées sous ce nœud deviennent inutiles
+            enfants[2 * noeud] = 0;
+            enfants[2 * noeud + 1] = 0;
+        }
+
+        boolean contient(byte[] adresse) {
+            int noeud = 0;
+            int bits = adresse.length * 8;
+            for (int bit = 0; ; bit++) {
+                if (terminal[noeud]) {
+                    return true;
+                }
+                if (bit == bits) {
+                    return false;
+                }
+                noeud = enfants[2 * noeud + bitA(adresse, bit)];
+                if (noeud == 0) {
+                    return false;
+                }
+            }
+        }
+
+        private int nouveauNoeud() {
+            if (nombreNoeuds == terminal.length) {
+                terminal = Arrays.copyOf(terminal, terminal.length * 2);
+                enfants = Arrays.copyOf(enfants, enfants.length * 2);
+            }
+            return nombreNoeuds++;
+        }
+
+        void compacter() {
+            terminal = Arrays.copyOf(terminal, nombreNoeuds);
+            enfants = Arrays.copyOf(enfants, 2 * nombreNoeuds);
+        }
+
+        private static int bitA(byte[] adresse, int bit) {
+            return (adresse[bit >>> 3] >>> (7 - (bit & 7))) & 1;
+        }
+    }
+
+    private final Arbre ipv4 = new Arbre();
+    private final Arbre ipv6 = new Arbre();
+    private final int nombrePlages;
+    private final String description;
+
+    /**
+     * Compile les entrées ("192.168.1.10", "10.0.0.0/8", "2001:db8::/32", "::1"...).
+     * Les entrées invalides sont signalées et ignorées.
+     */
+    public FiltreIp(List<String> entrees) {
+        int valides = 0;
+        for (String entree : entrees) {
+            if (ajouter(entree.trim())) {
+                valides++;
+            } else {
+                System.out.println("Avertissement : Plage d'adresses IP invalide ignorée : " + entree);
+            }
+        }
+        ipv4.compacter();
+        ipv6.compacter();
+        this.nombrePlages = valides;
+        this.description = entrees.size() <= NOMBRE_MAX_AFFICHEES ? entrees.toString() : valides + " plages";
+    }
+
+    public boolean estVide() {
+        return nombrePlages == 0;
+    }
+
+    /**
+     * Indique si l'adresse appartient à l'une des plages. Les adresses IPv4 présentées sous forme IPv6
+     * (::ffff:a.b.c.d) sont déjà converties en Inet4Address par la JVM.
+     */
+    public boolean contient(InetAddress adresse) {
+        byte[] octets = adresse.getAddress(); // Copie de 4 ou 16 octets, éliminée par l'analyse d'échappement du JIT
+        return octets.length == 4 ? ipv4.contient(octets) : ipv6.contient(octets);
+    }
+
+    private boolean ajouter(String entree) {
+        int barre = entree.indexOf('/');
+        String texteAdresse = barre < 0 ? entree : entree.substring(0, barre);
+        byte[] adresse = analyserAdresse(texteAdresse);
+        if (adresse == null) {
+            return false;
+        }
+        int bits = adresse.length * 8;
+        int longueurPrefixe = bits;
+        if (barre >= 0) {
+            try {
+                longueurPrefixe = Integer.parseInt(entree.substring(barre + 1).trim());
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (longueurPrefixe < 0 || longueurPrefixe > bits) {
+                return false;
+            }
+        }
+        (adresse.length == 4 ? ipv4 : ipv6).ajouter(adresse, longueurPrefixe);
+        return true;
+    }
+
+    /**
+     * Octets d'une adresse littérale, ou null. Ne fait jamais de résolution DNS : une entrée sans ':' doit être
+     * une adresse IPv4 pointée, et InetAddress.getByName ne résout pas un littéral IPv6 (qui contient toujours ':').
+     */
+    private static byte[] analyserAdresse(String texte) {
+        if (texte.indexOf(':') < 0) {
+            return analyserIpv4(texte);
+        }
+        try {
+            InetAddress adresse = InetAddress.getByName(texte.startsWith("[") && texte.endsWith("]") ? texte.substring(1, texte.length() - 1) : texte);
+            return adresse.getAddress(); // ::ffff:a.b.c.d devient une adresse IPv4 sur 4 octets
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static byte[] analyserIpv4(String texte) {
+        String[] parties = texte.split("\\.", -1);
+        if (parties.length != 4) {
+            return null;
+        }
+        byte[] octets = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            if (parties[i].isEmpty() || parties[i].length() > 3) {
+                return null;
+            }
+            int valeur = 0;
+            for (int j = 0; j < parties[i].length(); j++) {
+                char c = parties[i].charAt(j);
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                valeur = valeur * 10 + (c - '0');
+            }
+            if (valeur > 255) {
+                return null;
+            }
+            octets[i] = (byte) valeur;
+        }
+        return octets;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Flux Server-Sent Events des informations système (/info/stream) : une seule connexion longue par tableau de bord,
+ * qui reçoit le JSON de chaque nouvel échantillon au lieu de rouvrir une connexion et d'analyser du HTML à chaque relevé.
+ */
+public class FluxInfo {
+
+    public static final String CHEMIN = "/info/stream";
+
+    private static final int NOMBRE_MAX_FLUX = 32; // Chaque flux occupe un thread pendant toute sa durée
+    private static final int INTERVALLE_MAX_SECONDES = 3600;
+    private static final byte[] PING = ": ping\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final AtomicInteger fluxActifs = new AtomicInteger();
+
+    private FluxInfo() {
+    }
+
+    /**
+     * Indique si le chemin (éventuellement suivi de "?interval=N") désigne le flux.
+     */
+    public static boolean estFlux(String chemin) {
+        return chemin != null && (chemin.equals(CHEMIN) || chemin.startsWith(CHEMIN + "?"));
+    }
+
+    /**
+     * Intervalle entre deux envois : paramètre "interval" (en secondes) de la requête, sinon la valeur par défaut.
+     */
+    public static int intervalle(String chemin, int defautSecondes) {
+        int debut = chemin.indexOf("interval=");
+        if (debut < 0) {
+            return defautSecondes;
+        }
+        int fin = chemin.indexOf('&', debut);
+        try {
+            int valeur = Integer.parseInt(chemin.substring(debut + "interval=".length(), fin < 0 ? chemin.length() : fin));
+            return Math.max(1, Math.min(valeur, INTERVALLE_MAX_SECONDES));
+        } catch (NumberFormatException e) {
+            return defautSecondes;
+        }
+    }
+
+    /**
+     * Réserve une place de flux ; false si le nombre maximal de flux simultanés est atteint.
+     */
+    public static boolean reserver() {
+        while (true) {
+            int actifs = fluxActifs.get();
+            if (actifs >= NOMBRE_MAX_FLUX) {
+                return false;
+            }
+            if (fluxActifs.compareAndSet(actifs, actifs + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public static void liberer() {
+        fluxActifs.decrementAndGet();
+    }
+
+    /**
+     * Envoie les en-têtes puis, toutes les intervalleSecondes, le dernier échantillon s'il est nouveau
+     * (sinon un commentaire qui permet de détecter la déconnexion), jusqu'à ce que le client parte.
+     * La réponse n'a pas de longueur : la connexion est fermée à la fin.
+     */
+    public static void diffuser(SortieHttp out, int intervalleSecondes) {
+        out.setKeepAlive(false);
+        long dernierNumero = -1;
+        try {
+            String enTetes = "HTTP/1.1 200 OK\r\n" +
+                    "Content-Type: text/event-stream; charset=utf-8\r\n" +
+                    "Cache-Control: no-cache\r\n" +
+                    "Connection: close\r\n\r\n" +
+                    "retry: " + intervalleSecondes * 1000L + "\n\n"; // Délai de reconnexion conseillé au client
+            out.write(enTetes.getBytes(StandardCharsets.UTF_8));
+            while (true) {
+                SystemInfo.Instantane instantane = SystemInfo.getInstantane();
+                if (instantane.getNumero() != dernierNumero) {
+                    dernierNumero = instantane.getNumero();
+                    out.write(("id: " + dernierNumero + "\nevent: info\ndata: ").getBytes(StandardCharsets.US_ASCII));
+                    out.write(instantane.getJson()); // JSON sur une seule ligne : une seule ligne "data:"
+                    out.write('\n');
+                    out.write('\n');
+                } else {
+                    out.write(PING);
+                }
+                out.flush();
+                Thread.sleep(intervalleSecondes * 1000L);
+            }
+        } catch (IOException e) {
+            // Le client s'est déconnecté : fin normale du flux
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Traitement du formulaire de index.html (champs user_name et user_mail), autrefois confié à form_handler.bashrc :
+ * même logique, mais sans lancer de processus. Nom et e-mail : enregistrement ; nom seul : affichage de l'e-mail
+ * enregistré pour ce nom. Les données sont dans un RegistreUtilisateurs.
+ */
+public final class FormulaireUtilisateurs {
+
+    private static final int TAILLE_MAX_FORMULAIRE = 64 * 1024; // Deux champs texte : bien plus que nécessaire
+    private static final String TYPE_FORMULAIRE = "application/x-www-form-urlencoded";
+
+    private FormulaireUtilisateurs() {
+    }
+
+    /**
+     * Traite la soumission et envoie la page de réponse.
+     *
+     * @param registre Registre des utilisateurs, null s'il n'a pas pu être ouvert.
+     * @return Ligne de statut envoyée, pour le journal d'accès.
+     */
+    public static String repondre(SortieHttp out, RegistreUtilisateurs registre, RequeteHttp requete) throws IOException {
+        String contentType = requete.getEnTete("content-type");
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith(TYPE_FORMULAIRE)) {
+            return envoyer(out, "415 Unsupported Media Type", "Erreur de formulaire",
+                    "<p>Le formulaire doit être envoyé en " + TYPE_FORMULAIRE + ".</p>");
+        }
+        CorpsRequete corps = requete.getCorps();
+        if (corps != null && corps.getTaille() > TAILLE_MAX_FORMULAIRE) {
+            return envoyer(out, "413 Content Too Large", "Erreur de formulaire", "<p>Formulaire trop volumineux.</p>");
+        }
+        Map<String, String> champs;
+        try {
+            champs = lireChamps(corps);
+        } catch (IllegalArgumentException e) {
+            return envoyer(out, "400 Bad Request", "Erreur de formulaire", "<p>Formulaire mal encodé.</p>");
+        }
+        if (registre == null) {
+            return envoyer(out, "503 Service Unavailable", "Service indisponible",
+                    "<p>L'enregistrement des données est momentanément indisponible.</p>");
+        }
+
+        String nom = champs.getOrDefault("user_name", "").trim();
+        String mail = champs.getOrDefault("user_mail", "").trim();
+        if (nom.isEmpty()) {
+            return envoyer(out, "400 Bad Request", "Erreur de formulaire", "<p>Veuillez fournir au moins un nom.</p>");
+        }
+        // Interdits dans l'ancien fichier "nom,email" : les données restent exportables dans ce format
+        if (!valeurEnregistrable(nom) || !valeurEnregistrable(mail)) {
+            return envoyer(out, "400 Bad Request", "Erreur de formulaire",
+                    "<p>Le nom et l'e-mail ne doivent contenir ni virgule ni retour à la ligne.</p>");
+        }
+
+        if (!mail.isEmpty()) {
+            registre.enregistrer(nom, mail); // Rend la main une fois l'enregistrement sur disque
+            return envoyer(out, "200 OK", "Enregistrement Réussi !",
+                    "<p>Nom : " + echapper(nom) + "</p>"
+                            + "<p>Email : " + echapper(mail) + "</p>"
+                            + "<p>Vos données ont été enregistrées.</p>");
+        }
+        String mailEnregistre = registre.chercher(nom);
+        if (mailEnregistre != null) {
+            return envoyer(out, "200 OK", "Informations de l'utilisateur",
+                    "<p>Nom : " + echapper(nom) + "</p>"
+                            + "<p>Email enregistré : " + echapper(mailEnregistre) + "</p>");
+        }
+        return envoyer(out, "404 Not Found", "Erreur : Nom non enregistré",
+                "<p>Le nom '" + echapper(nom) + "' n'est pas trouvé dans nos enregistrements.</p>");
+    }
+
+    /**
+     * Décode le corps "user_name=...&user_mail=..." (le premier exemplaire d'un champ répété est retenu).
+     * @throws IllegalArgumentException si un encodage %xx est invalide.
+     */
+    private static Map<String, String> lireChamps(CorpsRequete corps) throws IOException {
+        Map<String, String> champs = new HashMap<>();
+        if (corps == null) {
+            return champs;
+        }
+        ByteArrayOutputStream octets = new ByteArrayOutputStream((int) corps.getTaille());
+        try (InputStream in = corps.ouvrir()) {
+            in.transferTo(octets);
+        }
+        // Les %xx sont décodés après le découpage : un '&' ou un '=' encodé appartient à la valeur
+        for (String paire : octets.toString(StandardCharsets.UTF_8).split("&")) {
+            if (paire.isEmpty()) {
+                continue;
+            }
+            int egal = paire.indexOf('=');
+            String nom = URLDecoder.decode(egal >= 0 ? paire.substring(0, egal) : paire, StandardCharsets.UTF_8);
+            String valeur = egal >= 0 ? URLDecoder.decode(paire.substring(egal + 1), StandardCharsets.UTF_8) : "";
+            champs.putIfAbsent(nom, valeur);
+        }
+        return champs;
+    }
+
+    private static boolean valeurEnregistrable(String valeur) {
+        return valeur.indexOf(',') < 0 && valeur.indexOf('\n') < 0 && valeur.indexOf('\r') < 0;
+    }
+
+    static String echapper(String texte) {
+        StringBuilder echappe = new StringBuilder(texte.length() + 16);
+        for (int i = 0; i < texte.length(); i++) {
+            char c = texte.charAt(i);
+            switch (c) {
+                case '<': echappe.append("&lt;"); break;
+                case '>': echappe.append("&gt;"); break;
+                case '&': echappe.append("&amp;"); break;
+                case '"': echappe.append("&quot;"); break;
+                case '\'': echappe.append("&#39;"); break;
+                default: echappe.append(c);
+            }
+        }
+        return echappe.toString();
+    }
+
+    static String envoyer(SortieHttp out, String status, String titre, String contenu) throws IOException {
+        String page = "<!DOCTYPE html><html lang=\"fr\"><head><meta charset=\"UTF-8\"><title>Réponse du Serveur</title>"
+                + "<link rel=\"stylesheet\" href=\"/Formulaire.css\" /></head><body>"
+                + "<h1>" + titre + "</h1>" + contenu
+                + "<p><button onclick=\"window.location.href='/'\">Retour au formulaire</button></p>"
+                + "</body></html>";
+        WebServeur.sendHttpResponse(out, status, "text/html; charset=UTF-8", page);
+        return status;
+    }
+}
@@ -0,0 +1,414 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Journal asynchrone : les threads de requête déposent leurs lignes dans un tampon circulaire borné sans verrou,
+ * et un unique thread d'écriture les regroupe par lots dans un fichier gardé ouvert.
+ * Le thread de requête ne fait donc ni ouverture de fichier ni appel système d'écriture.
+ * La rotation (par taille ou par période) est faite par ce même thread entre deux lots : le fichier courant est
+ * renommé puis rouvert, sans jamais bloquer les producteurs. Les segments renommés sont compressés en gzip
+ * et purgés selon la rétention par un thread de fond partagé.
+ */
+public class JournalAsync {
+
+    /**
+     * Comportement quand le tampon est plein :
+     * BLOCK attend qu'une place se libère, DROP abandonne la ligne,
+     * COUNT abandonne la ligne et écrit périodiquement le nombre de lignes perdues dans le journal.
+     */
+    public enum Debordement { BLOCK, DROP, COUNT }
+
+    /**
+     * Période de rotation, alignée sur l'heure locale (début d'heure ou minuit).
+     */
+    public enum Periode { NONE, HOURLY, DAILY }
+
+    /**
+     * Politique de rotation d'un journal.
+     */
+    public static final class Rotation {
+        private final long tailleMax;
+        private final Periode periode;
+        private final int retention;
+        private final boolean compresser;
+
+        /**
+         * @param tailleMax  Taille en octets au-delà de laquelle le fichier est renommé (0 désactive la rotation par taille).
+         * @param periode    Rotation à heure fixe, en plus de la rotation par taille.
+         * @param retention  Nombre de segments renommés conservés (0 les conserve tous).
+         * @param compresser Compresse les segments renommés en gzip.
+         */
+        public Rotation(long tailleMax, Periode periode, int retention, boolean compresser) {
+            this.tailleMax = tailleMax;
+            this.periode = periode;
+            this.retention = retention;
+            this.compresser = compresser;
+        }
+    }
+
+    private static final DateTimeFormatter LOG_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int TAILLE_TAMPON_ECRITURE = 64 * 1024;
+    private static final DateTimeFormatter SUFFIXE_SEGMENT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final String EXTENSION_GZIP = ".gz";
+    // Suffixe exact des segments créés par pivoter (date, numéro dans la seconde, compression) : la purge ne touche qu'eux
+    private static final Pattern MOTIF_SEGMENT = Pattern.compile("\\d{8}-\\d{6}(-\\d+)?(" + Pattern.quote(EXTENSION_GZIP) + ")?");
+
+    // Compression et purge des segments : un seul thread de fond pour tous les journaux, démarré à la première rotation
+    private static final ExecutorService COMPRESSION = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "compression-journaux");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Horodatage formaté mis en cache : recalculé au plus une fois par seconde, partagé par tous les journaux
+    private static volatile Horodatage horodatage = new Horodatage(0, "");
+
+    private final String chemin;
+    private final Path fichier;
+    private final Rotation rotation;
+    private final Debordement debordement;
+    private final long intervalleEcritureNanos;
+    private final AtomicReferenceArray<String> cases;
+    private final int masque;
+    private final AtomicLong prochaineEcriture = new AtomicLong(); // Prochaine case réservée par un producteur
+    private final AtomicLong prochaineLecture = new AtomicLong();  // Prochaine case lue par le thread d'écriture
+    private final LongAdder lignesPerdues = new LongAdder();
+    private long pertesSignalees; // Utilisé uniquement par le thread d'écriture
+    private final Thread ecrivain;
+    private volatile boolean actif = true;
+    private FileChannel canal;
+    // État de rotation, utilisé uniquement par le thread d'écriture
+    private long tailleCourante;
+    private long prochaineRotation = Long.MAX_VALUE;
+
+    private static final class Horodatage {
+        final long seconde;
+        final String texte;
+
+        Horodatage(long seconde, String texte) {
+            this.seconde = seconde;
+            this.texte = texte;
+        }
+    }
+
+    /**
+     * @param chemin                Fichier de journal (ouvert en ajout).
+     * @param capacite              Nombre de lignes en attente au maximum (arrondi à la puissance de 2 supérieure).
+     * @param debordement           Politique quand le tampon est plein.
+     * @param intervalleEcritureMs  Délai maximal avant qu'une ligne soit écrite sur disque.
+     * @param rotation              Politique de rotation (taille 0 et période NONE la désactivent).
+     */
+    public JournalAsync(String chemin, int capacite, Debordement debordement, long intervalleEcritureMs, Rotation rotation) {
+        int taille = Integer.highestOneBit(Math.max(2, capacite - 1)) << 1;
+        this.chemin = chemin;
+        this.fichier = Paths.get(chemin);
+        this.rotation = rotation;
+        this.debordement = debordement;
+        this.intervalleEcritureNanos = intervalleEcritureMs * 1_000_000L;
+        this.cases = new AtomicReferenceArray<>(taille);
+        this.masque = taille - 1;
+        this.ecrivain = new Thread(this::boucleEcriture, "journal-" + fichier.getFileName());
+        this.ecrivain.setDaemon(true);
+        this.ecrivain.start();
+    }
+
+    /**
+     * Date et heure courantes au format du journal, à la seconde près.
+     */
+    public static String horodatage() {
+        long seconde = System.currentTimeMillis() / 1000;
+        Horodatage courant = horodatage;
+        if (courant.seconde != seconde) {
+            courant = new Horodatage(seconde, LocalDateTime.now().format(LOG_DATE_FORMATTER));
+            horodatage = courant;
+        }
+        return courant.texte;
+    }
+
+    /**
+     * Dépose une ligne complète (terminée par un saut de ligne) dans le tampon. Ne bloque que si la politique est BLOCK.
+     */
+    public void ajouter(String ligne) {
+        while (true) {
+            long position = prochaineEcriture.get();
+            if (position - prochaineLecture.get() >= cases.length()) {
+                // Tampon plein
+                if (debordement != Debordement.BLOCK || !actif) {
+                    lignesPerdues.increment();
+                    return;
+                }
+                LockSupport.unpark(ecrivain);
+                LockSupport.parkNanos(100_000);
+                continue;
+            }
+            if (prochaineEcriture.compareAndSet(position, position + 1)) {
+                cases.set((int) position & masque, ligne);
+                return;
+            }
+        }
+    }
+
+    public long getLignesPerdues() {
+        return lignesPerdues.sum();
+    }
+
+    public long getLignesEnAttente() {
+        return Math.max(0, prochaineEcriture.get() - prochaineLecture.get());
+    }
+
+    /**
+     * Écrit les lignes en attente et ferme le fichier (appelé à l'arrêt du serveur).
+     */
+    public void fermer() {
+        actif = false;
+        LockSupport.unpark(ecrivain);
+        try {
+            ecrivain.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void boucleEcriture() {
+        ByteBuffer tampon = ByteBuffer.allocate(TAILLE_TAMPON_ECRITURE);
+        StringBuilder lot = new StringBuilder(TAILLE_TAMPON_ECRITURE);
+        while (true) {
+            boolean arret = !actif;
+            vider(lot, tampon);
+            if (arret) {
+                break;
+            }
+            LockSupport.parkNanos(intervalleEcritureNanos);
+        }
+        fermerCanal();
+    }
+
+    /**
+     * Récupère toutes les lignes publiées et les écrit en un minimum d'appels système.
+     */
+    private void vider(StringBuilder lot, ByteBuffer tampon) {
+        long lecture = prochaineLecture.get();
+        long fin = prochaineEcriture.get();
+        while (lecture < fin) {
+            int index = (int) lecture & masque;
+            String ligne = cases.get(index);
+            if (ligne == null) {
+                break; // Case réservée mais pas encore remplie par son producteur : reprise au prochain tour
+            }
+            cases.set(index, null);
+            lot.append(ligne);
+            lecture++;
+            prochaineLecture.set(lecture); // Libère la case pour les producteurs
+            if (lot.length() >= TAILLE_TAMPON_ECRITURE / 2) {
+                ecrire(lot, tampon);
+            }
+        }
+        if (debordement == Debordement.COUNT) {
+            long pertes = lignesPerdues.sum();
+            if (pertes > pertesSignalees) {
+                lot.append('[').append(horodatage()).append("] JOURNAL: ").append(pertes - pertesSignalees)
+                        .append(" ligne(s) perdue(s), tampon plein").append(System.lineSeparator());
+                pertesSignalees = pertes;
+            }
+        }
+        if (lot.length() > 0) {
+            ecrire(lot, tampon);
+        }
+    }
+
+    private void ecrire(StringBuilder lot, ByteBuffer tampon) {
+        byte[] octets = lot.toString().getBytes(StandardCharsets.UTF_8);
+        lot.setLength(0);
+        try {
+            if (canal == null) {
+                ouvrirCanal();
+            }
+            if (rotationNecessaire(octets.length)) {
+                pivoter();
+                ouvrirCanal();
+            }
+            ByteBuffer source = octets.length <= tampon.capacity() ? tampon.clear().put(octets).flip() : ByteBuffer.wrap(octets);
+            while (source.hasRemaining()) {
+                tailleCourante += canal.write(source);
+            }
+        } catch (IOException e) {
+            System.out.println("Erreur lors de l'écriture dans le fichier de log " + chemin + " : " + e.getMessage());
+            fermerCanal(); // Nouvelle tentative d'ouverture au prochain lot
+        }
+    }
+
+    private void ouvrirCanal() throws IOException {
+        canal = FileChannel.open(fichier, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        tailleCourante = canal.size();
+        if (rotation.periode != Periode.NONE && prochaineRotation == Long.MAX_VALUE) {
+            // Un fichier existant écrit lors d'une période précédente est renommé dès la première écriture
+            long reference = tailleCourante > 0 ? Files.getLastModifiedTime(fichier).toMillis() : System.currentTimeMillis();
+            prochaineRotation = finDePeriode(reference);
+        }
+    }
+
+    private boolean rotationNecessaire(int octetsAEcrire) {
+        if (tailleCourante == 0) {
+            return false;
+        }
+        if (rotation.tailleMax > 0 && tailleCourante + octetsAEcrire > rotation.tailleMax) {
+            return true;
+        }
+        return System.currentTimeMillis() >= prochaineRotation;
+    }
+
+    /**
+     * Début de la période suivant l'instant donné (heure pleine ou minuit, heure locale).
+     */
+    private long finDePeriode(long millis) {
+        ZonedDateTime instant = ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        ZonedDateTime fin = rotation.periode == Periode.HOURLY
+                ? instant.truncatedTo(ChronoUnit.HOURS).plusHours(1)
+                : instant.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+        return fin.toInstant().toEpochMilli();
+    }
+
+    /**
+     * Ferme le fichier courant et le renomme en "nom.aaaaMMjj-HHmmss" ; le prochain lot recrée le fichier.
+     * Les producteurs continuent de remplir le tampon pendant ce temps.
+     */
+    private void pivoter() throws IOException {
+        fermerCanal();
+        String base = fichier.getFileName() + "." + LocalDateTime.now().format(SUFFIXE_SEGMENT);
+        Path segment = fichier.resolveSibling(base);
+        for (int i = 1; Files.exists(segment) || Files.exists(segment.resolveSibling(segment.getFileName() + EXTENSION_GZIP)); i++) {
+            segment = fichier.resolveSibling(base + "-" + i); // Plusieurs rotations dans la même seconde
+        }
+        try {
+            Files.move(fichier, segment, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(fichier, segment);
+        }
+        if (rotation.periode != Periode.NONE) {
+            prochaineRotation = finDePeriode(System.currentTimeMillis());
+        }
+        Path aTraiter = segment;
+        COMPRESSION.execute(() -> {
+            if (rotation.compresser) {
+                compresser(aTraiter);
+            }
+            purger();
+        });
+    }
+
+    private void compresser(Path segment) {
+        Path temporaire = segment.resolveSibling(segment.getFileName() + EXTENSION_GZIP + ".tmp");
+        try {
+            try (InputStream in = Files.newInputStream(segment);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporaire), TAILLE_TAMPON_ECRITURE)) {
+                in.transferTo(out);
+            }
+            Files.move(temporaire, segment.resolveSibling(segment.getFileName() + EXTENSION_GZIP), StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(segment);
+        } catch (IOException e) {
+            System.out.println("Erreur lors de la compression du journal " + segment + " : " + e.getMessage());
+            try {
+                Files.deleteIfExists(temporaire); // Le segment non compressé est conservé
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Supprime les segments les plus anciens au-delà de la rétention configurée.
+     */
+    private void purger() {
+        if (rotation.retention <= 0) {
+            return;
+        }
+        Path repertoire = fichier.toAbsolutePath().getParent();
+        String prefixe = fichier.getFileName() + ".";
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> contenu = Files.newDirectoryStream(repertoire, prefixe + "*")) {
+            for (Path segment : contenu) {
+                // "access.log.old" ou "access.log.2024.bak" correspondent au motif mais n'ont pas été créés ici ;
+                // une compression en cours (".gz.tmp") n'est pas encore un segment
+                if (MOTIF_SEGMENT.matcher(segment.getFileName().toString().substring(prefixe.length())).matches()) {
+                    segments.add(segment);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Erreur lors de la purge des journaux " + fichier + " : " + e.getMessage());
+            return;
+        }
+        if (segments.size() <= rotation.retention) {
+            return;
+        }
+        // Le nom contient la date de rotation : l'ordre alphabétique est l'ordre chronologique
+        segments.sort(Comparator.comparing(JournalAsync::cleTri));
+        for (Path segment : segments.subList(0, segments.size() - rotation.retention)) {
+            try {
+                Files.delete(segment);
+            } catch (NoSuchFileException ignored) {
+            } catch (IOException e) {
+                System.out.println("Erreur lors de la suppression du journal " + segment + " : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Clé de tri d'un segment : suffixe de date sans l'extension gzip, numéro de rotation dans la seconde sur 4 chiffres.
+     */
+    private static String cleTri(Path segment) {
+        String nom = segment.getFileName().toString();
+        if (nom.endsWith(EXTENSION_GZIP)) {
+            nom = nom.substring(0, nom.length() - EXTENSION_GZIP.length());
+        }
+        int tiret = nom.lastIndexOf('-');
+        int numero = 0;
+        if (tiret > nom.length() - 6) {
+            try {
+                numero = Integer.parseInt(nom.substring(tiret + 1));
+                nom = nom.substring(0, tiret);
+            } catch (NumberFormatException ignored) {
+                // Pas un numéro de rotation
+            }
+        }
+        return nom + String.format("%04d", numero);
+    }
+
+    private void fermerCanal() {
+        if (canal != null) {
+            try {
+                canal.close();
+            } catch (IOException e) {
+                System.out.println("Erreur à la fermeture du fichier de log " + chemin + " : " + e.getMessage());
+            }
+            canal = null;
+        }
+    }
+}
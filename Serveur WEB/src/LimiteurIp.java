@@ -0,0 +1,210 @@
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limites par client : nombre de connexions simultanées et débit de requêtes (seau à jetons).
+ * L'état est réparti en bandes indépendantes, chacune protégée par son propre verrou, pour que les threads
+ * des différents cœurs se gênent rarement. Chaque bande est une LRU bornée qui purge au passage les entrées
+ * inactives : la mémoire reste bornée même face à un flot d'adresses usurpées. Les connexions ouvertes sont comptées
+ * à part, dans une table jamais évincée (bornée par les sockets ouverts) : l'éviction ne peut ni perdre un compteur
+ * ni être bloquée par un client occupé.
+ * Les adresses IPv6 sont regroupées par préfixe /64, la plus petite plage habituellement attribuée à un client.
+ */
+public class LimiteurIp {
+
+    private static final int NOMBRE_BANDES = 64; // Puissance de 2
+    private static final long INACTIVITE_MAX_NANOS = 60_000_000_000L; // Une entrée sans activité depuis 60 s est oubliée
+    private static final int PURGES_PAR_ACCES = 2; // Entrées inactives retirées au plus à chaque accès à une bande
+
+    /**
+     * Clé d'un client : adresse IPv4, ou préfixe /64 d'une adresse IPv6.
+     */
+    private static final class Cle {
+        private final long haut;
+        private final long bas;
+
+        Cle(InetAddress adresse) {
+            byte[] octets = adresse.getAddress();
+            long valeur = 0;
+            for (int i = 0; i < Math.min(8, octets.length); i++) {
+                valeur = (valeur << 8) | (octets[i] & 0xFF);
+            }
+            this.haut = valeur;
+            this.bas = octets.length == 4 ? 1 : 0; // Distingue une IPv4 d'un préfixe IPv6 de même valeur
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Cle && ((Cle) o).haut == haut && ((Cle) o).bas == bas;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = (haut ^ bas) * 0x9E3779B97F4A7C15L; // Mélange : les adresses voisines tombent dans des bandes différentes
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private static final class Etat {
+        double jetons;
+        long derniereRecharge;
+        long derniereActivite;
+    }
+
+    /**
+     * Bande de la table : LinkedHashMap en ordre d'accès, la plus ancienne entrée est évincée au-delà de la capacité.
+     * Les connexions ouvertes de ses clients sont dans connexions, retirées dès qu'elles retombent à zéro.
+     */
+    private static final class Bande extends LinkedHashMap<Cle, Etat> {
+        private static final long serialVersionUID = 1L;
+        private final int capacite;
+        final Map<Cle, Integer> connexions = new HashMap<>();
+
+        Bande(int capacite) {
+            super(16, 0.75f, true);
+            this.capacite = capacite;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Cle, Etat> plusAncienne) {
+            return size() > capacite;
+        }
+
+        Etat obtenir(Cle cle, long maintenant, double capaciteSeau) {
+            purgerInactives(maintenant);
+            Etat etat = get(cle);
+            if (etat == null) {
+                etat = new Etat();
+                etat.jetons = capaciteSeau;
+                etat.derniereRecharge = maintenant;
+                put(cle, etat);
+            }
+            etat.derniereActivite = maintenant;
+            return etat;
+        }
+
+        private void purgerInactives(long maintenant) {
+            Iterator<Etat> it = values().iterator();
+            for (int i = 0; i < PURGES_PAR_ACCES && it.hasNext(); i++) {
+                Etat plusAncien = it.next();
+                if (maintenant - plusAncien.derniereActivite < INACTIVITE_MAX_NANOS) {
+                    return; // Ordre d'accès : les suivantes sont plus récentes
+                }
+                it.remove();
+            }
+        }
+    }
+
+    private final Bande[] bandes = new Bande[NOMBRE_BANDES];
+    private final double jetonsParNano;
+    private final double capaciteSeau;
+    private final int maxConnexions;
+    private final LongAdder connexionsRefusees = new LongAdder();
+    private final LongAdder requetesRefusees = new LongAdder();
+
+    /**
+     * @param requetesParSeconde Débit moyen autorisé par client (0 désactive la limite de débit).
+     * @param rafale             Nombre de requêtes acceptées d'un coup avant que le débit ne s'applique.
+     * @param maxConnexions      Connexions simultanées par client (0 désactive la limite).
+     * @param maxClients         Nombre maximal de clients suivis (mémoire bornée).
+     */
+    public LimiteurIp(double requetesParSeconde, int rafale, int maxConnexions, int maxClients) {
+        this.jetonsParNano = requetesParSeconde / 1e9;
+        this.capaciteSeau = Math.max(1, rafale);
+        this.maxConnexions = maxConnexions;
+        int capaciteBande = Math.max(1, maxClients / NOMBRE_BANDES);
+        for (int i = 0; i < NOMBRE_BANDES; i++) {
+            bandes[i] = new Bande(capaciteBande);
+        }
+    }
+
+    public boolean isActif() {
+        return jetonsParNano > 0 || maxConnexions > 0;
+    }
+
+    private Bande bande(Cle cle) {
+        return bandes[cle.hashCode() & (NOMBRE_BANDES - 1)];
+    }
+
+    /**
+     * Réserve une connexion pour ce client ; false si le client a déjà maxConnexions connexions ouvertes.
+     * Chaque réservation réussie doit être suivie d'un appel à fermerConnexion.
+     */
+    public boolean ouvrirConnexion(InetAddress adresse) {
+        if (maxConnexions <= 0) {
+            return true;
+        }
+        Cle cle = new Cle(adresse);
+        Bande bande = bande(cle);
+        synchronized (bande) {
+            int ouvertes = bande.connexions.getOrDefault(cle, 0);
+            if (ouvertes >= maxConnexions) {
+                connexionsRefusees.increment();
+                return false;
+            }
+            bande.connexions.put(cle, ouvertes + 1);
+            return true;
+        }
+    }
+
+    public void fermerConnexion(InetAddress adresse) {
+        if (maxConnexions <= 0) {
+            return;
+        }
+        Cle cle = new Cle(adresse);
+        Bande bande = bande(cle);
+        synchronized (bande) {
+            bande.connexions.computeIfPresent(cle, (c, ouvertes) -> ouvertes > 1 ? ouvertes - 1 : null);
+        }
+    }
+
+    /**
+     * Consomme un jeton pour une requête de ce client.
+     * @return 0 si la requête est acceptée, sinon le nombre de secondes (au moins 1) avant qu'un jeton soit disponible.
+     */
+    public long consommer(InetAddress adresse) {
+        if (jetonsParNano <= 0) {
+            return 0;
+        }
+        Cle cle = new Cle(adresse);
+        Bande bande = bande(cle);
+        long maintenant = System.nanoTime();
+        synchronized (bande) {
+            Etat etat = bande.obtenir(cle, maintenant, capaciteSeau);
+            etat.jetons = Math.min(capaciteSeau, etat.jetons + (maintenant - etat.derniereRecharge) * jetonsParNano);
+            etat.derniereRecharge = maintenant;
+            if (etat.jetons >= 1) {
+                etat.jetons -= 1;
+                return 0;
+            }
+            requetesRefusees.increment();
+            return Math.max(1, (long) Math.ceil((1 - etat.jetons) / jetonsParNano / 1e9));
+        }
+    }
+
+    public long getConnexionsRefusees() { return connexionsRefusees.sum(); }
+
+    public long getRequetesRefusees() { return requetesRefusees.sum(); }
+
+    /**
+     * Nombre de clients actuellement suivis, par débit ou par connexions (parcourt les bandes : réservé aux métriques).
+     */
+    public int getNombreClients() {
+        int total = 0;
+        for (Bande bande : bandes) {
+            synchronized (bande) {
+                total += bande.size();
+                for (Cle cle : bande.connexions.keySet()) {
+                    if (!bande.containsKey(cle)) {
+                        total++; // Client sans seau de débit (limite de débit désactivée ou entrée évincée)
+                    }
+                }
+            }
+        }
+        return total;
+    }
+}
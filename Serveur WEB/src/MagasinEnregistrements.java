@@ -0,0 +1,560 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Petit moteur de stockage clé -> valeur (texte) en journal d'ajouts, pour les enregistrements du formulaire.
+ *
+ * Les entrées sont ajoutées à la fin du segment actif (fichier segment-NNNNNN.log du répertoire), jamais modifiées :
+ * CRC32 | numéro d'ordre (long) | longueur de la clé (2 octets) | longueur de la valeur (4 octets) | clé | valeur.
+ * Au-delà de TAILLE_SEGMENT, un nouveau segment est ouvert. Le numéro d'ordre croît à chaque écriture : pour une clé,
+ * c'est l'entrée de plus grand numéro qui compte, quel que soit le segment qui la contient.
+ *
+ * L'index (table de hachage clé -> emplacement de la dernière entrée) est reconstruit à l'ouverture en relisant
+ * les segments ; une lecture coûte une recherche dans la table et une lecture positionnée, quel que soit le nombre
+ * d'entrées. Une entrée tronquée ou dont le CRC est faux (arrêt brutal pendant une écriture) marque la fin
+ * du segment, qui est coupé à cet endroit.
+ *
+ * Les écritures sont regroupées par un unique thread : un write et un fsync par lot (validation groupée).
+ * Un thread de fond compacte les segments fermés dont la moitié au moins des octets sont des entrées remplacées :
+ * leurs entrées encore valides sont recopiées dans un nouveau segment, puis ils sont supprimés.
+ */
+public class MagasinEnregistrements {
+
+    static final long TAILLE_SEGMENT = 64L * 1024 * 1024;
+    private static final int TAILLE_EN_TETE = 4 + 8 + 2 + 4;
+    private static final int TAILLE_MAX_CLE = 0xFFFF;
+    private static final int TAILLE_MAX_VALEUR = 1024 * 1024;
+    private static final double PROPORTION_VIVANTE_MIN = 0.5; // En dessous, un segment fermé est compacté
+    private static final String PREFIXE_SEGMENT = "segment-";
+    private static final String SUFFIXE_SEGMENT = ".log";
+
+    private static final Ecriture FIN = new Ecriture(null, null); // Demande d'arrêt du thread d'écriture
+
+    /**
+     * Un fichier du journal, avec le nombre d'octets occupés par des entrées encore valides.
+     */
+    private static final class Segment {
+        final int numero;
+        final Path fichier;
+        final FileChannel canal;
+        final AtomicLong taille = new AtomicLong();
+        final AtomicLong vivants = new AtomicLong();
+
+        Segment(int numero, Path fichier, FileChannel canal) {
+            this.numero = numero;
+            this.fichier = fichier;
+            this.canal = canal;
+        }
+    }
+
+    /**
+     * Position de la dernière entrée d'une clé. Comparé par identité : le compactage ne remplace un emplacement
+     * dans l'index que s'il n'a pas changé entre-temps.
+     */
+    private static final class Emplacement {
+        final Segment segment;
+        final long position;
+        final int taille; // Entrée complète, en-tête compris
+        final long ordre;
+
+        Emplacement(Segment segment, long position, int taille, long ordre) {
+            this.segment = segment;
+            this.position = position;
+            this.taille = taille;
+            this.ordre = ordre;
+        }
+    }
+
+    /**
+     * Entrée à écrire, et la demande à terminer quand elle est sur disque.
+     */
+    private static final class Ecriture {
+        final String cle;
+        final String valeur;
+        final CompletableFuture<Void> termine = new CompletableFuture<>();
+
+        Ecriture(String cle, String valeur) {
+            this.cle = cle;
+            this.valeur = valeur;
+        }
+    }
+
+    private final Path repertoire;
+    private final ConcurrentHashMap<String, Emplacement> index = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private final AtomicInteger prochainSegment = new AtomicInteger(1);
+    private final LinkedBlockingQueue<Ecriture> aEcrire = new LinkedBlockingQueue<>();
+    private final Thread ecrivain;
+    private final ExecutorService compactage;
+    private long prochainOrdre = 1; // Utilisé par le thread d'écriture (et par l'ouverture, avant son démarrage)
+    private volatile Segment actif; // Remplacé par le thread d'écriture, lu par le compactage
+    private volatile boolean ouvert = true; // Passe à false sous le verrou de aEcrire (voir fermer)
+
+    /**
+     * Ouvre (ou crée) le magasin du répertoire et reconstruit son index.
+     */
+    public MagasinEnregistrements(Path repertoire) throws IOException {
+        this.repertoire = repertoire;
+        Files.createDirectories(repertoire);
+        try {
+            for (Map.Entry<Integer, Path> e : listerSegments().entrySet()) {
+                charger(e.getKey(), e.getValue());
+            }
+            actif = creerSegment(); // Les segments existants ne reçoivent plus d'écritures : ils peuvent être compactés
+        } catch (IOException e) {
+            fermerSegments();
+            throw e;
+        }
+        String nom = repertoire.getFileName() != null ? repertoire.getFileName().toString() : "magasin";
+        this.ecrivain = new Thread(this::boucleEcriture, "ecriture-" + nom);
+        this.ecrivain.setDaemon(true);
+        this.ecrivain.start();
+        this.compactage = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "compactage-" + nom);
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactage.execute(this::compacter);
+    }
+
+    private TreeMap<Integer, Path> listerSegments() throws IOException {
+        TreeMap<Integer, Path> trouves = new TreeMap<>();
+        try (DirectoryStream<Path> fichiers = Files.newDirectoryStream(repertoire, PREFIXE_SEGMENT + "*" + SUFFIXE_SEGMENT)) {
+            for (Path fichier : fichiers) {
+                String nom = fichier.getFileName().toString();
+                try {
+                    trouves.put(Integer.parseInt(nom.substring(PREFIXE_SEGMENT.length(), nom.length() - SUFFIXE_SEGMENT.length())), fichier);
+                } catch (NumberFormatException e) {
+                    // Fichier étranger au magasin
+                }
+            }
+        }
+        return trouves;
+    }
+
+    /**
+     * Relit un segment, vérifie chaque entrée et met l'index à jour. Le segment est coupé à la première entrée
+     * invalide ; un segment vide est supprimé.
+     */
+    private void charger(int numero, Path fichier) throws IOException {
+        prochainSegment.set(Math.max(prochainSegment.get(), numero + 1));
+        FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(numero, fichier, canal);
+        long position = 0;
+        // Flux non fermé : il fermerait le canal, qui sert ensuite aux lectures
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(canal), 64 * 1024));
+        CRC32 crc = new CRC32();
+        while (true) {
+            Entree entree;
+            try {
+                entree = lireEntree(in, crc);
+            } catch (EOFException e) {
+                entree = null; // Fin du fichier au milieu d'une entrée
+            }
+            if (entree == null) {
+                break;
+            }
+            indexerAuChargement(entree, new Emplacement(segment, position, entree.taille, entree.ordre));
+            prochainOrdre = Math.max(prochainOrdre, entree.ordre + 1);
+            position += entree.taille;
+        }
+        if (position < canal.size()) {
+            WebServeur.logError("Segment " + fichier + " : entrée incomplète ou corrompue à la position " + position
+                    + ", " + (canal.size() - position) + " octets retirés.");
+            canal.truncate(position);
+            canal.force(false);
+        }
+        if (position == 0) {
+            canal.close();
+            Files.deleteIfExists(fichier);
+            return;
+        }
+        segment.taille.set(position);
+        segments.put(numero, segment);
+    }
+
+    private void indexerAuChargement(Entree entree, Emplacement emplacement) {
+        Emplacement existant = index.get(entree.cle);
+        if (existant != null && existant.ordre > entree.ordre) {
+            return; // Déjà remplacée par une entrée plus récente (recopiée par un compactage)
+        }
+        index.put(entree.cle, emplacement);
+        emplacement.segment.vivants.addAndGet(emplacement.taille);
+        if (existant != null) {
+            existant.segment.vivants.addAndGet(-existant.taille);
+        }
+    }
+
+    /**
+     * Entrée lue dans un segment.
+     */
+    private static final class Entree {
+        final long ordre;
+        final String cle;
+        final String valeur;
+        final byte[] octets; // Entrée complète, pour la recopier telle quelle
+        final int taille;
+
+        Entree(long ordre, String cle, String valeur, byte[] octets) {
+            this.ordre = ordre;
+            this.cle = cle;
+            this.valeur = valeur;
+            this.octets = octets;
+            this.taille = octets.length;
+        }
+    }
+
+    /**
+     * @return L'entrée suivante, ou null en fin de fichier ou si elle est invalide (longueurs ou CRC).
+     * @throws EOFException si le fichier se termine au milieu de l'entrée.
+     */
+    private static Entree lireEntree(DataInputStream in, CRC32 crc) throws IOException {
+        byte[] enTete = new byte[TAILLE_EN_TETE];
+        int lus = in.readNBytes(enTete, 0, TAILLE_EN_TETE);
+        if (lus == 0) {
+            return null;
+        }
+        if (lus < TAILLE_EN_TETE) {
+            throw new EOFException();
+        }
+        ByteBuffer lecture = ByteBuffer.wrap(enTete);
+        int crcAttendu = lecture.getInt();
+        long ordre = lecture.getLong();
+        int tailleCle = lecture.getShort() & 0xFFFF;
+        int tailleValeur = lecture.getInt();
+        if (tailleValeur < 0 || tailleValeur > TAILLE_MAX_VALEUR) {
+            return null;
+        }
+        byte[] octets = new byte[TAILLE_EN_TETE + tailleCle + tailleValeur];
+        System.arraycopy(enTete, 0, octets, 0, TAILLE_EN_TETE);
+        in.readFully(octets, TAILLE_EN_TETE, tailleCle + tailleValeur);
+        crc.reset();
+        crc.update(octets, 4, octets.length - 4);
+        if ((int) crc.getValue() != crcAttendu) {
+            return null;
+        }
+        return new Entree(ordre, new String(octets, TAILLE_EN_TETE, tailleCle, StandardCharsets.UTF_8),
+                new String(octets, TAILLE_EN_TETE + tailleCle, tailleValeur, StandardCharsets.UTF_8), octets);
+    }
+
+    private static byte[] encoder(long ordre, String cle, String valeur) {
+        byte[] octetsCle = cle.getBytes(StandardCharsets.UTF_8);
+        byte[] octetsValeur = valeur.getBytes(StandardCharsets.UTF_8);
+        if (octetsCle.length > TAILLE_MAX_CLE || octetsValeur.length > TAILLE_MAX_VALEUR) {
+            throw new IllegalArgumentException("Clé ou valeur trop longue.");
+        }
+        ByteBuffer entree = ByteBuffer.allocate(TAILLE_EN_TETE + octetsCle.length + octetsValeur.length);
+        entree.putInt(0).putLong(ordre).putShort((short) octetsCle.length).putInt(octetsValeur.length)
+                .put(octetsCle).put(octetsValeur);
+        CRC32 crc = new CRC32();
+        crc.update(entree.array(), 4, entree.capacity() - 4);
+        entree.putInt(0, (int) crc.getValue());
+        return entree.array();
+    }
+
+    private Segment creerSegment() throws IOException {
+        int numero = prochainSegment.getAndIncrement();
+        Path fichier = repertoire.resolve(String.format("%s%06d%s", PREFIXE_SEGMENT, numero, SUFFIXE_SEGMENT));
+        Segment segment = new Segment(numero, fichier, FileChannel.open(fichier,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.put(numero, segment);
+        return segment;
+    }
+
+    public boolean estVide() { return index.isEmpty(); }
+
+    public int getNombreCles() { return index.size(); }
+
+    public Path getRepertoire() { return repertoire; }
+
+    /**
+     * @return La valeur la plus récente de la clé, ou null si elle n'a jamais été écrite.
+     */
+    public String lire(String cle) throws IOException {
+        for (int essai = 0; ; essai++) {
+            Emplacement emplacement = index.get(cle);
+            if (emplacement == null) {
+                return null;
+            }
+            ByteBuffer entree = ByteBuffer.allocate(emplacement.taille);
+            try {
+                while (entree.hasRemaining()) {
+                    if (emplacement.segment.canal.read(entree, emplacement.position + entree.position()) < 0) {
+                        throw new IOException("Segment " + emplacement.segment.fichier + " tronqué.");
+                    }
+                }
+            } catch (ClosedChannelException e) {
+                if (essai < 3) {
+                    continue; // Segment supprimé par un compactage entre la recherche et la lecture : l'index a changé
+                }
+                throw e;
+            }
+            int tailleCle = entree.getShort(12) & 0xFFFF;
+            int debutValeur = TAILLE_EN_TETE + tailleCle;
+            return new String(entree.array(), debutValeur, emplacement.taille - debutValeur, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Écrit la valeur de la clé et attend qu'elle soit sur disque.
+     */
+    public void ecrire(String cle, String valeur) throws IOException {
+        attendre(ecrireSansAttendre(cle, valeur));
+    }
+
+    /**
+     * Dépose une écriture sans attendre qu'elle soit faite (utile pour des imports en masse : les écritures
+     * déposées ensemble partent dans le même lot).
+     */
+    public CompletableFuture<Void> ecrireSansAttendre(String cle, String valeur) throws IOException {
+        Ecriture ecriture = new Ecriture(cle, valeur);
+        // Vérification et dépôt sous le verrou de fermer : aucune écriture ne peut arriver après FIN, que le thread
+        // d'écriture ne verrait jamais (son auteur attendrait indéfiniment)
+        synchronized (aEcrire) {
+            if (!ouvert) {
+                throw new IOException("Magasin " + repertoire + " fermé.");
+            }
+            aEcrire.add(ecriture);
+        }
+        return ecriture.termine;
+    }
+
+    public void attendre(CompletableFuture<Void> ecriture) throws IOException {
+        try {
+            ecriture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Écriture interrompue.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Écriture dans " + repertoire + " impossible : " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void boucleEcriture() {
+        List<Ecriture> lot = new ArrayList<>();
+        boolean continuer = true;
+        while (continuer) {
+            try {
+                lot.add(aEcrire.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            aEcrire.drainTo(lot); // Tout ce qui est arrivé pendant le lot précédent
+            if (lot.remove(FIN)) {
+                continuer = false;
+            }
+            if (!lot.isEmpty()) {
+                ecrireLot(lot);
+            }
+            lot.clear();
+        }
+        // Demandes arrivées après l'arrêt : échouent plutôt que d'attendre indéfiniment
+        for (Ecriture ecriture : aEcrire) {
+            ecriture.termine.completeExceptionally(new IOException("Magasin fermé."));
+        }
+    }
+
+    /**
+     * Une écriture et un fsync pour tout le lot, puis mise à jour de l'index : une valeur n'est visible
+     * qu'une fois durable.
+     */
+    private void ecrireLot(List<Ecriture> lot) {
+        List<Ecriture> valides = new ArrayList<>(lot.size());
+        List<ByteBuffer> entrees = new ArrayList<>(lot.size());
+        for (Ecriture ecriture : lot) {
+            try {
+                entrees.add(ByteBuffer.wrap(encoder(prochainOrdre, ecriture.cle, ecriture.valeur)));
+                prochainOrdre++;
+                valides.add(ecriture);
+            } catch (IllegalArgumentException e) {
+                ecriture.termine.completeExceptionally(e);
+            }
+        }
+        if (valides.isEmpty()) {
+            return;
+        }
+        Segment segment = actif;
+        long debut = segment.taille.get();
+        try {
+            ByteBuffer[] tampons = entrees.toArray(new ByteBuffer[0]);
+            try {
+                long ecrits = 0;
+                long total = 0;
+                for (ByteBuffer tampon : tampons) {
+                    total += tampon.remaining();
+                }
+                while (ecrits < total) {
+                    ecrits += segment.canal.position(debut + ecrits).write(tampons);
+                }
+                segment.canal.force(false);
+            } catch (IOException e) {
+                segment.canal.truncate(debut); // Pas de lot à moitié écrit dans le segment
+                throw e;
+            }
+        } catch (IOException e) {
+            WebServeur.logError("Erreur d'écriture dans " + segment.fichier + " : " + e.getMessage());
+            for (Ecriture ecriture : valides) {
+                ecriture.termine.completeExceptionally(e);
+            }
+            return;
+        }
+
+        long position = debut;
+        for (int i = 0; i < valides.size(); i++) {
+            int taille = entrees.get(i).capacity();
+            Emplacement emplacement = new Emplacement(segment, position, taille, prochainOrdre - valides.size() + i);
+            segment.vivants.addAndGet(taille);
+            Emplacement ancien = index.put(valides.get(i).cle, emplacement);
+            if (ancien != null) {
+                ancien.segment.vivants.addAndGet(-ancien.taille);
+            }
+            position += taille;
+        }
+        segment.taille.set(position);
+        for (Ecriture ecriture : valides) {
+            ecriture.termine.complete(null);
+        }
+
+        if (position >= TAILLE_SEGMENT) {
+            try {
+                actif = creerSegment();
+                compactage.execute(this::compacter);
+            } catch (IOException e) {
+                WebServeur.logError("Impossible de créer un nouveau segment dans " + repertoire + " : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Recopie les entrées encore valides des segments fermés majoritairement remplacés, puis supprime ces segments.
+     * Les écritures continuent pendant ce temps dans le segment actif.
+     */
+    private void compacter() {
+        List<Segment> candidats = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            if (segment != actif && segment.vivants.get() < segment.taille.get() * PROPORTION_VIVANTE_MIN) {
+                candidats.add(segment);
+            }
+        }
+        if (candidats.isEmpty() || !ouvert) {
+            return;
+        }
+        Segment sortie = null;
+        try {
+            List<Object[]> aPublier = new ArrayList<>(); // {clé, ancien emplacement, nouvel emplacement}
+            CRC32 crc = new CRC32();
+            for (Segment segment : candidats) {
+                long position = 0;
+                try (InputStream flux = Files.newInputStream(segment.fichier)) {
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(flux, 64 * 1024));
+                    Entree entree;
+                    while (position < segment.taille.get() && (entree = lireEntree(in, crc)) != null) {
+                        Emplacement courant = index.get(entree.cle);
+                        if (courant != null && courant.segment == segment && courant.position == position) {
+                            if (sortie == null || sortie.taille.get() >= TAILLE_SEGMENT) {
+                                if (sortie != null) {
+                                    publier(sortie, aPublier);
+                                }
+                                sortie = creerSegment();
+                            }
+                            long debut = sortie.taille.get();
+                            ByteBuffer octets = ByteBuffer.wrap(entree.octets); // Recopiée à l'identique : même numéro d'ordre
+                            while (octets.hasRemaining()) {
+                                sortie.canal.write(octets, debut + octets.position());
+                            }
+                            sortie.taille.addAndGet(entree.taille);
+                            aPublier.add(new Object[]{entree.cle, courant, new Emplacement(sortie, debut, entree.taille, entree.ordre)});
+                        }
+                        position += entree.taille;
+                    }
+                }
+            }
+            if (sortie != null) {
+                publier(sortie, aPublier);
+            }
+            long liberes = 0;
+            for (Segment segment : candidats) {
+                segments.remove(segment.numero);
+                liberes += segment.taille.get();
+                segment.canal.close(); // Une lecture en cours sur ce segment recommence avec l'index à jour
+                Files.deleteIfExists(segment.fichier);
+            }
+            System.out.println("Compactage de " + repertoire + " : " + candidats.size() + " segment(s), "
+                    + liberes / 1024 + " Ko relus, " + (sortie != null ? sortie.taille.get() / 1024 : 0) + " Ko conservés.");
+        } catch (IOException e) {
+            // Les segments d'origine sont intacts : le compactage sera retenté au prochain changement de segment
+            WebServeur.logError("Compactage de " + repertoire + " interrompu : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rend les entrées recopiées durables, puis fait pointer l'index vers elles, sauf pour les clés réécrites
+     * entre-temps (leur copie devient une entrée remplacée du nouveau segment).
+     */
+    private void publier(Segment sortie, List<Object[]> aPublier) throws IOException {
+        sortie.canal.force(false);
+        for (Object[] copie : aPublier) {
+            Emplacement nouveau = (Emplacement) copie[2];
+            if (index.replace((String) copie[0], (Emplacement) copie[1], nouveau)) {
+                nouveau.segment.vivants.addAndGet(nouveau.taille);
+            }
+        }
+        aPublier.clear();
+    }
+
+    /**
+     * Termine les écritures en attente, attend la fin d'un compactage en cours puis ferme les segments.
+     */
+    public void fermer() {
+        synchronized (aEcrire) {
+            if (!ouvert) {
+                return;
+            }
+            ouvert = false;
+            aEcrire.add(FIN); // Dernier élément de la file : les écritures déjà déposées sont faites avant l'arrêt
+        }
+        try {
+            ecrivain.join(5000);
+            compactage.shutdown();
+            compactage.awaitTermination(30, java.util.concurrent.TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        fermerSegments();
+    }
+
+    private void fermerSegments() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.canal.close();
+            } catch (IOException e) {
+                System.out.println("Erreur lors de la fermeture de " + segment.fichier + " : " + e.getMessage()); // System.out.println
+            }
+        }
+    }
+}
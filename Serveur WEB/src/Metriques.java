@@ -0,0 +1,293 @@
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compteurs du trafic exposés sur /metrics au format texte Prometheus.
+ * Tout est enregistré avec des LongAdder (un compteur par cellule de CPU, sans verrou ni contention) :
+ * le coût sur le chemin d'une requête se limite à quelques additions. L'agrégation n'a lieu qu'à la lecture.
+ */
+public class Metriques {
+
+    /**
+     * Bornes supérieures (en secondes) des classes de l'histogramme de latence.
+     */
+    private static final double[] BORNES_LATENCE = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    private static final long[] BORNES_LATENCE_NANOS = new long[BORNES_LATENCE.length];
+
+    static {
+        for (int i = 0; i < BORNES_LATENCE.length; i++) {
+            BORNES_LATENCE_NANOS[i] = (long) (BORNES_LATENCE[i] * 1_000_000_000L);
+        }
+    }
+
+    /**
+     * Routes suivies séparément ; le nombre de valeurs est borné pour que les séries restent en nombre fini.
+     */
+    public enum Route {
+        STATIC("static"), INFO("info"), FLUX("stream"), METRICS("metrics"), FORM("form"), AUTRE("other");
+
+        private final String libelle;
+
+        Route(String libelle) {
+            this.libelle = libelle;
+        }
+    }
+
+    // Méthodes reconnues ; toute autre méthode est comptée sous "other" (la valeur vient du client)
+    private static final String[] METHODES = {"GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH"};
+    private static final int NOMBRE_METHODES = METHODES.length + 1; // Dernière : "other"
+    // Codes suivis un par un : ceux que le serveur envoie lui-même. Les autres (venus des traitements externes) sont
+    // comptés par classe ("2xx"...), une ligne de statut absente ou invalide sous "unknown"
+    private static final int[] CODES_STATUT = {200, 201, 206, 304, 400, 403, 404, 405, 408, 413, 414, 415, 416, 429, 431,
+            500, 501, 502, 503, 504};
+    private static final String[] STATUTS = libellesStatut();
+    private static final int STATUT_INCONNU = STATUTS.length - 1;
+
+    /**
+     * Histogramme à classes fixes : un LongAdder par classe, plus la somme et le nombre d'observations.
+     */
+    private static final class Histogramme {
+        private final LongAdder[] classes = new LongAdder[BORNES_LATENCE.length + 1]; // Dernière classe : +Inf
+        private final LongAdder sommeNanos = new LongAdder();
+
+        Histogramme() {
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = new LongAdder();
+            }
+        }
+
+        void observer(long nanos) {
+            int i = 0;
+            while (i < BORNES_LATENCE_NANOS.length && nanos > BORNES_LATENCE_NANOS[i]) {
+                i++;
+            }
+            classes[i].increment();
+            sommeNanos.add(nanos);
+        }
+    }
+
+    // Un compteur par (méthode, statut, route) : table fixe, aucune clé à construire par requête
+    private static final LongAdder[] REQUETES = new LongAdder[NOMBRE_METHODES * STATUTS.length * Route.values().length];
+    private static final Histogramme[] LATENCES = new Histogramme[Route.values().length];
+    private static final LongAdder OCTETS_ENVOYES = new LongAdder();
+    private static final LongAdder CONNEXIONS_ACTIVES = new LongAdder();
+    private static final LongAdder CONNEXIONS_TOTAL = new LongAdder();
+    private static final LongAdder CONNEXIONS_REFUSEES = new LongAdder();
+
+    static {
+        for (int i = 0; i < LATENCES.length; i++) {
+            LATENCES[i] = new Histogramme();
+        }
+        for (int i = 0; i < REQUETES.length; i++) {
+            REQUETES[i] = new LongAdder();
+        }
+    }
+
+    private Metriques() {
+    }
+
+    /**
+     * Classe une requête dans une route à partir de sa méthode et de son chemin.
+     */
+    public static Route route(String methode, String chemin) {
+        if ("POST".equalsIgnoreCase(methode)) {
+            return Route.FORM;
+        }
+        if (chemin == null || !chemin.startsWith("/")) {
+            return Route.AUTRE; // Requête rejetée avant analyse ("N/A")
+        }
+        if ("/info.html".equalsIgnoreCase(chemin) || "/info.json".equals(chemin)) {
+            return Route.INFO;
+        }
+        if (FluxInfo.estFlux(chemin)) {
+            return Route.FLUX; // Durée = durée de la connexion : séparée pour ne pas fausser les autres routes
+        }
+        if ("/metrics".equals(chemin)) {
+            return Route.METRICS;
+        }
+        return "GET".equalsIgnoreCase(methode) ? Route.STATIC : Route.AUTRE;
+    }
+
+    /**
+     * Compte une requête terminée. Appelé depuis WebServeur.logAccess, qui voit passer toutes les réponses.
+     * @param statut Ligne de statut ("200 OK") ; seul le code est retenu.
+     */
+    public static void compterRequete(String methode, String chemin, String statut) {
+        REQUETES[indiceRequetes(indiceMethode(methode), indiceStatut(statut), route(methode, chemin).ordinal())].increment();
+    }
+
+    private static int indiceRequetes(int methode, int statut, int route) {
+        return (methode * STATUTS.length + statut) * Route.values().length + route;
+    }
+
+    /**
+     * Enregistre le temps de production d'une réponse et le nombre d'octets envoyés.
+     */
+    public static void observerReponse(Route route, long dureeNanos, long octets) {
+        LATENCES[route.ordinal()].observer(dureeNanos);
+        OCTETS_ENVOYES.add(octets);
+    }
+
+    public static void connexionOuverte() {
+        CONNEXIONS_ACTIVES.increment();
+        CONNEXIONS_TOTAL.increment();
+    }
+
+    public static void connexionFermee() {
+        CONNEXIONS_ACTIVES.decrement();
+    }
+
+    public static void connexionRefusee() {
+        CONNEXIONS_REFUSEES.increment();
+    }
+
+    private static int indiceMethode(String methode) {
+        for (int i = 0; i < METHODES.length; i++) {
+            if (METHODES[i].equalsIgnoreCase(methode)) {
+                return i;
+            }
+        }
+        return METHODES.length; // "other"
+    }
+
+    /**
+     * Libellés des statuts, dans l'ordre des indices : codes suivis, puis "1xx" à "5xx", puis "unknown".
+     */
+    private static String[] libellesStatut() {
+        String[] libelles = new String[CODES_STATUT.length + 6];
+        for (int i = 0; i < CODES_STATUT.length; i++) {
+            libelles[i] = Integer.toString(CODES_STATUT[i]);
+        }
+        for (int classe = 1; classe <= 5; classe++) {
+            libelles[CODES_STATUT.length + classe - 1] = classe + "xx";
+        }
+        libelles[libelles.length - 1] = "unknown";
+        return libelles;
+    }
+
+    /**
+     * Indice du statut ("404 Not Found" -> celui de 404, "418 ..." -> celui de "4xx"), lu sans rien allouer.
+     */
+    private static int indiceStatut(String statut) {
+        if (statut == null || statut.length() < 3 || statut.charAt(0) < '1' || statut.charAt(0) > '5'
+                || !Character.isDigit(statut.charAt(1)) || !Character.isDigit(statut.charAt(2))
+                || (statut.length() > 3 && statut.charAt(3) != ' ')) {
+            return STATUT_INCONNU;
+        }
+        int code = (statut.charAt(0) - '0') * 100 + (statut.charAt(1) - '0') * 10 + (statut.charAt(2) - '0');
+        for (int i = 0; i < CODES_STATUT.length; i++) {
+            if (CODES_STATUT[i] == code) {
+                return i;
+            }
+        }
+        return CODES_STATUT.length + code / 100 - 1;
+    }
+
+    /**
+     * Produit l'exposition texte (format Prometheus 0.0.4) de tous les compteurs.
+     */
+    public static String exposer(ConfigActive config) {
+        StringBuilder texte = new StringBuilder(4096);
+        LimiteurIp limiteur = config.getLimiteur();
+        JournalAsync journalAcces = config.getSitePrincipal().getJournalAcces();
+        JournalAsync journalErreurs = config.getSitePrincipal().getJournalErreurs();
+
+        entete(texte, "http_requests_total", "counter", "Requêtes traitées, par méthode, statut et route.");
+        Route[] routes = Route.values();
+        for (int methode = 0; methode < NOMBRE_METHODES; methode++) {
+            for (int statut = 0; statut < STATUTS.length; statut++) {
+                for (Route route : routes) {
+                    long total = REQUETES[indiceRequetes(methode, statut, route.ordinal())].sum();
+                    if (total == 0) {
+                        continue; // Seules les combinaisons déjà vues ont une série
+                    }
+                    texte.append("http_requests_total{method=\"").append(methode < METHODES.length ? METHODES[methode] : "other")
+                            .append("\",status=\"").append(STATUTS[statut]).append("\",route=\"").append(route.libelle)
+                            .append("\"} ").append(total).append('\n');
+                }
+            }
+        }
+
+        entete(texte, "http_request_duration_seconds", "histogram", "Temps de production des réponses, par route.");
+        for (Route route : Route.values()) {
+            Histogramme h = LATENCES[route.ordinal()];
+            long cumul = 0;
+            for (int i = 0; i < h.classes.length; i++) {
+                cumul += h.classes[i].sum();
+                String borne = i < BORNES_LATENCE.length ? Double.toString(BORNES_LATENCE[i]) : "+Inf";
+                texte.append("http_request_duration_seconds_bucket{route=\"").append(route.libelle)
+                        .append("\",le=\"").append(borne).append("\"} ").append(cumul).append('\n');
+            }
+            texte.append("http_request_duration_seconds_sum{route=\"").append(route.libelle).append("\"} ")
+                    .append(h.sommeNanos.sum() / 1e9).append('\n');
+            texte.append("http_request_duration_seconds_count{route=\"").append(route.libelle).append("\"} ")
+                    .append(cumul).append('\n');
+        }
+
+        valeur(texte, "http_response_bytes_total", "counter", "Octets de réponse envoyés (en-têtes compris).", OCTETS_ENVOYES.sum());
+        valeur(texte, "http_connections_active", "gauge", "Connexions clientes ouvertes.", CONNEXIONS_ACTIVES.sum());
+        valeur(texte, "http_connections_total", "counter", "Connexions clientes acceptées.", CONNEXIONS_TOTAL.sum());
+        valeur(texte, "ip_filter_rejected_total", "counter", "Connexions refusées par le filtrage IP.", CONNEXIONS_REFUSEES.sum());
+
+        if (limiteur != null && limiteur.isActif()) {
+            valeur(texte, "rate_limit_connections_rejected_total", "counter", "Connexions refusées (trop de connexions simultanées par IP).", limiteur.getConnexionsRefusees());
+            valeur(texte, "rate_limit_requests_rejected_total", "counter", "Requêtes refusées (débit par IP dépassé).", limiteur.getRequetesRefusees());
+            valeur(texte, "rate_limit_tracked_clients", "gauge", "Clients suivis par le limiteur.", limiteur.getNombreClients());
+        }
+
+        // Un cache par site (site principal "default" et hôtes virtuels)
+        List<ConfigActive.Site> sites = config.tousLesSites();
+        entete(texte, "file_cache_hits_total", "counter", "Réponses servies depuis le cache de fichiers.");
+        for (ConfigActive.Site site : sites) {
+            ligneSite(texte, "file_cache_hits_total", site, site.getCacheFichiers().getSucces());
+        }
+        entete(texte, "file_cache_misses_total", "counter", "Recherches absentes du cache de fichiers.");
+        for (ConfigActive.Site site : sites) {
+            ligneSite(texte, "file_cache_misses_total", site, site.getCacheFichiers().getEchecs());
+        }
+        entete(texte, "file_cache_evictions_total", "counter", "Entrées évincées du cache de fichiers.");
+        for (ConfigActive.Site site : sites) {
+            ligneSite(texte, "file_cache_evictions_total", site, site.getCacheFichiers().getEvictions());
+        }
+        entete(texte, "file_cache_bytes", "gauge", "Octets occupés par le cache de fichiers.");
+        for (ConfigActive.Site site : sites) {
+            ligneSite(texte, "file_cache_bytes", site, site.getCacheFichiers().getOctetsUtilises());
+        }
+        entete(texte, "file_cache_entries", "gauge", "Entrées du cache de fichiers.");
+        for (ConfigActive.Site site : sites) {
+            ligneSite(texte, "file_cache_entries", site, site.getCacheFichiers().getNombreEntrees());
+        }
+
+        entete(texte, "log_lines_dropped_total", "counter", "Lignes de journal perdues (tampon plein).");
+        ligneJournal(texte, "log_lines_dropped_total", "access", journalAcces == null ? -1 : journalAcces.getLignesPerdues());
+        ligneJournal(texte, "log_lines_dropped_total", "error", journalErreurs == null ? -1 : journalErreurs.getLignesPerdues());
+        entete(texte, "log_lines_pending", "gauge", "Lignes de journal en attente d'écriture.");
+        ligneJournal(texte, "log_lines_pending", "access", journalAcces == null ? -1 : journalAcces.getLignesEnAttente());
+        ligneJournal(texte, "log_lines_pending", "error", journalErreurs == null ? -1 : journalErreurs.getLignesEnAttente());
+
+        return texte.toString();
+    }
+
+    private static void entete(StringBuilder texte, String nom, String type, String aide) {
+        texte.append("# HELP ").append(nom).append(' ').append(aide).append('\n');
+        texte.append("# TYPE ").append(nom).append(' ').append(type).append('\n');
+    }
+
+    private static void valeur(StringBuilder texte, String nom, String type, String aide, long valeur) {
+        entete(texte, nom, type, aide);
+        texte.append(nom).append(' ').append(valeur).append('\n');
+    }
+
+    private static void ligneSite(StringBuilder texte, String nom, ConfigActive.Site site, long valeur) {
+        texte.append(nom).append("{site=\"").append(site.getNom()).append("\"} ").append(valeur).append('\n');
+    }
+
+    // Un journal désactivé (valeur -1) n'a pas de série
+    private static void ligneJournal(StringBuilder texte, String nom, String journal, long valeur) {
+        if (valeur >= 0) {
+            texte.append(nom).append("{log=\"").append(journal).append("\"} ").append(valeur).append('\n');
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Analyse de l'en-tête Range ("bytes=0-499, 1000-, -200") pour les réponses 206 Partial Content.
+ */
+public class PlagesOctets {
+
+    private static final int NOMBRE_MAX_PLAGES = 16; // Au-delà, la demande est ignorée et le fichier envoyé en entier
+
+    /**
+     * Plage d'octets inclusive [debut, fin], déjà bornée à la taille du fichier.
+     */
+    public static final class Plage {
+        private final long debut;
+        private final long fin;
+
+        Plage(long debut, long fin) {
+            this.debut = debut;
+            this.fin = fin;
+        }
+
+        public long getDebut() { return debut; }
+
+        public long getFin() { return fin; }
+
+        public long getLongueur() { return fin - debut + 1; }
+
+        /**
+         * Valeur de l'en-tête Content-Range pour cette plage.
+         */
+        public String contentRange(long tailleFichier) {
+            return "bytes " + debut + "-" + fin + "/" + tailleFichier;
+        }
+    }
+
+    /**
+     * Analyse la valeur de l'en-tête Range pour un fichier de la taille donnée.
+     *
+     * @return null si l'en-tête doit être ignoré (absent, unité inconnue, syntaxe invalide, trop de plages) :
+     *         le fichier est alors envoyé en entier ; une liste vide si aucune plage n'est satisfiable (416) ;
+     *         sinon les plages à envoyer, triées et sans chevauchement.
+     */
+    public static List<Plage> analyser(String range, long tailleFichier) {
+        if (range == null) {
+            return null;
+        }
+        String valeur = range.trim().toLowerCase(Locale.ROOT);
+        if (!valeur.startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = valeur.substring("bytes=".length()).split(",");
+        if (specs.length > NOMBRE_MAX_PLAGES) {
+            return null;
+        }
+
+        List<Plage> plages = new ArrayList<>();
+        for (String spec : specs) {
+            String s = spec.trim();
+            int tiret = s.indexOf('-');
+            if (tiret < 0) {
+                return null;
+            }
+            String debutTexte = s.substring(0, tiret).trim();
+            String finTexte = s.substring(tiret + 1).trim();
+            try {
+                if (debutTexte.isEmpty()) {
+                    // "-n" : les n derniers octets
+                    long suffixe = Long.parseLong(finTexte);
+                    if (suffixe < 0) {
+                        return null;
+                    }
+                    if (suffixe > 0 && tailleFichier > 0) {
+                        plages.add(new Plage(Math.max(0, tailleFichier - suffixe), tailleFichier - 1));
+                    }
+                } else {
+                    long debut = Long.parseLong(debutTexte);
+                    long fin = finTexte.isEmpty() ? Long.MAX_VALUE : Long.parseLong(finTexte); // "n-" : jusqu'à la fin
+                    if (debut < 0 || fin < debut) {
+                        return null;
+                    }
+                    if (debut < tailleFichier) {
+                        plages.add(new Plage(debut, Math.min(fin, tailleFichier - 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        // Plages qui se chevauchent ou se touchent fusionnées (RFC 9110, section 14.2) : chaque octet part une seule fois,
+        // et "bytes=0-,0-,0-" ne multiplie pas la taille de la réponse
+        plages.sort(Comparator.comparingLong(Plage::getDebut));
+        List<Plage> fusionnees = new ArrayList<>(plages.size());
+        for (Plage plage : plages) {
+            int derniere = fusionnees.size() - 1;
+            if (derniere >= 0 && plage.debut <= fusionnees.get(derniere).fin + 1) {
+                Plage precedente = fusionnees.get(derniere);
+                fusionnees.set(derniere, new Plage(precedente.debut, Math.max(precedente.fin, plage.fin)));
+            } else {
+                fusionnees.add(plage);
+            }
+        }
+        return fusionnees;
+    }
+}
@@ -0,0 +1,436 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Pool de processus de traitement externes gardés en vie d'une requête à l'autre (à la manière de FastCGI) :
+ * un script n'est lancé qu'une fois puis réutilisé, au lieu d'un fork+exec par requête.
+ *
+ * Dialogue avec un processus, sur son entrée et sa sortie standard, par trames : la longueur en décimal ASCII,
+ * un saut de ligne, puis exactement ce nombre d'octets (lisible depuis un script shell avec read et head -c).
+ * <ul>
+ *   <li>Requête : une trame de variables CGI ("REQUEST_METHOD=POST", une par ligne), puis une trame avec le corps (éventuellement vide).</li>
+ *   <li>Réponse : une trame au format de sortie CGI (en-têtes "Status:", "Content-Type:"..., ligne vide, corps).</li>
+ *   <li>Contrôle de santé : une trame vide, à laquelle le processus répond par une trame vide.</li>
+ * </ul>
+ * Le pool garde au moins MinWorkers processus et en lance au plus MaxWorkers. Un processus qui dépasse le délai
+ * d'une requête, qui meurt ou qui ne répond pas au contrôle de santé est arrêté et remplacé.
+ */
+public class PoolTravailleurs {
+
+    private static final int TAILLE_MAX_REPONSE = 16 * 1024 * 1024;
+    private static final int CHIFFRES_MAX_LONGUEUR = 10;
+    private static final long INACTIVITE_MAX_MILLIS = 60_000; // Au-delà, un processus en surnombre (> MinWorkers) est arrêté
+
+    // Délais des requêtes et des contrôles de santé : un seul thread pour tous les pools, qui ne fait que tuer
+    // des processus et ne doit donc jamais bloquer
+    private static final ScheduledExecutorService MINUTERIE = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "minuterie-travailleurs");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Contrôles de santé : ils attendent la réponse des processus, d'où un thread à part (débloqué par la MINUTERIE
+    // qui tue un processus muet)
+    private static final ScheduledExecutorService CONTROLES = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "controle-travailleurs");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Réponse d'un processus, déjà séparée en statut, type, autres en-têtes et corps.
+     */
+    public static final class Reponse {
+        private final String status;
+        private final String contentType;
+        private final List<String> enTetes;
+        private final byte[] corps;
+
+        Reponse(String status, String contentType, List<String> enTetes, byte[] corps) {
+            this.status = status;
+            this.contentType = contentType;
+            this.enTetes = enTetes;
+            this.corps = corps;
+        }
+
+        public String getStatus() { return status; }
+
+        public String getContentType() { return contentType; }
+
+        /**
+         * En-têtes à recopier tels quels ("Location: /"...), hors Status et Content-Type.
+         */
+        public List<String> getEnTetes() { return enTetes; }
+
+        public byte[] getCorps() { return corps; }
+    }
+
+    /**
+     * Levée quand le traitement n'a pas abouti ; porte le statut à renvoyer (502, 503 ou 504).
+     */
+    public static final class EchecTraitement extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final String status;
+
+        EchecTraitement(String status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        public String getStatus() { return status; }
+    }
+
+    /**
+     * Un processus du pool et ses flux.
+     */
+    private static final class Travailleur {
+        final Process processus;
+        final OutputStream entree;
+        final InputStream sortie;
+        long derniereUtilisation = System.currentTimeMillis();
+
+        Travailleur(Process processus) {
+            this.processus = processus;
+            this.entree = new BufferedOutputStream(processus.getOutputStream(), 8192);
+            this.sortie = new BufferedInputStream(processus.getInputStream(), 8192);
+        }
+    }
+
+    private final WebServeurConfig.TraitementExterne definition;
+    private final LinkedBlockingDeque<Travailleur> libres = new LinkedBlockingDeque<>();
+    private final Semaphore permis; // Un permis par processus utilisable en même temps : MaxWorkers
+    private final AtomicInteger vivants = new AtomicInteger();
+    private final ScheduledFuture<?> controle;
+    private volatile boolean actif = true;
+
+    public PoolTravailleurs(WebServeurConfig.TraitementExterne definition) {
+        this.definition = definition;
+        this.permis = new Semaphore(definition.getMaxWorkers());
+        for (int i = 0; i < definition.getMinWorkers(); i++) {
+            try {
+                libres.add(demarrer());
+            } catch (IOException e) {
+                WebServeur.logError("Impossible de lancer " + definition.getCommande() + " : " + e.getMessage());
+                System.out.println("Avertissement : Impossible de lancer " + definition.getCommande() + " : " + e.getMessage());
+                break; // Le contrôle de santé réessaiera
+            }
+        }
+        long intervalle = definition.getIntervalleControle();
+        this.controle = CONTROLES.scheduleWithFixedDelay(this::controlerSante, intervalle, intervalle, TimeUnit.SECONDS);
+    }
+
+    public WebServeurConfig.TraitementExterne getDefinition() { return definition; }
+
+    public int getNombreProcessus() { return vivants.get(); }
+
+    private Travailleur demarrer() throws IOException {
+        ProcessBuilder constructeur = new ProcessBuilder(definition.getCommande());
+        if (definition.getRepertoire() != null) {
+            constructeur.directory(new File(definition.getRepertoire()));
+        }
+        constructeur.redirectError(ProcessBuilder.Redirect.INHERIT); // Messages d'erreur du script sur la console du serveur
+        Travailleur travailleur = new Travailleur(constructeur.start());
+        vivants.incrementAndGet();
+        return travailleur;
+    }
+
+    /**
+     * Tue le processus et ses descendants : un sous-processus du script (sleep, grep...) garderait sinon
+     * la sortie standard ouverte, et la lecture en cours ne se terminerait qu'avec lui. Le processus est tué avant
+     * ses descendants (relevés juste avant) : tué après, il aurait le temps d'en lancer un nouveau à la mort du premier.
+     */
+    private static void tuer(Process processus) {
+        List<ProcessHandle> descendants = processus.descendants().collect(Collectors.toList());
+        processus.destroyForcibly();
+        descendants.forEach(ProcessHandle::destroyForcibly);
+    }
+
+    private void arreter(Travailleur travailleur) {
+        tuer(travailleur.processus);
+        vivants.decrementAndGet();
+    }
+
+    /**
+     * Transmet la requête à un processus libre (lancé si besoin, dans la limite de MaxWorkers) et lit sa réponse.
+     *
+     * @param variables Variables CGI de la requête.
+     * @param corps     Corps de la requête, ou null.
+     * @throws EchecTraitement 503 si aucun processus ne se libère à temps, 504 si le délai est dépassé,
+     *                         502 si le processus meurt ou répond de façon invalide.
+     */
+    public Reponse traiter(List<String> variables, CorpsRequete corps) throws EchecTraitement {
+        long delai = definition.getDelaiMaxMillis();
+        try {
+            if (!actif || !permis.tryAcquire(delai, TimeUnit.MILLISECONDS)) {
+                throw new EchecTraitement("503 Service Unavailable", "Aucun processus libre pour " + definition.getChemin() + ".");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EchecTraitement("503 Service Unavailable", "Attente d'un processus interrompue.");
+        }
+        Travailleur travailleur = null;
+        try {
+            travailleur = obtenir();
+            Travailleur utilise = travailleur;
+            // Délai dépassé : le processus est tué, ce qui débloque la lecture ou l'écriture en cours
+            AtomicBoolean expire = new AtomicBoolean(); // Levé avant de tuer : la lecture échoue dès la mort du processus
+            ScheduledFuture<?> minuteur = MINUTERIE.schedule(() -> {
+                expire.set(true);
+                tuer(utilise.processus);
+            }, delai, TimeUnit.MILLISECONDS);
+            byte[] trame;
+            boolean minuteurAnnule;
+            try {
+                ecrireRequete(travailleur.entree, variables, corps);
+                trame = lireTrame(travailleur.sortie);
+            } catch (IOException e) {
+                throw expire.get()
+                        ? new EchecTraitement("504 Gateway Timeout", "Délai de " + delai + " ms dépassé par " + definition.getCommande() + ".")
+                        : new EchecTraitement("502 Bad Gateway", "Processus " + definition.getCommande() + " en échec : " + e.getMessage());
+            } finally {
+                minuteurAnnule = minuteur.cancel(false);
+            }
+            Reponse reponse = analyser(trame);
+            if (!minuteurAnnule || expire.get()) {
+                // Délai écoulé juste après la lecture : le minuteur tue ce processus (ou l'a déjà fait), il ne doit pas
+                // retourner dans le pool. La réponse, complète, est tout de même transmise
+                arreter(travailleur);
+                travailleur = null;
+                return reponse;
+            }
+            travailleur.derniereUtilisation = System.currentTimeMillis();
+            if (actif) {
+                libres.addFirst(travailleur); // Le plus récemment utilisé repart en premier : les autres peuvent être réduits
+            } else {
+                fermerProprement(travailleur); // Pool retiré pendant la requête
+            }
+            travailleur = null;
+            return reponse;
+        } finally {
+            if (travailleur != null) {
+                arreter(travailleur); // État du dialogue inconnu : le processus ne peut pas être réutilisé
+            }
+            permis.release();
+        }
+    }
+
+    private Travailleur obtenir() throws EchecTraitement {
+        Travailleur travailleur;
+        while ((travailleur = libres.pollFirst()) != null) {
+            if (travailleur.processus.isAlive()) {
+                return travailleur;
+            }
+            arreter(travailleur);
+        }
+        try {
+            return demarrer();
+        } catch (IOException e) {
+            throw new EchecTraitement("502 Bad Gateway", "Impossible de lancer " + definition.getCommande() + " : " + e.getMessage());
+        }
+    }
+
+    private static void ecrireRequete(OutputStream entree, List<String> variables, CorpsRequete corps) throws IOException {
+        StringBuilder texte = new StringBuilder();
+        for (String variable : variables) {
+            texte.append(variable).append('\n');
+        }
+        byte[] enTetes = texte.toString().getBytes(StandardCharsets.UTF_8);
+        ecrireLongueur(entree, enTetes.length);
+        entree.write(enTetes);
+        if (corps == null) {
+            ecrireLongueur(entree, 0);
+        } else {
+            ecrireLongueur(entree, corps.getTaille());
+            try (InputStream in = corps.ouvrir()) {
+                in.transferTo(entree); // Depuis la mémoire ou le fichier temporaire, sans tout charger
+            }
+        }
+        entree.flush();
+    }
+
+    private static void ecrireLongueur(OutputStream entree, long longueur) throws IOException {
+        entree.write((longueur + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] lireTrame(InputStream sortie) throws IOException {
+        long longueur = 0;
+        int chiffres = 0;
+        int octet;
+        while ((octet = sortie.read()) != '\n') {
+            if (octet == -1) {
+                throw new IOException("Sortie du processus fermée.");
+            }
+            if (octet < '0' || octet > '9' || ++chiffres > CHIFFRES_MAX_LONGUEUR) {
+                throw new IOException("Longueur de trame invalide.");
+            }
+            longueur = longueur * 10 + (octet - '0');
+        }
+        if (chiffres == 0 || longueur > TAILLE_MAX_REPONSE) {
+            throw new IOException("Longueur de trame invalide ou trop grande : " + longueur);
+        }
+        byte[] trame = sortie.readNBytes((int) longueur);
+        if (trame.length < longueur) {
+            throw new IOException("Trame tronquée.");
+        }
+        return trame;
+    }
+
+    /**
+     * Sépare la sortie CGI en en-têtes et corps (séparés par une ligne vide, LF ou CRLF).
+     */
+    private Reponse analyser(byte[] trame) throws EchecTraitement {
+        int finEnTetes = -1;
+        int debutCorps = -1;
+        for (int i = 0; i < trame.length - 1; i++) {
+            if (trame[i] == '\n' && trame[i + 1] == '\n') {
+                finEnTetes = i;
+                debutCorps = i + 2;
+                break;
+            }
+            if (trame[i] == '\n' && trame[i + 1] == '\r' && i + 2 < trame.length && trame[i + 2] == '\n') {
+                finEnTetes = i;
+                debutCorps = i + 3;
+                break;
+            }
+        }
+        if (finEnTetes < 0) {
+            throw new EchecTraitement("502 Bad Gateway", "Réponse sans en-têtes de " + definition.getCommande() + ".");
+        }
+        String status = "200 OK";
+        String contentType = "text/html; charset=UTF-8";
+        List<String> enTetes = new ArrayList<>();
+        for (String ligne : new String(trame, 0, finEnTetes, StandardCharsets.UTF_8).split("\n")) {
+            ligne = ligne.trim();
+            int separateur = ligne.indexOf(':');
+            if (separateur <= 0) {
+                continue;
+            }
+            String nom = ligne.substring(0, separateur).trim();
+            String valeur = ligne.substring(separateur + 1).trim();
+            if (nom.equalsIgnoreCase("Status")) {
+                status = valeur;
+            } else if (nom.equalsIgnoreCase("Content-Type")) {
+                contentType = valeur;
+            } else if (!nom.equalsIgnoreCase("Content-Length") && !nom.equalsIgnoreCase("Connection")
+                    && !nom.equalsIgnoreCase("Transfer-Encoding")) {
+                enTetes.add(nom + ": " + valeur); // Longueur et connexion sont gérées par le serveur
+            }
+        }
+        byte[] corps = new byte[trame.length - debutCorps];
+        System.arraycopy(trame, debutCorps, corps, 0, corps.length);
+        return new Reponse(status, contentType, enTetes, corps);
+    }
+
+    /**
+     * Contrôle de santé périodique : chaque processus libre doit répondre à une trame vide dans le délai d'une requête.
+     * Les processus en échec sont arrêtés, les processus en surnombre inactifs depuis longtemps aussi, puis le pool
+     * est complété jusqu'à MinWorkers.
+     */
+    private void controlerSante() {
+        int aControler = libres.size();
+        for (int i = 0; i < aControler && actif; i++) {
+            if (!permis.tryAcquire()) {
+                break; // Tous les processus sont occupés par des requêtes : ils sont donc en vie
+            }
+            try {
+                Travailleur travailleur = libres.pollLast(); // Les moins récemment utilisés d'abord
+                if (travailleur == null) {
+                    break;
+                }
+                boolean enSurnombre = vivants.get() > definition.getMinWorkers()
+                        && System.currentTimeMillis() - travailleur.derniereUtilisation > INACTIVITE_MAX_MILLIS;
+                if (enSurnombre) {
+                    fermerProprement(travailleur);
+                } else if (repondAuControle(travailleur)) {
+                    libres.addFirst(travailleur);
+                } else {
+                    WebServeur.logError("Processus " + definition.getCommande() + " sans réponse au contrôle de santé : remplacé.");
+                    arreter(travailleur);
+                }
+            } finally {
+                permis.release();
+            }
+        }
+        while (actif && vivants.get() < definition.getMinWorkers()) {
+            try {
+                libres.addLast(demarrer());
+            } catch (IOException e) {
+                WebServeur.logError("Impossible de lancer " + definition.getCommande() + " : " + e.getMessage());
+                break;
+            }
+        }
+    }
+
+    private boolean repondAuControle(Travailleur travailleur) {
+        if (!travailleur.processus.isAlive()) {
+            return false;
+        }
+        ScheduledFuture<?> minuteur = MINUTERIE.schedule(() -> tuer(travailleur.processus),
+                definition.getDelaiMaxMillis(), TimeUnit.MILLISECONDS);
+        boolean repond;
+        boolean minuteurAnnule;
+        try {
+            ecrireLongueur(travailleur.entree, 0);
+            travailleur.entree.flush();
+            repond = lireLongueurVide(travailleur.sortie);
+        } catch (IOException e) {
+            repond = false;
+        } finally {
+            minuteurAnnule = minuteur.cancel(false);
+        }
+        // Minuteur déjà déclenché : le processus est tué (ou va l'être), même s'il a répondu entre-temps
+        return repond && minuteurAnnule;
+    }
+
+    private static boolean lireLongueurVide(InputStream sortie) throws IOException {
+        return sortie.read() == '0' && sortie.read() == '\n';
+    }
+
+    /**
+     * Fermer l'entrée standard demande au processus de se terminer ; il est tué s'il ne le fait pas.
+     */
+    private void fermerProprement(Travailleur travailleur) {
+        try {
+            travailleur.entree.close();
+            if (!travailleur.processus.waitFor(1, TimeUnit.SECONDS)) {
+                tuer(travailleur.processus);
+            }
+        } catch (IOException e) {
+            tuer(travailleur.processus);
+        } catch (InterruptedException e) {
+            tuer(travailleur.processus);
+            Thread.currentThread().interrupt();
+        }
+        vivants.decrementAndGet();
+    }
+
+    /**
+     * Arrête le contrôle de santé et les processus libres. Les requêtes en cours finissent avec leur processus,
+     * qui est ensuite arrêté au lieu d'être rendu au pool.
+     */
+    public void fermer() {
+        actif = false;
+        controle.cancel(false);
+        Travailleur travailleur;
+        while ((travailleur = libres.pollFirst()) != null) {
+            fermerProprement(travailleur);
+        }
+    }
+}
@@ -0,0 +1,487 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Découpage d'un corps multipart/form-data au fil de sa réception (CorpsRequete y verse les octets décodés).
+ * Les limites sont cherchées dans une fenêtre glissante de taille fixe : seuls les derniers octets, qui pourraient
+ * être le début d'une limite, restent en attente. Le contenu d'une partie fichier est écrit directement dans un
+ * fichier temporaire du répertoire d'envoi ; l'envoi n'est donc jamais entièrement en mémoire, quelle que soit sa taille.
+ * Les fichiers ne prennent leur nom définitif qu'une fois l'envoi complet et accepté (publier, appelé par EnvoiFichiers
+ * après les contrôles d'accès du site) : un envoi interrompu ou refusé ne laisse rien derrière lui.
+ */
+public final class ReceptionMultipart implements Closeable {
+
+    private static final int TAILLE_FENETRE = 64 * 1024;
+    private static final int TAILLE_MAX_LIGNE = 8 * 1024; // Ligne d'en-tête d'une partie
+    private static final int TAILLE_MAX_EN_TETES = 16 * 1024; // En-têtes d'une partie, au total
+    private static final int TAILLE_MAX_CHAMP = 64 * 1024; // Valeur d'un champ qui n'est pas un fichier
+    private static final int NOMBRE_MAX_PARTIES = 1000;
+    private static final int LONGUEUR_MAX_NOM = 200;
+
+    private enum Etat {
+        PREAMBULE,    // Avant la première limite (ignoré)
+        APRES_LIMITE, // Reste de la ligne d'une limite : "--" pour la dernière
+        EN_TETES,     // En-têtes de la partie, jusqu'à la ligne vide
+        DONNEES,      // Contenu de la partie, jusqu'à la limite suivante
+        EPILOGUE      // Après la dernière limite (ignoré)
+    }
+
+    /**
+     * Fichier reçu dans une partie.
+     */
+    public static final class FichierRecu {
+        private final String nomChamp;
+        private final String nomOriginal;
+        private final String contentType;
+        private final long taille;
+        private Path fichier; // Temporaire, puis définitif une fois l'envoi publié
+
+        FichierRecu(String nomChamp, String nomOriginal, String contentType, long taille, Path fichier) {
+            this.nomChamp = nomChamp;
+            this.nomOriginal = nomOriginal;
+            this.contentType = contentType;
+            this.taille = taille;
+            this.fichier = fichier;
+        }
+
+        public String getNomChamp() { return nomChamp; }
+
+        public String getNomOriginal() { return nomOriginal; }
+
+        public String getContentType() { return contentType; }
+
+        public long getTaille() { return taille; }
+
+        public Path getFichier() { return fichier; }
+    }
+
+    private final byte[] delimiteur; // CRLF "--" limite
+    private final Path repertoire;
+    private final Set<String> extensionsPermises;
+    private final long tailleMaxPartie;
+    private final byte[] fenetre;
+    private int debut; // Octets en attente : fenetre[debut, fin)
+    private int fin;
+    private Etat etat = Etat.PREAMBULE;
+    private final ByteArrayOutputStream ligne = new ByteArrayOutputStream(256);
+    private int tailleEnTetes;
+    private int parties;
+
+    // Partie en cours
+    private String nomChamp;
+    private String nomFichier;
+    private String typeContenu;
+    private long taillePartie;
+    private Path fichierTemporaire;
+    private FileChannel canal;
+    private ByteArrayOutputStream valeurChamp;
+
+    private final List<FichierRecu> fichiers = new ArrayList<>();
+    private final Map<String, String> champs = new LinkedHashMap<>();
+    private boolean publie;
+
+    /**
+     * @param limite          Paramètre boundary du Content-Type.
+     * @param repertoire      Répertoire où les fichiers reçus sont écrits.
+     * @param extensions      Extensions acceptées (minuscules, sans point) : tout autre fichier fait refuser l'envoi (415).
+     * @param tailleMaxPartie Taille maximale d'un fichier, en octets (la taille totale est limitée par CorpsRequete).
+     */
+    public ReceptionMultipart(String limite, Path repertoire, Set<String> extensions, long tailleMaxPartie) {
+        this.delimiteur = ("\r\n--" + limite).getBytes(StandardCharsets.ISO_8859_1);
+        this.repertoire = repertoire;
+        this.extensionsPermises = extensions;
+        this.tailleMaxPartie = tailleMaxPartie;
+        this.fenetre = new byte[TAILLE_FENETRE + delimiteur.length];
+        // La première limite n'est précédée d'aucune fin de ligne : on en place une pour la chercher comme les autres
+        fenetre[0] = '\r';
+        fenetre[1] = '\n';
+        fin = 2;
+    }
+
+    /**
+     * Paramètre boundary d'un Content-Type multipart/form-data.
+     * @return La limite, ou null si le type n'est pas multipart/form-data ou si la limite est absente ou invalide.
+     */
+    public static String limite(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data")) {
+            return null;
+        }
+        String limite = parametres(contentType).get("boundary");
+        // RFC 2046 : 1 à 70 caractères ASCII
+        if (limite == null || limite.isEmpty() || limite.length() > 70 || !StandardCharsets.US_ASCII.newEncoder().canEncode(limite)) {
+            return null;
+        }
+        return limite;
+    }
+
+    /**
+     * Consomme une portion du corps.
+     * @throws RequeteInvalideException 400 (format invalide), 413 (partie trop volumineuse) ou 500 (écriture impossible).
+     */
+    public void consommer(byte[] src, int position, int longueur) throws RequeteInvalideException {
+        while (longueur > 0) {
+            if (debut > 0) {
+                // Après traiter(), il reste au plus une limite incomplète : le décalage est court
+                System.arraycopy(fenetre, debut, fenetre, 0, fin - debut);
+                fin -= debut;
+                debut = 0;
+            }
+            int n = Math.min(longueur, fenetre.length - fin);
+            System.arraycopy(src, position, fenetre, fin, n);
+            fin += n;
+            position += n;
+            longueur -= n;
+            traiter();
+        }
+    }
+
+    private void traiter() throws RequeteInvalideException {
+        while (debut < fin) {
+            switch (etat) {
+                case PREAMBULE:
+                case DONNEES: {
+                    int trouve = chercherDelimiteur();
+                    // Sans limite trouvée, les derniers octets pourraient en être le début : ils attendent la suite
+                    int finDonnees = trouve >= 0 ? trouve : Math.max(debut, fin - (delimiteur.length - 1));
+                    if (etat == Etat.DONNEES) {
+                        ecrire(debut, finDonnees - debut);
+                    }
+                    debut = finDonnees;
+                    if (trouve < 0) {
+                        return;
+                    }
+                    debut += delimiteur.length;
+                    if (etat == Etat.DONNEES) {
+                        finirPartie();
+                    }
+                    etat = Etat.APRES_LIMITE;
+                    break;
+                }
+                case EPILOGUE:
+                    debut = fin;
+                    return;
+                default: {
+                    byte octet = fenetre[debut++];
+                    if (octet == '\n') {
+                        finDeLigne();
+                    } else {
+                        if (ligne.size() >= TAILLE_MAX_LIGNE) {
+                            throw new RequeteInvalideException("400 Bad Request", "En-tête de partie multipart trop long.");
+                        }
+                        ligne.write(octet);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private int chercherDelimiteur() {
+        byte premier = delimiteur[0];
+        for (int i = debut; i <= fin - delimiteur.length; i++) {
+            if (fenetre[i] != premier) {
+                continue;
+            }
+            int j = 1;
+            while (j < delimiteur.length && fenetre[i + j] == delimiteur[j]) {
+                j++;
+            }
+            if (j == delimiteur.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void finDeLigne() throws RequeteInvalideException {
+        String texte = ligne.toString(StandardCharsets.UTF_8);
+        ligne.reset();
+        if (texte.endsWith("\r")) {
+            texte = texte.substring(0, texte.length() - 1);
+        }
+        if (etat == Etat.APRES_LIMITE) {
+            if (texte.startsWith("--")) {
+                etat = Etat.EPILOGUE;
+            } else if (texte.isBlank()) { // Espaces de remplissage tolérés après la limite
+                if (++parties > NOMBRE_MAX_PARTIES) {
+                    throw new RequeteInvalideException("413 Content Too Large", "Trop de parties dans le formulaire (" + NOMBRE_MAX_PARTIES + " max).");
+                }
+                nomChamp = null;
+                nomFichier = null;
+                typeContenu = null;
+                tailleEnTetes = 0;
+                etat = Etat.EN_TETES;
+            } else {
+                throw new RequeteInvalideException("400 Bad Request", "Limite multipart mal formée.");
+            }
+            return;
+        }
+        if (texte.isEmpty()) {
+            commencerDonnees();
+            return;
+        }
+        tailleEnTetes += texte.length();
+        if (tailleEnTetes > TAILLE_MAX_EN_TETES) {
+            throw new RequeteInvalideException("400 Bad Request", "En-têtes de partie multipart trop longs.");
+        }
+        int deuxPoints = texte.indexOf(':');
+        if (deuxPoints <= 0) {
+            throw new RequeteInvalideException("400 Bad Request", "En-tête de partie multipart invalide.");
+        }
+        String nom = texte.substring(0, deuxPoints).trim().toLowerCase(Locale.ROOT);
+        String valeur = texte.substring(deuxPoints + 1).trim();
+        if ("content-disposition".equals(nom) && valeur.toLowerCase(Locale.ROOT).startsWith("form-data")) {
+            Map<String, String> parametres = parametres(valeur);
+            nomChamp = parametres.get("name");
+            nomFichier = parametres.get("filename");
+        } else if ("content-type".equals(nom)) {
+            typeContenu = valeur;
+        }
+    }
+
+    private void commencerDonnees() throws RequeteInvalideException {
+        if (nomChamp == null) {
+            throw new RequeteInvalideException("400 Bad Request", "Partie multipart sans Content-Disposition: form-data; name=...");
+        }
+        taillePartie = 0;
+        if (nomFichier != null) {
+            // filename="" : aucun fichier choisi dans le formulaire, la partie (vide) est ignorée
+            if (!nomFichier.isEmpty()) {
+                // Vérifié avant d'écrire quoi que ce soit : un .html ou un .svg servi ensuite depuis le site s'exécuterait chez ses visiteurs
+                if (!extensionsPermises.contains(extension(nomSur(nomFichier)))) {
+                    throw new RequeteInvalideException("415 Unsupported Media Type", "Type de fichier refusé : " + nomSur(nomFichier));
+                }
+                try {
+                    Files.createDirectories(repertoire);
+                    fichierTemporaire = Files.createTempFile(repertoire, ".envoi-", ".part");
+                    canal = FileChannel.open(fichierTemporaire, StandardOpenOption.WRITE);
+                } catch (IOException e) {
+                    throw echecEcriture(e);
+                }
+            }
+        } else {
+            valeurChamp = new ByteArrayOutputStream();
+        }
+        etat = Etat.DONNEES;
+    }
+
+    private void ecrire(int position, int n) throws RequeteInvalideException {
+        if (n == 0) {
+            return;
+        }
+        taillePartie += n;
+        if (canal != null) {
+            if (taillePartie > tailleMaxPartie) {
+                throw new RequeteInvalideException("413 Content Too Large", "Fichier " + nomFichier + " trop volumineux (" + tailleMaxPartie + " octets max).");
+            }
+            try {
+                ByteBuffer donnees = ByteBuffer.wrap(fenetre, position, n);
+                while (donnees.hasRemaining()) {
+                    canal.write(donnees);
+                }
+            } catch (IOException e) {
+                throw echecEcriture(e);
+            }
+        } else if (valeurChamp != null) {
+            if (taillePartie > TAILLE_MAX_CHAMP) {
+                throw new RequeteInvalideException("413 Content Too Large", "Champ " + nomChamp + " trop long (" + TAILLE_MAX_CHAMP + " octets max).");
+            }
+            valeurChamp.write(fenetre, position, n);
+        }
+    }
+
+    private void finirPartie() throws RequeteInvalideException {
+        if (canal != null) {
+            try {
+                canal.close();
+            } catch (IOException e) {
+                throw echecEcriture(e);
+            }
+            canal = null;
+            fichiers.add(new FichierRecu(nomChamp, nomFichier, typeContenu, taillePartie, fichierTemporaire));
+            fichierTemporaire = null;
+        } else if (valeurChamp != null) {
+            champs.putIfAbsent(nomChamp, valeurChamp.toString(StandardCharsets.UTF_8));
+            valeurChamp = null;
+        }
+    }
+
+    private RequeteInvalideException echecEcriture(IOException e) {
+        WebServeur.logError("Écriture d'un fichier envoyé dans " + repertoire + " impossible : " + e.getMessage());
+        return new RequeteInvalideException("500 Internal Server Error", "Enregistrement du fichier envoyé impossible.");
+    }
+
+    /**
+     * Fin du corps : vérifie que la limite de fin a été reçue. Les fichiers restent temporaires jusqu'à publier.
+     * @throws RequeteInvalideException 400 si le corps s'arrête avant la limite de fin.
+     */
+    public void terminer() throws RequeteInvalideException {
+        if (etat == Etat.APRES_LIMITE && ligne.size() >= 2 && ligne.toString(StandardCharsets.ISO_8859_1).startsWith("--")) {
+            etat = Etat.EPILOGUE; // Limite de fin sans CRLF final
+        }
+        if (etat != Etat.EPILOGUE) {
+            throw new RequeteInvalideException("400 Bad Request", "Corps multipart incomplet : limite de fin absente.");
+        }
+    }
+
+    /**
+     * Donne leur nom définitif aux fichiers d'un envoi complet. En cas d'échec, close supprime tous les fichiers,
+     * y compris ceux déjà publiés : l'envoi est refusé en bloc.
+     */
+    public void publier() throws IOException {
+        if (etat != Etat.EPILOGUE) {
+            throw new IllegalStateException("Envoi incomplet : rien à publier.");
+        }
+        for (FichierRecu fichier : fichiers) {
+            fichier.fichier = publier(fichier.fichier, nomSur(fichier.nomOriginal));
+        }
+        publie = true;
+    }
+
+    /**
+     * Renomme le fichier temporaire sans jamais écraser un fichier existant : "nom.ext", puis "nom-1.ext", etc.
+     */
+    private Path publier(Path temporaire, String nom) throws IOException {
+        int point = nom.lastIndexOf('.');
+        String base = point > 0 ? nom.substring(0, point) : nom;
+        String extension = point > 0 ? nom.substring(point) : "";
+        for (int i = 0; ; i++) {
+            Path cible = repertoire.resolve(i == 0 ? nom : base + "-" + i + extension);
+            try {
+                // Un lien est créé atomiquement et échoue si la cible existe (un renommage la remplacerait)
+                Files.createLink(cible, temporaire);
+                Files.delete(temporaire);
+                return cible;
+            } catch (FileAlreadyExistsException e) {
+                // Nom pris : essai suivant
+            } catch (UnsupportedOperationException e) {
+                try {
+                    return Files.move(temporaire, cible);
+                } catch (FileAlreadyExistsException dejaPris) {
+                    // Nom pris : essai suivant
+                }
+            }
+        }
+    }
+
+    /**
+     * Nom de fichier utilisable tel quel dans une URL : dernier composant du nom envoyé, caractères hors
+     * [A-Za-z0-9._-] remplacés par '_', sans point initial (ni fichier caché, ni "..").
+     */
+    static String nomSur(String original) {
+        String nom = original.substring(Math.max(original.lastIndexOf('/'), original.lastIndexOf('\\')) + 1);
+        StringBuilder sur = new StringBuilder(Math.min(nom.length(), LONGUEUR_MAX_NOM));
+        for (int i = 0; i < nom.length() && sur.length() < LONGUEUR_MAX_NOM; i++) {
+            char c = nom.charAt(i);
+            boolean permis = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.';
+            if (c == '.' && sur.length() == 0) {
+                continue;
+            }
+            sur.append(permis ? c : '_');
+        }
+        return sur.length() > 0 ? sur.toString() : "fichier";
+    }
+
+    /**
+     * Extension d'un nom déjà rendu sûr par nomSur, en minuscules et sans point ("" s'il n'en a pas).
+     */
+    static String extension(String nom) {
+        int point = nom.lastIndexOf('.');
+        return point > 0 ? nom.substring(point + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * Paramètres "nom=valeur" ou nom="valeur" qui suivent le premier ';' d'un en-tête (noms en minuscules).
+     */
+    private static Map<String, String> parametres(String enTete) {
+        Map<String, String> parametres = new HashMap<>();
+        int longueur = enTete.length();
+        int i = enTete.indexOf(';');
+        while (i >= 0 && i < longueur) {
+            int egal = enTete.indexOf('=', i + 1);
+            if (egal < 0) {
+                break;
+            }
+            String nom = enTete.substring(i + 1, egal).trim().toLowerCase(Locale.ROOT);
+            i = egal + 1;
+            String valeur;
+            if (i < longueur && enTete.charAt(i) == '"') {
+                StringBuilder entreGuillemets = new StringBuilder();
+                i++;
+                while (i < longueur && enTete.charAt(i) != '"') {
+                    // Seul \" est un échappement : les navigateurs envoient les chemins Windows tels quels
+                    if (enTete.charAt(i) == '\\' && i + 1 < longueur && enTete.charAt(i + 1) == '"') {
+                        i++;
+                    }
+                    entreGuillemets.append(enTete.charAt(i++));
+                }
+                valeur = entreGuillemets.toString();
+                i = enTete.indexOf(';', i);
+            } else {
+                int finValeur = enTete.indexOf(';', i);
+                valeur = enTete.substring(i, finValeur >= 0 ? finValeur : longueur).trim();
+                i = finValeur;
+            }
+            parametres.putIfAbsent(nom, valeur);
+        }
+        return parametres;
+    }
+
+    /**
+     * Fichiers reçus, sous leur nom définitif une fois publiés.
+     */
+    public List<FichierRecu> getFichiers() { return Collections.unmodifiableList(fichiers); }
+
+    /**
+     * Champs texte du formulaire (le premier exemplaire d'un champ répété est retenu).
+     */
+    public Map<String, String> getChamps() { return Collections.unmodifiableMap(champs); }
+
+    /**
+     * Supprime les fichiers d'un envoi qui n'a pas été publié (interrompu, refusé ou en échec).
+     */
+    @Override
+    public void close() {
+        if (canal != null) {
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // Le fichier est supprimé juste après
+            }
+            canal = null;
+        }
+        List<Path> aSupprimer = new ArrayList<>();
+        if (fichierTemporaire != null) {
+            aSupprimer.add(fichierTemporaire);
+            fichierTemporaire = null;
+        }
+        if (!publie) {
+            for (FichierRecu fichier : fichiers) {
+                aSupprimer.add(fichier.fichier);
+            }
+        }
+        for (Path fichier : aSupprimer) {
+            try {
+                Files.deleteIfExists(fichier);
+            } catch (IOException e) {
+                WebServeur.logError("Impossible de supprimer le fichier temporaire " + fichier + " : " + e.getMessage());
+            }
+        }
+    }
+}
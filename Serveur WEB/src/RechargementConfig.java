@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Déclencheurs du rechargement à chaud de la configuration : modification de conf.xml (WatchService)
+ * et signal SIGHUP (kill -HUP), comme les serveurs Unix habituels. Le rechargement lui-même est fait par
+ * WebServeur.rechargerConfiguration, qui publie un nouvel instantané sans interrompre les connexions.
+ */
+public class RechargementConfig {
+
+    // Un éditeur produit souvent plusieurs événements pour un seul enregistrement (troncature, écriture, renommage)
+    private static final long DELAI_REGROUPEMENT_MILLIS = 300;
+
+    private RechargementConfig() {
+    }
+
+    /**
+     * Démarre la surveillance du fichier et installe le gestionnaire de SIGHUP s'ils sont disponibles.
+     */
+    public static void demarrer(String cheminFichier) {
+        Path fichier = Paths.get(cheminFichier).toAbsolutePath().normalize();
+        try {
+            WatchService service = FileSystems.getDefault().newWatchService();
+            // On surveille le répertoire : un enregistrement par renommage remplace le fichier lui-même
+            fichier.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            Thread thread = new Thread(() -> boucleSurveillance(service, fichier.getFileName()), "surveillance-config");
+            thread.setDaemon(true);
+            thread.start();
+        } catch (IOException | UnsupportedOperationException e) {
+            System.out.println("Avertissement : Surveillance de " + cheminFichier + " indisponible (" + e.getMessage() + "). Rechargement par SIGHUP uniquement.");
+        }
+        installerSighup();
+    }
+
+    private static void boucleSurveillance(WatchService service, Path nomFichier) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean concerne = contientFichier(key, nomFichier);
+                key.reset();
+                if (!concerne) {
+                    continue;
+                }
+                // Regroupe les événements qui suivent de près le premier, puis recharge une seule fois
+                WatchKey suivante;
+                while ((suivante = service.poll(DELAI_REGROUPEMENT_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    suivante.pollEvents();
+                    suivante.reset();
+                }
+                System.out.println("\nModification de la configuration détectée, rechargement...");
+                WebServeur.rechargerConfiguration();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Arrêt de la surveillance
+        }
+    }
+
+    private static boolean contientFichier(WatchKey key, Path nomFichier) {
+        boolean trouve = false;
+        for (WatchEvent<?> evenement : key.pollEvents()) {
+            if (nomFichier.equals(evenement.context()) || evenement.kind() == StandardWatchEventKinds.OVERFLOW) {
+                trouve = true;
+            }
+        }
+        return trouve;
+    }
+
+    /**
+     * sun.misc.Signal n'est pas une API standard : on l'obtient par réflexion, comme les threads virtuels,
+     * pour compiler partout et simplement s'en passer si la JVM (ou le système) ne la fournit pas.
+     */
+    private static void installerSighup() {
+        try {
+            Class<?> classeSignal = Class.forName("sun.misc.Signal");
+            Class<?> classeGestionnaire = Class.forName("sun.misc.SignalHandler");
+            Object gestionnaire = Proxy.newProxyInstance(classeGestionnaire.getClassLoader(), new Class<?>[]{classeGestionnaire},
+                    (proxy, methode, arguments) -> {
+                        switch (methode.getName()) {
+                            case "handle":
+                                // Le thread de distribution des signaux ne doit pas être bloqué par le rechargement
+                                Thread thread = new Thread(RechargementConfig::rechargerSurSignal, "rechargement-config");
+                                thread.setDaemon(true);
+                                thread.start();
+                                return null;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == arguments[0];
+                            default:
+                                return "SIGHUP";
+                        }
+                    });
+            Method handle = classeSignal.getMethod("handle", classeSignal, classeGestionnaire);
+            handle.invoke(null, classeSignal.getConstructor(String.class).newInstance("HUP"), gestionnaire);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            // Classe absente ou signal non pris en charge (Windows) : seule la surveillance du fichier reste active
+            System.out.println("Avertissement : Rechargement par SIGHUP indisponible sur cette plateforme.");
+        }
+    }
+
+    private static void rechargerSurSignal() {
+        System.out.println("\nSIGHUP reçu, rechargement de la configuration...");
+        WebServeur.rechargerConfiguration();
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Noms et e-mails enregistrés par le formulaire de index.html, dans un MagasinEnregistrements (nom -> e-mail).
+ * Réenregistrer un nom remplace son e-mail ; l'ancienne entrée disparaît au compactage.
+ *
+ * À la première ouverture, l'ancien fichier texte de form_handler.bashrc (une ligne "nom,email" par enregistrement)
+ * est importé s'il existe. Comme avec grep | head -n 1, c'est le premier enregistrement d'un nom qui est repris.
+ * Le fichier texte n'est pas modifié. Un marqueur écrit dans le répertoire du magasin une fois l'import terminé
+ * (ou sans objet) empêche de le refaire ; un import interrompu par un arrêt brutal est repris du début à l'ouverture
+ * suivante, ce qui réécrit simplement les mêmes valeurs.
+ */
+public class RegistreUtilisateurs {
+
+    private static final int TAILLE_LOT_IMPORT = 10000; // Écritures déposées ensemble, donc un fsync par lot
+    private static final String MARQUEUR_IMPORT = "import-termine";
+
+    private final String chemin;
+    private final MagasinEnregistrements magasin;
+
+    /**
+     * Ouvre (ou crée) le magasin du répertoire, en important le fichier texte si ce n'est pas encore fait.
+     *
+     * @param fichierImport Ancien fichier "nom,email", ou null.
+     */
+    public RegistreUtilisateurs(String chemin, String fichierImport) throws IOException {
+        this.chemin = chemin;
+        this.magasin = new MagasinEnregistrements(Paths.get(chemin));
+        Path marqueur = magasin.getRepertoire().resolve(MARQUEUR_IMPORT);
+        if (Files.exists(marqueur)) {
+            return;
+        }
+        try {
+            if (fichierImport != null && Files.isRegularFile(Paths.get(fichierImport))) {
+                int importes = importer(Paths.get(fichierImport));
+                System.out.println(importes + " enregistrements importés de " + fichierImport + " dans " + chemin + ".");
+            }
+            // Écrit après le dernier lot, déjà sur disque : un arrêt avant ce point fait refaire l'import
+            Files.write(marqueur, new byte[0], StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+        } catch (IOException e) {
+            magasin.fermer();
+            throw new IOException("Import dans " + chemin + " impossible : " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Importe les lignes complètes du fichier texte (une dernière ligne sans fin de ligne est ignorée).
+     * @return Nombre de noms importés.
+     */
+    private int importer(Path fichier) throws IOException {
+        Set<String> vus = new HashSet<>();
+        List<CompletableFuture<Void>> lot = new ArrayList<>(TAILLE_LOT_IMPORT);
+        ByteArrayOutputStream ligne = new ByteArrayOutputStream(128);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(fichier), 64 * 1024)) {
+            int octet;
+            while ((octet = in.read()) >= 0) {
+                if (octet != '\n') {
+                    ligne.write(octet);
+                    continue;
+                }
+                String texte = new String(ligne.toByteArray(), StandardCharsets.UTF_8);
+                ligne.reset();
+                int separateur = texte.indexOf(',');
+                if (separateur <= 0) {
+                    continue;
+                }
+                String nom = texte.substring(0, separateur);
+                String mail = texte.endsWith("\r") ? texte.substring(separateur + 1, texte.length() - 1) : texte.substring(separateur + 1);
+                if (vus.add(nom)) {
+                    lot.add(magasin.ecrireSansAttendre(nom, mail));
+                }
+                if (lot.size() >= TAILLE_LOT_IMPORT) {
+                    attendre(lot);
+                }
+            }
+        }
+        attendre(lot);
+        return vus.size();
+    }
+
+    private void attendre(List<CompletableFuture<Void>> lot) throws IOException {
+        for (CompletableFuture<Void> ecriture : lot) {
+            magasin.attendre(ecriture);
+        }
+        lot.clear();
+    }
+
+    /**
+     * @return Le dernier e-mail enregistré pour ce nom, ou null s'il n'a jamais été enregistré.
+     */
+    public String chercher(String nom) throws IOException {
+        return magasin.lire(nom);
+    }
+
+    public int getNombreNoms() { return magasin.getNombreCles(); }
+
+    public String getChemin() { return chemin; }
+
+    /**
+     * Enregistre l'e-mail du nom et attend qu'il soit sur disque.
+     */
+    public void enregistrer(String nom, String mail) throws IOException {
+        magasin.ecrire(nom, mail);
+    }
+
+    /**
+     * Termine les enregistrements en attente puis ferme le magasin.
+     */
+    public void fermer() {
+        magasin.fermer();
+    }
+}
@@ -0,0 +1,400 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Ligne de requête et en-têtes d'une requête HTTP.
+ * Les noms d'en-têtes sont stockés en minuscules (ils sont insensibles à la casse).
+ *
+ * Une instance sert à toutes les requêtes d'une connexion : analyser recopie les en-têtes reçus dans un tableau
+ * d'octets réutilisé et se contente d'y repérer les positions de chaque élément. Les méthodes, versions et noms
+ * d'en-têtes courants sont des chaînes partagées ; la valeur d'un en-tête n'est décodée que si on la demande.
+ * Une fois la connexion chaude, une requête ordinaire n'alloue ainsi que sa chaîne de chemin.
+ */
+public class RequeteHttp {
+
+    static final int TAILLE_MAX_EN_TETES = 64 * 1024; // Ligne de requête et en-têtes, au total (431 au-delà)
+    private static final int TAILLE_MAX_LIGNE = 8 * 1024;
+    private static final int NOMBRE_MAX_EN_TETES = 100;
+
+    private static final String[] METHODES = {"GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH", "TRACE", "CONNECT"};
+    private static final String[] VERSIONS = {"HTTP/1.1", "HTTP/1.0"};
+    private static final String[] NOMS_COURANTS = {
+            "host", "user-agent", "accept", "accept-encoding", "accept-language", "accept-charset", "connection",
+            "keep-alive", "content-length", "content-type", "transfer-encoding", "expect", "range", "if-range",
+            "if-none-match", "if-modified-since", "if-match", "if-unmodified-since", "cache-control", "pragma",
+            "cookie", "referer", "origin", "authorization", "upgrade", "upgrade-insecure-requests", "te", "dnt",
+            "x-forwarded-for", "x-forwarded-proto", "x-requested-with", "priority",
+            "sec-fetch-site", "sec-fetch-mode", "sec-fetch-dest", "sec-fetch-user",
+            "sec-ch-ua", "sec-ch-ua-mobile", "sec-ch-ua-platform"};
+    private static final String[] TABLE_NOMS = new String[128]; // Adressage ouvert, indexé par le hachage du nom en minuscules
+
+    static {
+        for (String nom : NOMS_COURANTS) {
+            int i = hacher(nom) & (TABLE_NOMS.length - 1);
+            while (TABLE_NOMS[i] != null) {
+                i = (i + 1) & (TABLE_NOMS.length - 1);
+            }
+            TABLE_NOMS[i] = nom;
+        }
+    }
+
+    private byte[] octets = new byte[2048]; // En-têtes de la requête en cours, agrandi au besoin jusqu'à TAILLE_MAX_EN_TETES
+    private String methode;
+    private int debutChemin;
+    private int finChemin;
+    private String chemin; // Décodé à la première demande
+    private String version;
+    private int nombreEnTetes;
+    private String[] noms = new String[16];
+    private int[] debutsValeurs = new int[16];
+    private int[] finsValeurs = new int[16];
+    private String[] valeurs = new String[16]; // Décodées à la première demande
+    private CorpsRequete corps; // Attaché une fois lu, null si la requête n'a pas de corps conservé
+
+    /**
+     * Position juste après la ligne vide qui termine les en-têtes (CRLF ou LF seul) dans donnees[debut, fin),
+     * ou -1 si elle n'est pas encore arrivée. Les lignes vides qui précèdent la requête sont sautées
+     * (RFC 9112, section 2.2).
+     *
+     * @param reprise Fin de l'examen précédent des mêmes en-têtes (debut la première fois) : seuls les octets
+     *                reçus depuis sont examinés, plus les 3 d'avant où une fin d'en-têtes a pu être coupée.
+     *                Sans cela, des en-têtes reçus en n morceaux coûteraient n examens depuis le début.
+     */
+    static int chercherFinEnTetes(byte[] donnees, int debut, int reprise, int fin) {
+        int i = debut;
+        while (i < fin && (donnees[i] == '\r' || donnees[i] == '\n')) {
+            i++;
+        }
+        for (i = Math.max(i, reprise - 3); i < fin; i++) {
+            if (donnees[i] == '\n') {
+                if (i + 1 < fin && donnees[i + 1] == '\n') {
+                    return i + 2;
+                }
+                if (i + 2 < fin && donnees[i + 1] == '\r' && donnees[i + 2] == '\n') {
+                    return i + 3;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Analyse la ligne de requête et les en-têtes contenus dans donnees[debut, fin), ligne vide finale comprise
+     * (voir chercherFinEnTetes), et remplace la requête précédente. Le corps éventuel n'est pas lu (voir CorpsRequete).
+     *
+     * @throws RequeteInvalideException si la requête est mal formée ou dépasse les limites.
+     */
+    public void analyser(byte[] donnees, int debut, int fin) throws RequeteInvalideException {
+        int longueur = fin - debut;
+        if (longueur > TAILLE_MAX_EN_TETES) {
+            throw new RequeteInvalideException("431 Request Header Fields Too Large", "En-têtes de requête trop volumineux.");
+        }
+        if (longueur > octets.length) {
+            octets = new byte[Math.min(Math.max(longueur, octets.length * 2), TAILLE_MAX_EN_TETES)];
+        }
+        System.arraycopy(donnees, debut, octets, 0, longueur);
+        fermerCorps();
+        chemin = null;
+        Arrays.fill(valeurs, 0, nombreEnTetes, null);
+        nombreEnTetes = 0;
+
+        int i = 0;
+        while (i < longueur && (octets[i] == '\r' || octets[i] == '\n')) {
+            i++;
+        }
+        int finLigne = chercher(octets, '\n', i, longueur);
+        if (finLigne < 0) {
+            throw new RequeteInvalideException("400 Bad Request", "Ligne de requête incomplète.");
+        }
+        int finTexte = sansCr(i, finLigne);
+        if (finTexte - i > TAILLE_MAX_LIGNE) {
+            throw new RequeteInvalideException("414 URI Too Long", "Ligne de requête trop longue.");
+        }
+        int espace = chercher(octets, ' ', i, finTexte);
+        if (espace <= i || espace + 1 >= finTexte) {
+            throw new RequeteInvalideException("400 Bad Request", "Ligne de requête invalide.");
+        }
+        methode = interner(METHODES, i, espace);
+        debutChemin = espace + 1;
+        int espaceVersion = chercher(octets, ' ', debutChemin, finTexte);
+        finChemin = espaceVersion >= 0 ? espaceVersion : finTexte;
+        if (finChemin == debutChemin) {
+            throw new RequeteInvalideException("400 Bad Request", "Ligne de requête invalide.");
+        }
+        version = espaceVersion >= 0 ? interner(VERSIONS, espaceVersion + 1, finTexte) : "HTTP/1.0";
+
+        i = finLigne + 1;
+        boolean hostVu = false;
+        while (true) {
+            finLigne = chercher(octets, '\n', i, longueur);
+            if (finLigne < 0) {
+                throw new RequeteInvalideException("400 Bad Request", "En-têtes de requête incomplets.");
+            }
+            finTexte = sansCr(i, finLigne);
+            if (finTexte == i) {
+                break; // Ligne vide : fin des en-têtes
+            }
+            if (finTexte - i > TAILLE_MAX_LIGNE) {
+                throw new RequeteInvalideException("431 Request Header Fields Too Large", "En-tête de requête trop long.");
+            }
+            if (nombreEnTetes >= NOMBRE_MAX_EN_TETES) {
+                throw new RequeteInvalideException("431 Request Header Fields Too Large", "Trop d'en-têtes dans la requête.");
+            }
+            // Repli de ligne (obs-fold) et blanc avant ':' sont refusés (RFC 9112, sections 5.1 et 5.2) : un
+            // intermédiaire qui les lirait autrement ne verrait pas les mêmes en-têtes que le serveur
+            if (estBlanc(octets[i])) {
+                throw new RequeteInvalideException("400 Bad Request", "En-tête replié sur plusieurs lignes.");
+            }
+            int deuxPoints = chercher(octets, ':', i, finTexte);
+            if (deuxPoints <= i) {
+                throw new RequeteInvalideException("400 Bad Request", "En-tête de requête invalide.");
+            }
+            if (estBlanc(octets[deuxPoints - 1])) {
+                throw new RequeteInvalideException("400 Bad Request", "Blanc entre le nom d'un en-tête et ':'.");
+            }
+            String nom = nomEnTete(i, deuxPoints);
+            if ("host".equals(nom)) {
+                if (hostVu) {
+                    throw new RequeteInvalideException("400 Bad Request", "En-tête Host répété."); // RFC 9112, section 3.2
+                }
+                hostVu = true;
+            }
+            int debutValeur = deuxPoints + 1;
+            while (debutValeur < finTexte && estBlanc(octets[debutValeur])) {
+                debutValeur++;
+            }
+            int finValeur = finTexte;
+            while (finValeur > debutValeur && estBlanc(octets[finValeur - 1])) {
+                finValeur--;
+            }
+            ajouterEnTete(nom, debutValeur, finValeur);
+            i = finLigne + 1;
+        }
+    }
+
+    private void ajouterEnTete(String nom, int debutValeur, int finValeur) {
+        if (nombreEnTetes == noms.length) {
+            int capacite = noms.length * 2;
+            noms = Arrays.copyOf(noms, capacite);
+            debutsValeurs = Arrays.copyOf(debutsValeurs, capacite);
+            finsValeurs = Arrays.copyOf(finsValeurs, capacite);
+            valeurs = Arrays.copyOf(valeurs, capacite);
+        }
+        noms[nombreEnTetes] = nom;
+        debutsValeurs[nombreEnTetes] = debutValeur;
+        finsValeurs[nombreEnTetes] = finValeur;
+        nombreEnTetes++;
+    }
+
+    private static int chercher(byte[] donnees, char octet, int debut, int fin) {
+        for (int i = debut; i < fin; i++) {
+            if (donnees[i] == octet) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int sansCr(int debut, int finLigne) {
+        return finLigne > debut && octets[finLigne - 1] == '\r' ? finLigne - 1 : finLigne;
+    }
+
+    private static boolean estBlanc(byte octet) {
+        return octet == ' ' || octet == '\t';
+    }
+
+    private static int minuscule(int octet) {
+        return octet >= 'A' && octet <= 'Z' ? octet + ('a' - 'A') : octet;
+    }
+
+    private static int hacher(String nom) {
+        int hachage = 0;
+        for (int i = 0; i < nom.length(); i++) {
+            hachage = 31 * hachage + nom.charAt(i);
+        }
+        return hachage;
+    }
+
+    /**
+     * Chaîne partagée égale à octets[debut, fin) (comparaison exacte : méthodes et versions sont sensibles
+     * à la casse), sinon nouvelle chaîne.
+     */
+    private String interner(String[] connues, int debut, int fin) {
+        for (String connue : connues) {
+            if (egal(connue, debut, fin, false)) {
+                return connue;
+            }
+        }
+        return new String(octets, debut, fin - debut, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Nom d'en-tête en minuscules : chaîne partagée pour les noms courants, trouvée sans allocation.
+     */
+    private String nomEnTete(int debut, int fin) {
+        int hachage = 0;
+        for (int i = debut; i < fin; i++) {
+            hachage = 31 * hachage + minuscule(octets[i]);
+        }
+        for (int i = hachage & (TABLE_NOMS.length - 1); TABLE_NOMS[i] != null; i = (i + 1) & (TABLE_NOMS.length - 1)) {
+            if (egal(TABLE_NOMS[i], debut, fin, true)) {
+                return TABLE_NOMS[i];
+            }
+        }
+        return new String(octets, debut, fin - debut, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+    }
+
+    private boolean egal(String texte, int debut, int fin, boolean sansCasse) {
+        if (texte.length() != fin - debut) {
+            return false;
+        }
+        for (int i = 0; i < texte.length(); i++) {
+            int octet = octets[debut + i] & 0xFF;
+            if ((sansCasse ? minuscule(octet) : octet) != texte.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getMethode() { return methode; }
+
+    public String getChemin() {
+        if (chemin == null) {
+            chemin = new String(octets, debutChemin, finChemin - debutChemin, StandardCharsets.UTF_8);
+        }
+        return chemin;
+    }
+
+    public String getVersion() { return version; }
+
+    private String valeur(int indice) {
+        if (valeurs[indice] == null) {
+            valeurs[indice] = new String(octets, debutsValeurs[indice], finsValeurs[indice] - debutsValeurs[indice], StandardCharsets.UTF_8);
+        }
+        return valeurs[indice];
+    }
+
+    private int indice(String nom) {
+        for (int i = 0; i < nombreEnTetes; i++) {
+            if (noms[i] == nom || noms[i].equals(nom)) { // Noms courants : même chaîne que les constantes des appelants
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param nom Nom de l'en-tête, en minuscules.
+     * @return La valeur de l'en-tête (valeurs d'un en-tête répété jointes par ", "), ou null s'il est absent.
+     */
+    public String getEnTete(String nom) {
+        int premier = indice(nom);
+        if (premier < 0) {
+            return null;
+        }
+        String valeur = valeur(premier);
+        for (int i = premier + 1; i < nombreEnTetes; i++) {
+            if (noms[i].equals(nom)) {
+                valeur = valeur + ", " + valeur(i);
+            }
+        }
+        return valeur;
+    }
+
+    /**
+     * @return Tous les en-têtes (noms en minuscules), en lecture seule. Construits à la demande.
+     */
+    public Map<String, String> getEnTetes() {
+        Map<String, String> enTetes = new LinkedHashMap<>();
+        for (int i = 0; i < nombreEnTetes; i++) {
+            enTetes.merge(noms[i], valeur(i), (ancienne, nouvelle) -> ancienne + ", " + nouvelle);
+        }
+        return Collections.unmodifiableMap(enTetes);
+    }
+
+    /**
+     * Indique si la valeur de l'en-tête contient le mot (en minuscules), sans tenir compte de la casse.
+     * Lu directement dans les octets reçus.
+     */
+    private boolean contient(String nom, String mot) {
+        for (int i = 0; i < nombreEnTetes; i++) {
+            if (noms[i] == nom || noms[i].equals(nom)) {
+                for (int j = debutsValeurs[i]; j + mot.length() <= finsValeurs[i]; j++) {
+                    if (egal(mot, j, j + mot.length(), true)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return La valeur de Content-Length, 0 si absent, ou -1 si invalide (ou répété).
+     */
+    public long getContentLength() {
+        int indice = indice("content-length");
+        if (indice < 0) {
+            return 0;
+        }
+        for (int i = indice + 1; i < nombreEnTetes; i++) {
+            if (noms[i].equals("content-length")) {
+                return -1; // Longueurs multiples : ambiguïté dont profitent les attaques par dissimulation de requête
+            }
+        }
+        int debut = debutsValeurs[indice];
+        int fin = finsValeurs[indice];
+        if (fin == debut || fin - debut > 18) { // 18 chiffres : pas de dépassement d'un long
+            return -1;
+        }
+        long longueur = 0;
+        for (int i = debut; i < fin; i++) {
+            if (octets[i] < '0' || octets[i] > '9') {
+                return -1;
+            }
+            longueur = longueur * 10 + (octets[i] - '0');
+        }
+        return longueur;
+    }
+
+    /**
+     * Indique si le client attend "100 Continue" avant d'envoyer le corps (Expect: 100-continue, HTTP/1.1).
+     */
+    public boolean attendContinue() {
+        int indice = indice("expect");
+        return indice >= 0 && egal("100-continue", debutsValeurs[indice], finsValeurs[indice], true) && "HTTP/1.1".equals(version);
+    }
+
+    /**
+     * @return Le corps reçu, ou null si la requête n'en a pas (ou si son corps a été ignoré).
+     */
+    public CorpsRequete getCorps() { return corps; }
+
+    void setCorps(CorpsRequete corps) { this.corps = corps; }
+
+    /**
+     * Libère le corps (tampon mémoire ou fichier temporaire) une fois la réponse produite.
+     */
+    void fermerCorps() {
+        if (corps != null) {
+            corps.close();
+            corps = null;
+        }
+    }
+
+    /**
+     * Indique si le client souhaite garder la connexion ouverte :
+     * par défaut en HTTP/1.1 (sauf "Connection: close"), seulement sur demande explicite en HTTP/1.0.
+     */
+    public boolean demandeKeepAlive() {
+        if ("HTTP/1.1".equals(version)) {
+            return !contient("connection", "close");
+        }
+        return contient("connection", "keep-alive");
+    }
+}
@@ -0,0 +1,19 @@
+import java.io.IOException;
+
+/**
+ * Levée quand la requête reçue ne peut pas être analysée.
+ * Porte le statut HTTP à renvoyer au client (400, 414, 431...).
+ */
+public class RequeteInvalideException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String status;
+
+    public RequeteInvalideException(String status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public String getStatus() { return status; }
+}
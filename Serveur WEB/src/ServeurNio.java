@@ -0,0 +1,658 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moteur HTTP non bloquant basé sur ServerSocketChannel + Selector.
+ * Un petit nombre fixe de boucles d'événements (une par cœur par défaut) gère toutes les connexions :
+ * une connexion lente ou inactive ne coûte qu'un objet d'état, pas un thread.
+ * Les réponses sont produites par la même logique que le moteur bloquant (WebServeur.traiterRequete).
+ * Les connexions persistantes (keep-alive) sont gérées comme dans le moteur bloquant : délai d'inactivité
+ * et nombre maximal de requêtes par connexion.
+ */
+public class ServeurNio {
+
+    private static final int TAILLE_TAMPON_LECTURE = 8 * 1024;
+
+    private final ServerSocketChannel serverChannel;
+    // Requêtes qui attendent un autre processus ou le disque (voir WebServeur.estHorsBoucle) : hors des boucles
+    // d'événements, sur un exécuteur borné (MaxThreads) ou à threads virtuels ; au-delà, les requêtes attendent leur tour
+    private final ExecutorService executionHorsBoucle;
+    private final BoucleEvenements[] boucles;
+    private int prochaineBoucle = 0; // Répartition en tourniquet, uniquement manipulé par la boucle d'acceptation
+
+    public ServeurNio(int port, int nombreBoucles, ExecutorService executionHorsBoucle) throws IOException {
+        this.executionHorsBoucle = executionHorsBoucle;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.serverChannel.configureBlocking(false);
+        this.boucles = new BoucleEvenements[nombreBoucles];
+        for (int i = 0; i < nombreBoucles; i++) {
+            boucles[i] = new BoucleEvenements(i);
+        }
+    }
+
+    /**
+     * Démarre les boucles d'événements. La boucle 0 accepte aussi les nouvelles connexions
+     * et s'exécute sur le thread appelant, qui ne rend donc pas la main.
+     */
+    public void demarrer() throws IOException {
+        serverChannel.register(boucles[0].selector, SelectionKey.OP_ACCEPT);
+        for (int i = 1; i < boucles.length; i++) {
+            Thread thread = new Thread(boucles[i], "nio-boucle-" + i);
+            thread.start();
+        }
+        Thread.currentThread().setName("nio-boucle-0");
+        boucles[0].run();
+    }
+
+    /**
+     * Accepte toutes les connexions en attente et les confie aux boucles à tour de rôle.
+     */
+    private void accepter() {
+        SocketChannel client;
+        try {
+            while ((client = serverChannel.accept()) != null) {
+                client.configureBlocking(false);
+                BoucleEvenements cible = boucles[prochaineBoucle];
+                prochaineBoucle = (prochaineBoucle + 1) % boucles.length;
+                cible.confier(client);
+            }
+        } catch (IOException e) {
+            WebServeur.logError("Erreur d'acceptation du client (NIO) : " + e.getMessage());
+            System.out.println("Erreur d'acceptation du client (NIO) : " + e.getMessage()); // System.out.println
+        }
+    }
+
+    /**
+     * Une boucle d'événements : un Selector et un thread, qui multiplexe ses connexions.
+     */
+    private final class BoucleEvenements implements Runnable {
+        private final int numero;
+        private final Selector selector;
+        // Connexions acceptées par la boucle 0, à enregistrer dans ce Selector par son propre thread
+        private final Queue<SocketChannel> enAttente = new ConcurrentLinkedQueue<>();
+        // Connexions dont la réponse a été produite par un autre thread, à reprendre par le thread de la boucle
+        private final Queue<Runnable> aReprendre = new ConcurrentLinkedQueue<>();
+
+        BoucleEvenements(int numero) throws IOException {
+            this.numero = numero;
+            this.selector = Selector.open();
+        }
+
+        void confier(SocketChannel client) {
+            enAttente.add(client);
+            if (numero != 0) {
+                selector.wakeup();
+            } else {
+                enregistrerEnAttente(); // Déjà sur le bon thread
+            }
+        }
+
+        void reprendre(Runnable reprise) {
+            aReprendre.add(reprise);
+            selector.wakeup();
+        }
+
+        private void executerReprises() {
+            Runnable reprise;
+            while ((reprise = aReprendre.poll()) != null) {
+                reprise.run();
+            }
+        }
+
+        private void enregistrerEnAttente() {
+            SocketChannel client;
+            while ((client = enAttente.poll()) != null) {
+                try {
+                    Connexion connexion = new Connexion(client, this);
+                    SelectionKey key = client.register(selector, SelectionKey.OP_READ, connexion);
+                    Metriques.connexionOuverte();
+                    ConfigActive config = WebServeur.getConfigActive();
+                    LimiteurIp limiteur = config.getLimiteur();
+                    if (!WebServeur.isIpAllowed(config, connexion.clientAddress)) {
+                        ReponseNio reponse = new ReponseNio();
+                        WebServeur.sendHttpResponse(reponse, "403 Forbidden", "text/plain", "Accès refusé : votre IP est bloquée.\n");
+                        WebServeur.logAccess(connexion.clientIp, "N/A", "N/A", "403 Forbidden");
+                        connexion.preparerEcriture(key, reponse);
+                    } else if (!limiteur.ouvrirConnexion(connexion.clientAddress)) {
+                        ReponseNio reponse = new ReponseNio();
+                        WebServeur.sendTooManyRequests(reponse, 1, "Trop de connexions simultanées depuis votre adresse.\n");
+                        WebServeur.logAccess(connexion.clientIp, "N/A", "N/A", "429 Too Many Requests");
+                        connexion.preparerEcriture(key, reponse);
+                    } else {
+                        connexion.limiteur = limiteur;
+                    }
+                } catch (IOException e) {
+                    WebServeur.logError("Erreur d'enregistrement du client (NIO) : " + e.getMessage());
+                    fermer(client);
+                }
+            }
+        }
+
+        /**
+         * Ferme les connexions restées inactives plus longtemps que le délai keep-alive.
+         */
+        private void fermerInactives() {
+            long maintenant = System.currentTimeMillis();
+            long delaiInactiviteMillis = WebServeur.getConfigActive().getKeepAliveTimeout() * 1000L; // Suit les rechargements
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connexion) {
+                    Connexion connexion = (Connexion) key.attachment();
+                    if (!connexion.enTraitement && maintenant - connexion.derniereActivite > delaiInactiviteMillis) {
+                        connexion.fermer(key);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            long dernierControle = System.currentTimeMillis();
+            while (serverChannel.isOpen()) {
+                try {
+                    selector.select(1000); // Réveil régulier pour contrôler les connexions inactives
+                    enregistrerEnAttente();
+                    executerReprises();
+                    if (System.currentTimeMillis() - dernierControle >= 1000) {
+                        fermerInactives();
+                        dernierControle = System.currentTimeMillis();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accepter();
+                        } else {
+                            Connexion connexion = (Connexion) key.attachment();
+                            try {
+                                if (key.isReadable()) {
+                                    connexion.lire(key);
+                                } else if (key.isWritable()) {
+                                    connexion.ecrire(key);
+                                }
+                            } catch (IOException e) {
+                                // Le client a coupé la connexion : rien d'autre à faire que libérer la clé
+                                connexion.fermer(key);
+                            } catch (RuntimeException e) {
+                                // Erreur imprévue dans le traitement : seule cette connexion est perdue, pas la boucle
+                                WebServeur.logError("Erreur inattendue sur la connexion NIO de " + connexion.clientIp + " : " + e);
+                                connexion.fermer(key);
+                            }
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    WebServeur.logError("Erreur dans la boucle d'événements NIO " + numero + " : " + e.getMessage());
+                    System.out.println("Erreur dans la boucle d'événements NIO " + numero + " : " + e.getMessage()); // System.out.println
+                }
+            }
+        }
+    }
+
+    /**
+     * Machine à états d'une connexion : LECTURE des en-têtes puis du corps éventuel, puis ECRITURE
+     * de la réponse, puis retour en LECTURE si la connexion est persistante, sinon fermeture.
+     * Non statique : accède aux limites keep-alive du serveur.
+     */
+    private final class Connexion {
+        private final SocketChannel channel;
+        private final BoucleEvenements boucle;
+        private final InetAddress clientAddress;
+        private final String clientIp;
+        private ByteBuffer lecture = ByteBuffer.allocate(TAILLE_TAMPON_LECTURE); // Toujours en mode écriture (position = octets reçus)
+        private ArrayDeque<Object> aEnvoyer; // Segments de la réponse en cours : ByteBuffer ou RegionFichier
+        private CorpsRequete corps; // Corps en cours de réception, null entre deux requêtes
+        private final RequeteHttp requete = new RequeteHttp(); // En-têtes analysés, réutilisés d'une requête à l'autre
+        private RequeteHttp requeteEnAttente; // Requête dont le corps est en cours de réception
+        private int enTetesExamines; // Début du tampon déjà examiné sans trouver la fin des en-têtes
+        private ConfigActive configRequete; // Lue une fois les en-têtes analysés : toute la requête suit ces réglages
+        private boolean keepAlive;
+        private int requetesTraitees;
+        private long derniereActivite = System.currentTimeMillis();
+        private boolean enTraitement; // Réponse en cours de production par un traitement externe
+        private LimiteurIp limiteur; // Limiteur où la connexion est comptée : à libérer à la fermeture (null sinon)
+
+        Connexion(SocketChannel channel, BoucleEvenements boucle) throws IOException {
+            this.channel = channel;
+            this.boucle = boucle;
+            this.clientAddress = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+            this.clientIp = clientAddress.getHostAddress();
+        }
+
+        void lire(SelectionKey key) throws IOException {
+            if (!lecture.hasRemaining()) {
+                if (lecture.capacity() >= RequeteHttp.TAILLE_MAX_EN_TETES) {
+                    repondreErreur(key, "431 Request Header Fields Too Large", "En-têtes de requête trop volumineux.\n");
+                    return;
+                }
+                ByteBuffer agrandi = ByteBuffer.allocate(Math.min(lecture.capacity() * 2, RequeteHttp.TAILLE_MAX_EN_TETES));
+                lecture.flip();
+                agrandi.put(lecture);
+                lecture = agrandi;
+            }
+
+            int lus = channel.read(lecture);
+            if (lus < 0) {
+                fermer(key);
+                return;
+            }
+            derniereActivite = System.currentTimeMillis();
+            traiterTampon(key);
+        }
+
+        /**
+         * Traite les octets déjà reçus : en-têtes de la requête suivante s'ils sont complets, puis son corps
+         * au fur et à mesure qu'il arrive. La réponse n'est produite qu'une fois le corps entièrement reçu.
+         */
+        private void traiterTampon(SelectionKey key) throws IOException {
+            if (corps == null) {
+                int finEnTetes = RequeteHttp.chercherFinEnTetes(lecture.array(), 0, enTetesExamines, lecture.position());
+                if (finEnTetes < 0) {
+                    enTetesExamines = lecture.position();
+                    return; // En-têtes incomplets : on attend la suite
+                }
+                enTetesExamines = 0;
+
+                // La requête précédente de la connexion est terminée (réponse envoyée) : son objet est réutilisé
+                RequeteHttp requete = this.requete;
+                try {
+                    requete.analyser(lecture.array(), 0, finEnTetes);
+                } catch (RequeteInvalideException e) {
+                    repondreErreur(key, e.getStatus(), "Requête invalide.\n");
+                    WebServeur.logAccess(clientIp, "N/A", "N/A", e.getStatus());
+                    return;
+                }
+                retirerDebut(finEnTetes);
+
+                System.out.println("Requête reçue : " + requete.getMethode() + " " + requete.getChemin() + " " + requete.getVersion() + " de " + clientIp);
+                requetesTraitees++;
+
+                configRequete = WebServeur.getConfigActive();
+
+                // Refusée avant la lecture du corps : la connexion est fermée, le corps n'a pas à être lu
+                ReponseNio refus = new ReponseNio();
+                if (WebServeur.limiterDebit(refus, configRequete, clientAddress, clientIp, requete)) {
+                    preparerEcriture(key, refus);
+                    return;
+                }
+                try {
+                    corps = CorpsRequete.preparer(requete, configRequete);
+                } catch (RequeteInvalideException e) {
+                    refuserCorps(key, requete, e);
+                    return;
+                }
+                if (corps == null) {
+                    repondre(key, requete);
+                    return;
+                }
+                requeteEnAttente = requete;
+                if (requete.attendContinue()) {
+                    // Entre deux réponses le tampon d'émission du socket est vide : ces quelques octets partent d'un coup
+                    channel.write(ByteBuffer.wrap(WebServeur.REPONSE_CONTINUE));
+                }
+            }
+
+            // Corps en cours de réception : on consomme ce qui est arrivé, sans toucher à une éventuelle requête suivante
+            int consommes;
+            try {
+                consommes = corps.consommer(lecture.array(), 0, lecture.position());
+            } catch (RequeteInvalideException e) {
+                refuserCorps(key, requeteEnAttente, e);
+                return;
+            }
+            retirerDebut(consommes);
+            if (!corps.isComplet()) {
+                return; // Le reste du corps n'est pas encore arrivé
+            }
+            RequeteHttp requete = requeteEnAttente;
+            if (corps.isConserve()) {
+                requete.setCorps(corps); // Libéré par traiterRequete une fois la réponse produite
+            } else {
+                corps.close();
+            }
+            corps = null;
+            requeteEnAttente = null;
+            repondre(key, requete);
+        }
+
+        private void repondre(SelectionKey key, RequeteHttp requete) throws IOException {
+            ConfigActive config = configRequete;
+            ReponseNio reponse = new ReponseNio();
+            reponse.setKeepAlive(requete.demandeKeepAlive() && requetesTraitees < config.getMaxKeepAliveRequests());
+
+            if ("GET".equalsIgnoreCase(requete.getMethode()) && FluxInfo.estFlux(requete.getChemin())) {
+                detacher(key, config, requete);
+                return;
+            }
+            if (WebServeur.estHorsBoucle(config, requete)) {
+                traiterHorsBoucle(key, config, requete, reponse);
+                return;
+            }
+
+            produire(reponse, config, requete);
+            preparerEcriture(key, reponse);
+        }
+
+        private void produire(ReponseNio reponse, ConfigActive config, RequeteHttp requete) throws IOException {
+            try {
+                WebServeur.traiterRequete(reponse, config, clientAddress, clientIp, requete);
+            } catch (IOException e) {
+                WebServeur.logError("Erreur lors du traitement de la requête de " + clientIp + " : " + e.getMessage());
+                System.out.println("Erreur lors du traitement de la requête de " + clientIp + " : " + e.getMessage()); // System.out.println
+                reponse.reinitialiser();
+                reponse.setKeepAlive(false);
+                WebServeur.sendHttpResponse(reponse, "500 Internal Server Error", "text/plain", "Erreur interne du serveur.\n");
+            }
+        }
+
+        /**
+         * La réponse d'un traitement externe ou d'un formulaire attend un autre processus ou le disque : elle est produite
+         * par un thread à part pendant que la boucle continue de servir ses autres connexions, qui la reprend ensuite
+         * pour l'envoyer.
+         */
+        private void traiterHorsBoucle(SelectionKey key, ConfigActive config, RequeteHttp requete, ReponseNio reponse) {
+            key.interestOps(0); // Rien à lire tant que la réponse n'est pas prête ; une requête suivante attend dans le socket
+            enTraitement = true;
+            executionHorsBoucle.execute(() -> {
+                try {
+                    produire(reponse, config, requete);
+                } catch (IOException e) {
+                    reponse.reinitialiser();
+                    reponse.setKeepAlive(false);
+                } catch (RuntimeException e) {
+                    WebServeur.logError("Erreur inattendue lors du traitement de la requête de " + clientIp + " : " + e);
+                    reponse.reinitialiser();
+                    reponse.setKeepAlive(false);
+                    try {
+                        WebServeur.sendHttpResponse(reponse, "500 Internal Server Error", "text/plain", "Erreur interne du serveur.\n");
+                    } catch (IOException | RuntimeException ignoree) {
+                        reponse.reinitialiser(); // Réponse vide : la connexion sera simplement fermée
+                    }
+                } finally {
+                    // Toujours rendue à la boucle : sinon la connexion resterait en traitement, jamais fermée
+                    boucle.reprendre(() -> {
+                        enTraitement = false;
+                        derniereActivite = System.currentTimeMillis();
+                        try {
+                            if (key.isValid()) {
+                                preparerEcriture(key, reponse);
+                            } else {
+                                ReponseNio.fermerRegions(reponse.terminer());
+                            }
+                        } catch (IOException e) {
+                            fermer(key); // Client parti pendant le traitement
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Corps refusé (invalide ou trop volumineux) : réponse d'erreur puis fermeture, le reste du corps n'est pas lu.
+         */
+        private void refuserCorps(SelectionKey key, RequeteHttp requete, RequeteInvalideException e) throws IOException {
+            if (corps != null) {
+                corps.close();
+                corps = null;
+            }
+            requeteEnAttente = null;
+            repondreErreur(key, e.getStatus(), e.getMessage() + "\n");
+            WebServeur.logAccess(clientIp, requete.getMethode(), requete.getChemin(), e.getStatus());
+        }
+
+        /**
+         * Sort la connexion de la boucle d'événements pour un flux SSE : la réponse ne se termine jamais,
+         * elle est donc écrite par un thread dédié, qui ferme la connexion à la fin du flux.
+         */
+        private void detacher(SelectionKey key, ConfigActive config, RequeteHttp requete) {
+            key.cancel(); // La boucle ne surveille plus ce canal (la connexion reste comptée comme active)
+            Thread thread = new Thread(() -> {
+                try {
+                    SortieHttp out = new SortieHttp(new SortieCanal(channel));
+                    out.setKeepAlive(false);
+                    WebServeur.traiterRequete(out, config, clientAddress, clientIp, requete);
+                    out.flush();
+                } catch (IOException e) {
+                    // Client déconnecté
+                } finally {
+                    ServeurNio.fermer(channel);
+                    libererConnexion();
+                    Metriques.connexionFermee();
+                }
+            }, "flux-info-" + clientIp);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void preparerEcriture(SelectionKey key, ReponseNio reponse) throws IOException {
+            aEnvoyer = reponse.terminer();
+            keepAlive = reponse.isKeepAlive();
+            key.interestOps(SelectionKey.OP_WRITE);
+            ecrire(key); // La plupart du temps la réponse part en une seule écriture
+        }
+
+        void ecrire(SelectionKey key) throws IOException {
+            derniereActivite = System.currentTimeMillis();
+            while (!aEnvoyer.isEmpty()) {
+                Object segment = aEnvoyer.peek();
+                if (segment instanceof ByteBuffer) {
+                    ByteBuffer octets = (ByteBuffer) segment;
+                    channel.write(octets);
+                    if (octets.hasRemaining()) {
+                        return; // Le client lit lentement : on attend le prochain OP_WRITE
+                    }
+                } else if (!((RegionFichier) segment).transferer(channel)) {
+                    return; // Tampon d'émission du socket plein : on reprendra au prochain OP_WRITE
+                }
+                aEnvoyer.poll();
+            }
+            aEnvoyer = null;
+            if (!keepAlive) {
+                fermer(key); // Réponse envoyée, Connection: close
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            traiterTampon(key); // Une requête suivante a pu arriver pendant l'écriture (pipelining)
+        }
+
+        private void repondreErreur(SelectionKey key, String status, String message) throws IOException {
+            ReponseNio reponse = new ReponseNio();
+            WebServeur.sendHttpResponse(reponse, status, "text/plain", message);
+            preparerEcriture(key, reponse);
+        }
+
+        /**
+         * Retire les n premiers octets du tampon de lecture en conservant les suivants.
+         */
+        private void retirerDebut(int n) {
+            lecture.flip();
+            lecture.position(n);
+            lecture.compact();
+        }
+
+        private void libererConnexion() {
+            if (limiteur != null) {
+                limiteur.fermerConnexion(clientAddress); // Le limiteur de la réservation, même s'il a été remplacé depuis
+                limiteur = null;
+            }
+        }
+
+        void fermer(SelectionKey key) {
+            if (key.isValid()) {
+                libererConnexion();
+                Metriques.connexionFermee();
+            }
+            key.cancel();
+            if (corps != null) {
+                corps.close(); // Client parti au milieu de l'envoi du corps
+                corps = null;
+            }
+            if (aEnvoyer != null) {
+                ReponseNio.fermerRegions(aEnvoyer);
+                aEnvoyer = null;
+            }
+            ServeurNio.fermer(channel);
+        }
+    }
+
+    /**
+     * Réponse construite en mémoire pour le moteur NIO. Les en-têtes et petits corps sont accumulés
+     * dans un tampon ; les fichiers ne sont pas lus mais enregistrés comme régions, envoyées plus tard
+     * par transferTo non bloquant au rythme du client.
+     */
+    private static final class ReponseNio extends SortieHttp {
+        private final ByteArrayOutputStream tampon;
+        private final ArrayDeque<Object> segments = new ArrayDeque<>();
+
+        ReponseNio() {
+            this(new ByteArrayOutputStream());
+        }
+
+        private ReponseNio(ByteArrayOutputStream tampon) {
+            super(tampon);
+            this.tampon = tampon;
+        }
+
+        @Override
+        public void envoyerFichier(Path fichier, long position, long longueur) {
+            compterOctets(longueur);
+            cloreTampon();
+            segments.add(new RegionFichier(fichier, position, longueur));
+        }
+
+        private void cloreTampon() {
+            if (tampon.size() > 0) {
+                segments.add(ByteBuffer.wrap(tampon.toByteArray()));
+                tampon.reset();
+            }
+        }
+
+        /**
+         * Abandonne tout ce qui a été écrit (pour remplacer la réponse par une erreur 500).
+         */
+        void reinitialiser() {
+            tampon.reset();
+            fermerRegions(segments);
+            segments.clear();
+        }
+
+        ArrayDeque<Object> terminer() {
+            cloreTampon();
+            return segments;
+        }
+
+        static void fermerRegions(ArrayDeque<Object> segments) {
+            for (Object segment : segments) {
+                if (segment instanceof RegionFichier) {
+                    ((RegionFichier) segment).fermer();
+                }
+            }
+        }
+    }
+
+    /**
+     * Portion de fichier restant à envoyer. Le fichier n'est ouvert qu'au moment de l'envoi.
+     */
+    private static final class RegionFichier {
+        private final Path fichier;
+        private long position;
+        private long restant;
+        private FileChannel source;
+
+        RegionFichier(Path fichier, long position, long longueur) {
+            this.fichier = fichier;
+            this.position = position;
+            this.restant = longueur;
+        }
+
+        /**
+         * Envoie autant que le socket accepte sans bloquer.
+         * @return true quand toute la région est envoyée.
+         */
+        boolean transferer(SocketChannel destination) throws IOException {
+            if (source == null) {
+                source = FileChannel.open(fichier, StandardOpenOption.READ);
+            }
+            while (restant > 0) {
+                long n = source.transferTo(position, restant, destination);
+                if (n <= 0) {
+                    if (position >= source.size()) {
+                        throw new IOException("Fichier tronqué pendant l'envoi : " + fichier);
+                    }
+                    return false;
+                }
+                position += n;
+                restant -= n;
+            }
+            fermer();
+            return true;
+        }
+
+        void fermer() {
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    WebServeur.logError("Erreur à la fermeture du fichier " + fichier + " : " + e.getMessage());
+                }
+                source = null;
+            }
+        }
+    }
+
+    /**
+     * Flux d'écriture sur un canal resté non bloquant, utilisé hors de la boucle d'événements :
+     * attend brièvement quand le tampon d'émission du socket est plein.
+     */
+    private static final class SortieCanal extends OutputStream {
+        private final SocketChannel channel;
+
+        SortieCanal(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer octets = ByteBuffer.wrap(b, off, len);
+            while (octets.hasRemaining()) {
+                if (channel.write(octets) == 0) {
+                    LockSupport.parkNanos(1_000_000);
+                }
+            }
+        }
+    }
+
+    private static void fermer(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Erreur à la fermeture du canal client : " + e.getMessage()); // System.out.println
+            WebServeur.logError("Erreur à la fermeture du canal client : " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Flux de sortie d'une réponse HTTP.
+ * Porte l'état de la connexion (keep-alive ou non) et de la requête courante (gzip accepté ou non)
+ * pour que chaque méthode qui écrit des en-têtes s'y adapte sans qu'on ait à le passer en paramètre partout.
+ * Permet aussi d'envoyer le contenu d'un fichier sans le charger en mémoire (voir envoyerFichier).
+ */
+public class SortieHttp extends FilterOutputStream {
+
+    private static final int TAILLE_TAMPON_COPIE = 64 * 1024; // Mémoire utilisée par le repli sans transferTo
+    private static final byte[] LIGNE_KEEP_ALIVE = "Connection: keep-alive\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LIGNE_CLOSE = "Connection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final WritableByteChannel canal; // Canal du socket, null si indisponible
+    private boolean keepAlive;
+    private boolean gzipAccepte;
+    private int gzipTailleMin;
+    private long octetsEcrits; // Pour les métriques : lu par le thread qui écrit la réponse
+
+    public SortieHttp(OutputStream out) {
+        this(out, null);
+    }
+
+    /**
+     * @param out   Flux (éventuellement tamponné) vers le client.
+     * @param canal Canal sous-jacent au même socket, utilisé pour la copie zéro (peut être null).
+     */
+    public SortieHttp(OutputStream out, WritableByteChannel canal) {
+        super(out);
+        this.canal = canal;
+    }
+
+    public boolean isKeepAlive() { return keepAlive; }
+
+    public void setKeepAlive(boolean keepAlive) { this.keepAlive = keepAlive; }
+
+    /**
+     * Indique si la réponse courante peut être compressée en gzip (client compatible et compression activée).
+     */
+    public boolean isGzipAccepte() { return gzipAccepte; }
+
+    /**
+     * Taille minimale d'un corps pour être compressé, selon la configuration vue au début de la requête courante.
+     */
+    public int getGzipTailleMin() { return gzipTailleMin; }
+
+    public void setGzip(boolean gzipAccepte, int gzipTailleMin) {
+        this.gzipAccepte = gzipAccepte;
+        this.gzipTailleMin = gzipTailleMin;
+    }
+
+    /**
+     * Valeur de l'en-tête Connection à envoyer avec la réponse courante.
+     */
+    public String enTeteConnexion() {
+        return keepAlive ? "keep-alive" : "close";
+    }
+
+    /**
+     * En-tête Connection suivi de la ligne vide qui termine les en-têtes, déjà encodé.
+     */
+    public byte[] ligneConnexion() {
+        return keepAlive ? LIGNE_KEEP_ALIVE : LIGNE_CLOSE;
+    }
+
+    /**
+     * Nombre d'octets écrits (en-têtes et corps, fichiers compris) depuis la création du flux.
+     */
+    public long getOctetsEcrits() { return octetsEcrits; }
+
+    protected void compterOctets(long n) {
+        octetsEcrits += n;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        octetsEcrits++;
+    }
+
+    // FilterOutputStream écrit octet par octet par défaut : on délègue directement le tableau
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        octetsEcrits += len;
+    }
+
+    /**
+     * Envoie longueur octets du fichier à partir de position, à la suite de ce qui a déjà été écrit.
+     * Avec un canal de socket, FileChannel.transferTo laisse le noyau copier directement le fichier vers
+     * le socket (sendfile) ; sinon, copie par un tampon de taille fixe. Dans les deux cas la mémoire utilisée
+     * ne dépend pas de la taille du fichier.
+     */
+    public void envoyerFichier(Path fichier, long position, long longueur) throws IOException {
+        compterOctets(longueur);
+        try (FileChannel source = FileChannel.open(fichier, StandardOpenOption.READ)) {
+            if (canal != null) {
+                flush(); // Les en-têtes tamponnés doivent partir avant le corps
+                long envoyes = 0;
+                while (envoyes < longueur) {
+                    long n = source.transferTo(position + envoyes, longueur - envoyes, canal);
+                    if (n <= 0 && position + envoyes >= source.size()) {
+                        throw new IOException("Fichier tronqué pendant l'envoi : " + fichier);
+                    }
+                    envoyes += n;
+                }
+            } else {
+                ByteBuffer tampon = ByteBuffer.allocate((int) Math.min(TAILLE_TAMPON_COPIE, Math.max(longueur, 1)));
+                long restant = longueur;
+                source.position(position);
+                while (restant > 0) {
+                    tampon.clear();
+                    if (restant < tampon.capacity()) {
+                        tampon.limit((int) restant);
+                    }
+                    int lus = source.read(tampon);
+                    if (lus < 0) {
+                        throw new IOException("Fichier tronqué pendant l'envoi : " + fichier);
+                    }
+                    out.write(tampon.array(), 0, lus);
+                    restant -= lus;
+                }
+            }
+        }
+    }
+}
@@ -1,27 +1,221 @@
 // SystemInfo.java
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.lang.management.OperatingSystemMXBean;
 import java.lang.management.RuntimeMXBean;
+import java.lang.management.ThreadMXBean;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 // Supprimer l'importation suivante car elle est spécifique à Sun et non portable
 // import com.sun.management.OperatingSystemMXBean;
 
+/**
+ * Pages /info.html et /info.json. Les informations fixes (hôte, IP, OS, JVM, cœurs) sont calculées une seule fois ;
+ * les valeurs variables sont échantillonnées à intervalle régulier par un thread de fond dans un instantané immuable,
+ * dont les octets (HTML et JSON, bruts et gzip) sont réutilisés tels quels par toutes les requêtes jusqu'à
+ * l'échantillon suivant. Une requête ne fait donc ni résolution DNS, ni appel MXBean, ni génération de page.
+ */
 public class SystemInfo {
 
     private static final long MEGABYTE = 1024L * 1024L;
+    private static final DateTimeFormatter FORMAT_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final RuntimeMXBean RUNTIME_BEAN = ManagementFactory.getRuntimeMXBean();
+    private static final OperatingSystemMXBean OS_BEAN = ManagementFactory.getOperatingSystemMXBean();
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+    private static final List<GarbageCollectorMXBean> GC_BEANS = ManagementFactory.getGarbageCollectorMXBeans();
+    private static final List<MemoryPoolMXBean> POOL_BEANS = ManagementFactory.getMemoryPoolMXBeans();
+
+    /**
+     * Pages pré-encodées d'un même échantillon, remplacées en bloc à chaque rafraîchissement.
+     */
+    public static final class Instantane {
+        private final long numero;
+        private final String html;
+        private final byte[] corps;
+        private final byte[] corpsGzip; // null si la compression a échoué
+        private final byte[] json;
+        private final byte[] jsonGzip;
+
+        Instantane(long numero, String html, String json) {
+            this.numero = numero;
+            this.html = html;
+            this.corps = html.getBytes(StandardCharsets.UTF_8);
+            this.corpsGzip = compresser(corps);
+            this.json = json.getBytes(StandardCharsets.UTF_8);
+            this.jsonGzip = compresser(this.json);
+        }
+
+        private static byte[] compresser(byte[] octets) {
+            try {
+                return Compression.gzip(octets);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Numéro de l'échantillon, croissant : permet au flux SSE de n'envoyer que les nouveaux échantillons.
+         */
+        public long getNumero() { return numero; }
+
+        public String getHtml() { return html; }
+
+        public byte[] getCorps() { return corps; }
+
+        public byte[] getCorpsGzip() { return corpsGzip; }
+
+        /**
+         * Échantillon au format JSON, sur une seule ligne (utilisable tel quel comme donnée d'un événement SSE).
+         */
+        public byte[] getJson() { return json; }
+
+        public byte[] getJsonGzip() { return jsonGzip; }
+    }
+
+    /**
+     * Informations qui ne changent pas pendant la vie du processus, déjà mises en forme pour les deux pages.
+     */
+    private static final class InfosFixes {
+        final String lignesHtml;
+        final String champsJson;
+
+        InfosFixes() {
+            InetAddress hote = getLocalHost(); // Une seule résolution pour le nom et l'adresse
+            String nomHote = hote != null ? hote.getHostName() : "Inconnu";
+            String adresse = hote != null ? hote.getHostAddress() : "Inconnu";
+            String os = System.getProperty("os.name") + " (" + System.getProperty("os.arch") + ") version " + System.getProperty("os.version");
+            String jvm = System.getProperty("java.version") + " (" + System.getProperty("java.vendor") + ")";
+            int coeurs = OS_BEAN.getAvailableProcessors();
+
+            StringBuilder html = new StringBuilder();
+            // Informations Générales
+            html.append("<tr><td>Nom d'hôte</td><td>").append(nomHote).append("</td></tr>\n");
+            html.append("<tr><td>Adresse IP locale</td><td>").append(adresse).append("</td></tr>\n");
+            html.append("<tr><td>Système d'exploitation</td><td>").append(os).append("</td></tr>\n");
+            html.append("<tr><td>Version JVM</td><td>").append(jvm).append("</td></tr>\n");
+            html.append("<tr><td>Chemin JVM Home</td><td>").append(getJvmHome()).append("</td></tr>\n");
+            html.append("<tr><td>Utilisateur Courant</td><td>").append(System.getProperty("user.name")).append("</td></tr>\n");
+            html.append("<tr><td>Répertoire de Travail</td><td>").append(System.getProperty("user.dir")).append("</td></tr>\n");
+            html.append("<tr><td>Démarrage du Serveur</td><td>").append(getProcessStartTime()).append("</td></tr>\n");
+            html.append("<tr><td>Nombre de cœurs de processeur</td><td>").append(coeurs).append("</td></tr>\n");
+            this.lignesHtml = html.toString();
+
+            StringBuilder json = new StringBuilder();
+            json.append("\"hostname\":").append(texteJson(nomHote));
+            json.append(",\"ip\":").append(texteJson(adresse));
+            json.append(",\"os\":").append(texteJson(os));
+            json.append(",\"jvm\":").append(texteJson(jvm));
+            json.append(",\"startTime\":").append(RUNTIME_BEAN.getStartTime());
+            json.append(",\"cores\":").append(coeurs);
+            this.champsJson = json.toString();
+        }
+    }
+
+    /**
+     * Valeurs variables relevées en une fois, puis mises en forme en HTML et en JSON.
+     */
+    private static final class Echantillon {
+        final String date = LocalDateTime.now().format(FORMAT_DATE);
+        final long uptimeMillis = RUNTIME_BEAN.getUptime();
+        final double chargeMoyenne = OS_BEAN.getSystemLoadAverage();
+        final long memoireMax;
+        final long memoireAllouee;
+        final long memoireLibre;
+        final int threadsActifs = THREAD_BEAN.getThreadCount();
+        final int threadsDemons = THREAD_BEAN.getDaemonThreadCount();
+        final int threadsPic = THREAD_BEAN.getPeakThreadCount();
+        // Temps CPU du processus : API standard (ProcessHandle), -1 si la plateforme ne le fournit pas
+        final long cpuProcessusMillis = ProcessHandle.current().info().totalCpuDuration().map(Duration::toMillis).orElse(-1L);
+        final List<String[]> ramasseMiettes = new ArrayList<>(); // nom, nombre de collectes, temps cumulé (ms)
+        final List<Object[]> poolsTas = new ArrayList<>(); // nom, MemoryUsage
+        final CacheFichiers cache = WebServeur.getCacheFichiers();
+
+        Echantillon() {
+            Runtime runtime = Runtime.getRuntime();
+            memoireMax = runtime.maxMemory();
+            memoireAllouee = runtime.totalMemory();
+            memoireLibre = runtime.freeMemory();
+            for (GarbageCollectorMXBean gc : GC_BEANS) {
+                ramasseMiettes.add(new String[] {gc.getName(), Long.toString(gc.getCollectionCount()), Long.toString(gc.getCollectionTime())});
+            }
+            for (MemoryPoolMXBean pool : POOL_BEANS) {
+                if (pool.isValid() && pool.getType() == MemoryType.HEAP) {
+                    poolsTas.add(new Object[] {pool.getName(), pool.getUsage()});
+                }
+            }
+        }
+    }
+
+    private static volatile InfosFixes infosFixes;
+    private static volatile Instantane instantane;
+    private static long numeroEchantillon; // Incrémenté par le seul thread d'échantillonnage
+
+    /**
+     * Calcule les informations fixes et le premier instantané (sur le thread appelant, au démarrage du serveur),
+     * puis les rafraîchit toutes les intervalleMs millisecondes sur un thread de fond.
+     */
+    public static synchronized void demarrer(long intervalleMs) {
+        if (instantane != null) {
+            return;
+        }
+        rafraichir();
+        ScheduledExecutorService planificateur = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "echantillonnage-info");
+            thread.setDaemon(true);
+            return thread;
+        });
+        planificateur.scheduleWithFixedDelay(SystemInfo::rafraichir, intervalleMs, intervalleMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Dernier instantané. Si l'échantillonnage n'a pas été démarré, les pages sont générées à la demande.
+     */
+    public static Instantane getInstantane() {
+        Instantane courant = instantane;
+        return courant != null ? courant : creerInstantane(0);
+    }
 
     /**
      * Génère une page HTML avec les informations système.
      * @return Une chaîne de caractères contenant le code HTML de la page d'informations système.
      */
     public static String getSystemInfoHtml() {
+        return getInstantane().getHtml();
+    }
+
+    private static synchronized void rafraichir() {
+        try {
+            instantane = creerInstantane(++numeroEchantillon);
+        } catch (RuntimeException e) {
+            // Le planificateur abandonne la tâche si elle lève une exception : on garde l'instantané précédent
+            WebServeur.logError("Erreur d'échantillonnage des informations système : " + e.getMessage());
+        }
+    }
+
+    private static Instantane creerInstantane(long numero) {
+        InfosFixes fixes = getInfosFixes();
+        Echantillon echantillon = new Echantillon();
+        return new Instantane(numero, genererHtml(fixes, echantillon), genererJson(fixes, echantillon));
+    }
+
+    private static String genererHtml(InfosFixes fixes, Echantillon echantillon) {
         StringBuilder html = new StringBuilder();
         html.append("<!DOCTYPE html>\n");
         html.append("<html><head><title>Informations Système</title>");
@@ -36,30 +230,24 @@ public class SystemInfo {
         html.append("<h1>Informations Système du Serveur Web</h1>\n");
         html.append("<table>\n");
 
-        // Informations Générales
         html.append("<tr><th>Propriété</th><th>Valeur</th></tr>\n");
-        html.append("<tr><td>Nom d'hôte</td><td>").append(getHostName()).append("</td></tr>\n");
-        html.append("<tr><td>Adresse IP locale</td><td>").append(getLocalIpAddress()).append("</td></tr>\n");
-        html.append("<tr><td>Système d'exploitation</td><td>").append(System.getProperty("os.name")).append(" (").append(System.getProperty("os.arch")).append(") version ").append(System.getProperty("os.version")).append("</td></tr>\n");
-        html.append("<tr><td>Version JVM</td><td>").append(System.getProperty("java.version")).append(" (").append(System.getProperty("java.vendor")).append(")</td></tr>\n");
-        html.append("<tr><td>Chemin JVM Home</td><td>").append(getJvmHome()).append("</td></tr>\n");
-        html.append("<tr><td>Utilisateur Courant</td><td>").append(System.getProperty("user.name")).append("</td></tr>\n");
-        html.append("<tr><td>Répertoire de Travail</td><td>").append(System.getProperty("user.dir")).append("</td></tr>\n");
+        html.append(fixes.lignesHtml);
 
         // Uptime du serveur
-        html.append("<tr><td>Démarrage du Serveur</td><td>").append(getProcessStartTime()).append("</td></tr>\n");
-        html.append("<tr><td>Temps de Fonctionnement (Uptime)</td><td>").append(getProcessUptime()).append("</td></tr>\n");
+        html.append("<tr><td>Temps de Fonctionnement (Uptime)</td><td>").append(formaterDuree(echantillon.uptimeMillis)).append("</td></tr>\n");
 
         // Informations sur le processeur
-        OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
-        html.append("<tr><td>Nombre de cœurs de processeur</td><td>").append(osBean.getAvailableProcessors()).append("</td></tr>\n");
-        html.append("<tr><td>Charge Système Moyenne (1 min)</td><td>").append(getSystemLoadAverage()).append("</td></tr>\n");
+        html.append("<tr><td>Charge Système Moyenne (1 min)</td><td>").append(formaterCharge(echantillon.chargeMoyenne)).append("</td></tr>\n");
+        html.append("<tr><td>Temps CPU du processus</td><td>").append(echantillon.cpuProcessusMillis >= 0 ? echantillon.cpuProcessusMillis + " ms" : "Non supporté").append("</td></tr>\n");
 
         // Informations sur la mémoire
-        Runtime runtime = Runtime.getRuntime();
-        html.append("<tr><td>Mémoire JVM Totale (Max)</td><td>").append(toMegaBytes(runtime.maxMemory())).append(" MB</td></tr>\n");
-        html.append("<tr><td>Mémoire JVM Allouée</td><td>").append(toMegaBytes(runtime.totalMemory())).append(" MB</td></tr>\n");
-        html.append("<tr><td>Mémoire JVM Libre</td><td>").append(toMegaBytes(runtime.freeMemory())).append(" MB</td></tr>\n");
+        html.append("<tr><td>Mémoire JVM Totale (Max)</td><td>").append(toMegaBytes(echantillon.memoireMax)).append(" MB</td></tr>\n");
+        html.append("<tr><td>Mémoire JVM Allouée</td><td>").append(toMegaBytes(echantillon.memoireAllouee)).append(" MB</td></tr>\n");
+        html.append("<tr><td>Mémoire JVM Libre</td><td>").append(toMegaBytes(echantillon.memoireLibre)).append(" MB</td></tr>\n");
+        for (Object[] pool : echantillon.poolsTas) {
+            MemoryUsage usage = (MemoryUsage) pool[1];
+            html.append("<tr><td>Pool ").append(pool[0]).append(" (utilisé / réservé)</td><td>").append(toMegaBytes(usage.getUsed())).append(" MB / ").append(toMegaBytes(usage.getCommitted())).append(" MB</td></tr>\n");
+        }
 
         // Mémoire physique (Note: nécessite com.sun.management.OperatingSystemMXBean pour des infos détaillées sur la mémoire physique,
         // qui n'est pas portable. Les méthodes standards sont limitées.)
@@ -68,38 +256,113 @@ public class SystemInfo {
         html.append("<tr><td>Mémoire Physique Totale</td><td>Non disponible (API non portable)</td></tr>\n");
         html.append("<tr><td>Mémoire Physique Libre</td><td>Non disponible (API non portable)</td></tr>\n");
 
+        // Ramasse-miettes et threads
+        for (String[] gc : echantillon.ramasseMiettes) {
+            html.append("<tr><td>GC ").append(gc[0]).append(" (collectes / temps)</td><td>").append(gc[1]).append(" / ").append(gc[2]).append(" ms</td></tr>\n");
+        }
+        html.append("<tr><td>Threads (actifs / démons / pic)</td><td>").append(echantillon.threadsActifs).append(" / ").append(echantillon.threadsDemons).append(" / ").append(echantillon.threadsPic).append("</td></tr>\n");
 
+        // Cache de fichiers du serveur
+        CacheFichiers cache = echantillon.cache;
+        if (cache != null && cache.isActif()) {
+            html.append("<tr><td>Cache de fichiers (utilisé / budget)</td><td>").append(cache.getOctetsUtilises() / 1024).append(" Ko / ").append(cache.getBudgetOctets() / 1024).append(" Ko, ").append(cache.getNombreEntrees()).append(" fichiers</td></tr>\n");
+            html.append("<tr><td>Cache de fichiers (succès / échecs / évictions)</td><td>").append(cache.getSucces()).append(" / ").append(cache.getEchecs()).append(" / ").append(cache.getEvictions()).append("</td></tr>\n");
+        }
+
+
+        html.append("<tr><td>Échantillonné à</td><td>").append(echantillon.date).append("</td></tr>\n");
         html.append("</table>\n");
         html.append("</body></html>");
         return html.toString();
     }
 
-    private static String getHostName() {
-        try {
-            return InetAddress.getLocalHost().getHostName();
-        } catch (UnknownHostException e) {
-            return "Inconnu";
+    /**
+     * Même échantillon en JSON compact : octets et millisecondes bruts, pour les tableaux de bord.
+     */
+    private static String genererJson(InfosFixes fixes, Echantillon echantillon) {
+        StringBuilder json = new StringBuilder(1024);
+        json.append('{').append(fixes.champsJson);
+        json.append(",\"sampledAt\":").append(texteJson(echantillon.date));
+        json.append(",\"uptimeMs\":").append(echantillon.uptimeMillis);
+        json.append(",\"loadAverage\":").append(echantillon.chargeMoyenne >= 0 ? Double.toString(echantillon.chargeMoyenne) : "null");
+        json.append(",\"processCpuMs\":").append(echantillon.cpuProcessusMillis >= 0 ? Long.toString(echantillon.cpuProcessusMillis) : "null");
+        json.append(",\"memory\":{\"max\":").append(echantillon.memoireMax)
+                .append(",\"total\":").append(echantillon.memoireAllouee)
+                .append(",\"free\":").append(echantillon.memoireLibre).append('}');
+        json.append(",\"heapPools\":[");
+        for (int i = 0; i < echantillon.poolsTas.size(); i++) {
+            Object[] pool = echantillon.poolsTas.get(i);
+            MemoryUsage usage = (MemoryUsage) pool[1];
+            json.append(i > 0 ? "," : "").append("{\"name\":").append(texteJson((String) pool[0]))
+                    .append(",\"used\":").append(usage.getUsed())
+                    .append(",\"committed\":").append(usage.getCommitted())
+                    .append(",\"max\":").append(usage.getMax()).append('}');
+        }
+        json.append("],\"gc\":[");
+        for (int i = 0; i < echantillon.ramasseMiettes.size(); i++) {
+            String[] gc = echantillon.ramasseMiettes.get(i);
+            json.append(i > 0 ? "," : "").append("{\"name\":").append(texteJson(gc[0]))
+                    .append(",\"count\":").append(gc[1])
+                    .append(",\"timeMs\":").append(gc[2]).append('}');
+        }
+        json.append("],\"threads\":{\"live\":").append(echantillon.threadsActifs)
+                .append(",\"daemon\":").append(echantillon.threadsDemons)
+                .append(",\"peak\":").append(echantillon.threadsPic).append('}');
+        CacheFichiers cache = echantillon.cache;
+        if (cache != null && cache.isActif()) {
+            json.append(",\"fileCache\":{\"bytes\":").append(cache.getOctetsUtilises())
+                    .append(",\"budget\":").append(cache.getBudgetOctets())
+                    .append(",\"entries\":").append(cache.getNombreEntrees())
+                    .append(",\"hits\":").append(cache.getSucces())
+                    .append(",\"misses\":").append(cache.getEchecs())
+                    .append(",\"evictions\":").append(cache.getEvictions()).append('}');
+        }
+        json.append('}');
+        return json.toString();
+    }
+
+    /**
+     * Chaîne JSON entre guillemets, caractères spéciaux échappés.
+     */
+    private static String texteJson(String valeur) {
+        StringBuilder texte = new StringBuilder(valeur.length() + 2).append('"');
+        for (int i = 0; i < valeur.length(); i++) {
+            char c = valeur.charAt(i);
+            if (c == '"' || c == '\\') {
+                texte.append('\\').append(c);
+            } else if (c < 0x20) {
+                texte.append(String.format("\\u%04x", (int) c));
+            } else {
+                texte.append(c);
+            }
+        }
+        return texte.append('"').toString();
+    }
+
+    private static InfosFixes getInfosFixes() {
+        InfosFixes fixes = infosFixes;
+        if (fixes == null) {
+            fixes = new InfosFixes();
+            infosFixes = fixes;
         }
+        return fixes;
     }
 
-    private static String getLocalIpAddress() {
+    private static InetAddress getLocalHost() {
         try {
-            return InetAddress.getLocalHost().getHostAddress();
+            return InetAddress.getLocalHost();
         } catch (UnknownHostException e) {
-            return "Inconnu";
+            return null;
         }
     }
 
     private static String getProcessStartTime() {
-        RuntimeMXBean rmBean = ManagementFactory.getRuntimeMXBean();
-        long startTimeMillis = rmBean.getStartTime();
+        long startTimeMillis = RUNTIME_BEAN.getStartTime();
         LocalDateTime startTime = LocalDateTime.ofEpochSecond(startTimeMillis / 1000, 0, java.time.ZoneOffset.UTC); // Ou ZoneId.systemDefault()
-        return startTime.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        return startTime.format(FORMAT_DATE);
     }
 
-    private static String getProcessUptime() {
-        RuntimeMXBean rmBean = ManagementFactory.getRuntimeMXBean();
-        long uptimeMillis = rmBean.getUptime();
+    private static String formaterDuree(long uptimeMillis) {
         Duration duration = Duration.ofMillis(uptimeMillis);
 
         long secondes = duration.getSeconds();
@@ -117,9 +380,7 @@ public class SystemInfo {
         return System.getProperty("java.home");
     }
 
-    private static String getSystemLoadAverage() {
-        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
-        double load = os.getSystemLoadAverage();
+    private static String formaterCharge(double load) {
         if (load >= 0) {
             DecimalFormat df = new DecimalFormat("0.00"); // Formater avec deux décimales
             return df.format(load);
@@ -130,4 +391,4 @@ public class SystemInfo {
     private static long toMegaBytes(long bytes) {
         return bytes / MEGABYTE;
     }
-}
\ No newline at end of file
+}
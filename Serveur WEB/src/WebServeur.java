@@ -1,81 +1,86 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.lang.reflect.Method;
 import java.net.URLEncoder;
-import java.time.LocalDateTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.nio.charset.StandardCharsets; // Importation pour UTF-8
 
 public class WebServeur {
 
-    // Déclarations statiques pour les configurations et les logs, accessibles dans les méthodes statiques
-    private static String accessLogPath;
-    private static String errorLogPath;
-    private static String currentDocumentRoot;
-    private static String currentDirectoryListing;
-    private static List<String> currentAllowedIps;
-    private static List<String> currentDeniedIps;
+    // Configuration en service et objets qui en dépendent (filtres IP, caches, journaux) : un instantané immuable
+    // publié par cette seule référence. Un rechargement la remplace ; chaque requête garde celui qu'elle a lu au début.
+    private static volatile ConfigActive configActive;
 
-    private static final DateTimeFormatter LOG_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     private static final String DEFAULT_HTML_FILE = "index.html";
+    // Dates HTTP : jour sur deux chiffres, noms anglais quelle que soit la locale de la JVM, toujours en GMT
+    private static final DateTimeFormatter DATE_HTTP =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH).withZone(ZoneOffset.UTC);
+    static final byte[] REPONSE_CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
 
     public static void main(String[] args) {
         // Créer une instance de WebServeurConfig pour charger et gérer la configuration
         WebServeurConfig config = new WebServeurConfig();
 
-        // Récupérer les valeurs de configuration et les affecter aux variables statiques
         int currentPort = config.getPort();
-        currentDocumentRoot = config.getDocumentRoot(); // Affectation pour l'accès statique
-        currentDirectoryListing = config.getDirectoryListing(); // Affectation pour l'accès statique
-        currentAllowedIps = config.getAllowedIps(); // Affectation pour l'accès statique
-        currentDeniedIps = config.getDeniedIps(); // Affectation pour l'accès statique
-        accessLogPath = config.getAccessLogPath();
-        errorLogPath = config.getErrorLogPath();
+        try {
+            configActive = ConfigActive.creer(config);
+        } catch (IOException e) {
+            System.out.println("Impossible de résoudre le DocumentRoot " + config.getDocumentRoot() + " : " + e.getMessage()); // System.out.println
+            return;
+        }
+        // Écrire les lignes encore en attente quand le serveur s'arrête
+        Runtime.getRuntime().addShutdownHook(new Thread(WebServeur::fermerFichiers, "arret-fichiers"));
+        // Page /info.html : informations fixes calculées ici une fois, valeurs variables échantillonnées en fond
+        SystemInfo.demarrer(config.getInfoRefreshInterval());
+        // Rechargement à chaud : modification de conf.xml ou signal SIGHUP
+        RechargementConfig.demarrer(WebServeurConfig.CONFIG_FILE_PATH);
+
+        // Moteur non bloquant (Selector) : un petit nombre de boucles d'événements pour toutes les connexions
+        if ("nio".equals(config.getEngine())) {
+            try {
+                ServeurNio serveurNio = new ServeurNio(currentPort, config.getEventLoops(),
+                        creerExecuteur("Traitements hors des boucles NIO", config.getExecutor(), config.getMaxThreads()));
+                System.out.println("\nServeur HTTP (NIO, " + config.getEventLoops() + " boucles d'événements) démarré sur le port " + currentPort);
+                afficherConfiguration(configActive);
+                serveurNio.demarrer();
+            } catch (IOException e) {
+                logError("Impossible de démarrer le serveur NIO sur le port " + currentPort + " : " + e.getMessage());
+                System.out.println("Impossible de démarrer le serveur NIO sur le port " + currentPort + " : " + e.getMessage()); // System.out.println
+            }
+            return;
+        }
 
         ServerSocket serverSocket = null;
+        ExecutorService executeur = creerExecuteur("Exécution des connexions", config.getExecutor(), config.getMaxThreads());
 
         try {
-            serverSocket = new ServerSocket(currentPort);
+            // Ouvert via un ServerSocketChannel pour que chaque socket accepté dispose d'un canal (copie zéro des fichiers)
+            serverSocket = ServerSocketChannel.open().bind(new InetSocketAddress(currentPort)).socket();
             System.out.println("\nServeur HTTP démarré sur le port " + currentPort);
-            System.out.println("Répertoire racine du site : " + currentDocumentRoot);
-            System.out.println("Affichage des répertoires : " + currentDirectoryListing);
-            System.out.println("IPs autorisées : " + (currentAllowedIps.isEmpty() ? "Toutes" : currentAllowedIps));
-            System.out.println("IPs refusées : " + (currentDeniedIps.isEmpty() ? "Aucune" : currentDeniedIps));
-            if (accessLogPath != null) {
-                System.out.println("Chemin du log d'accès : " + accessLogPath);
-            } else {
-                System.out.println("Journal d'accès : Désactivé");
-            }
-            if (errorLogPath != null) {
-                System.out.println("Chemin du log d'erreur : " + errorLogPath);
-            } else {
-                System.out.println("Journal d'erreur : Désactivé");
-            }
-
+            afficherConfiguration(configActive);
 
             while (true) {
-                Socket clientSocket = null;
                 try {
-                    clientSocket = serverSocket.accept();
-                    String clientIp = clientSocket.getInetAddress().getHostAddress();
-
-                    if (!isIpAllowed(clientIp)) {
-                        sendHttpResponse(clientSocket.getOutputStream(), "403 Forbidden", "text/plain", "Accès refusé : votre IP est bloquée.\n");
-                        logAccess(clientIp, "N/A", "N/A", "403 Forbidden");
-                        closeSocket(clientSocket);
-                        continue;
-                    }
-
-                    handleClient(clientSocket);
-
+                    Socket clientSocket = serverSocket.accept();
+                    // Chaque connexion est traitée dans son propre thread : un client lent ne bloque plus les autres
+                    executeur.execute(() -> traiterConnexion(clientSocket));
                 } catch (IOException e) {
-                    logError("Erreur d'acceptation du client ou de traitement : " + e.getMessage());
-                    System.out.println("Erreur d'acceptation du client ou de traitement : " + e.getMessage()); // System.out.println
-                } finally {
-                    closeSocket(clientSocket);
+                    logError("Erreur d'acceptation du client : " + e.getMessage());
+                    System.out.println("Erreur d'acceptation du client : " + e.getMessage()); // System.out.println
                 }
             }
         } catch (IOException e) {
@@ -83,73 +88,259 @@ public class WebServeur {
             System.out.println("Impossible de démarrer le serveur sur le port " + currentPort + " : " + e.getMessage()); // System.out.println
         } finally {
             closeSocket(serverSocket);
+            executeur.shutdown();
         }
     }
 
-    private static boolean isIpAllowed(String clientIp) {
-        if (currentDeniedIps != null && currentDeniedIps.contains(clientIp)) {
-            return false; // Explicitement refusé
+    private static void fermerFichiers() {
+        if (configActive.getRegistre() != null) {
+            configActive.getRegistre().fermer(); // Termine les enregistrements en cours avant l'arrêt
+        }
+        for (PoolTravailleurs pool : configActive.getTraitementsExternes()) {
+            pool.fermer();
         }
-        // Si la liste des IPs autorisées est vide, toutes les IPs sont implicitement autorisées.
-        // Si elle n'est pas vide, l'IP du client doit être dans la liste.
-        if (currentAllowedIps != null && !currentAllowedIps.isEmpty() && !currentAllowedIps.contains(clientIp)) {
-            return false; // Si des IPs sont spécifiées dans 'Allow', et l'IP du client n'en fait pas partie
+        for (JournalAsync journal : configActive.getJournaux()) {
+            journal.fermer();
         }
-        return true; // Autorisé par défaut ou explicitement autorisé
     }
 
+    /**
+     * Configuration en service (jamais null une fois le serveur démarré).
+     */
+    static ConfigActive getConfigActive() {
+        return configActive;
+    }
 
-    private static void handleClient(Socket clientSocket) throws IOException {
-        BufferedReader in = null;
-        OutputStream out = null;
-        String clientIp = clientSocket.getInetAddress().getHostAddress();
-        String requestLine = null;
+    static CacheFichiers getCacheFichiers() {
+        ConfigActive config = configActive;
+        return config != null ? config.getSitePrincipal().getCacheFichiers() : null;
+    }
 
+    /**
+     * Relit conf.xml et publie un nouvel instantané (appelé par RechargementConfig). Les requêtes en cours terminent
+     * avec l'ancien ; seuls les objets concernés par un paramètre modifié sont recréés, les autres gardent leur cache.
+     */
+    static synchronized void rechargerConfiguration() {
+        WebServeurConfig nouvelle = new WebServeurConfig();
+        if (!nouvelle.isFichierLu()) {
+            // Fichier illisible ou en cours d'écriture : mieux vaut garder la configuration en service que les valeurs par défaut
+            System.out.println("Rechargement annulé : la configuration en service est conservée.");
+            return;
+        }
+        ConfigActive ancienne = configActive;
+        ConfigActive suivante;
         try {
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), StandardCharsets.UTF_8)); // Lire en UTF-8
-            out = clientSocket.getOutputStream();
+            suivante = ancienne.recharger(nouvelle);
+        } catch (IOException e) {
+            logError("Rechargement annulé, impossible de résoudre le DocumentRoot " + nouvelle.getDocumentRoot() + " : " + e.getMessage());
+            System.out.println("Rechargement annulé, impossible de résoudre le DocumentRoot " + nouvelle.getDocumentRoot() + " : " + e.getMessage()); // System.out.println
+            return;
+        }
+        configActive = suivante;
+        ancienne.retirerAuProfitDe(suivante);
+
+        System.out.println("\nConfiguration rechargée.");
+        List<String> aRedemarrer = ancienne.parametresNecessitantRedemarrage(suivante);
+        if (!aRedemarrer.isEmpty()) {
+            System.out.println("Avertissement : Paramètres modifiés qui ne seront appliqués qu'au prochain redémarrage : " + aRedemarrer);
+        }
+        afficherConfiguration(suivante);
+    }
+
+    private static void afficherConfiguration(ConfigActive config) {
+        System.out.println("Répertoire racine du site : " + config.getSitePrincipal().getDocumentRoot());
+        System.out.println("Affichage des répertoires : " + config.getConfig().getDirectoryListing());
+        FiltreIp allowedIps = config.getAllowedIps();
+        FiltreIp deniedIps = config.getDeniedIps();
+        System.out.println("IPs autorisées : " + (allowedIps.estVide() ? (config.isDefaultAccept() ? "Toutes" : "Aucune") : allowedIps));
+        System.out.println("IPs refusées : " + (deniedIps.estVide() ? "Aucune" : deniedIps));
+        System.out.println("Autres IPs : " + (config.isDefaultAccept() ? "acceptées" : "refusées"));
+        System.out.println("Limites par IP : " + (config.getLimiteur().isActif() ? "activées" : "désactivées"));
+        String accessLogPath = config.getConfig().getAccessLogPath();
+        if (accessLogPath != null) {
+            System.out.println("Chemin du log d'accès : " + accessLogPath);
+        } else {
+            System.out.println("Journal d'accès : Désactivé");
+        }
+        String errorLogPath = config.getConfig().getErrorLogPath();
+        if (errorLogPath != null) {
+            System.out.println("Chemin du log d'erreur : " + errorLogPath);
+        } else {
+            System.out.println("Journal d'erreur : Désactivé");
+        }
+        CacheFichiers cacheFichiers = config.getSitePrincipal().getCacheFichiers();
+        System.out.println("Cache de fichiers : " + (cacheFichiers.isActif() ? cacheFichiers.getBudgetOctets() / 1024 + " Ko" : "Désactivé"));
+        for (WebServeurConfig.HoteVirtuel hote : config.getConfig().getHotesVirtuels()) {
+            System.out.println("Hôte virtuel " + String.join(", ", hote.getNoms()) + " : " + hote.getDocumentRoot()
+                    + " (cache " + hote.getFileCacheSize() / 1024 + " Ko, affichage des répertoires " + hote.getDirectoryListing() + ")");
+        }
+        System.out.println("Compression gzip : " + (config.isGzipActif() ? "Activée (à partir de " + config.getGzipTailleMin() + " octets)" : "Désactivée"));
+        System.out.println("Taille max du corps des requêtes : " + config.getTailleMaxCorps() / 1024 + " Ko");
+        RegistreUtilisateurs registre = config.getRegistre();
+        for (PoolTravailleurs pool : config.getTraitementsExternes()) {
+            WebServeurConfig.TraitementExterne traitement = pool.getDefinition();
+            System.out.println("Traitement externe " + traitement.getChemin() + " : " + String.join(" ", traitement.getCommande())
+                    + " (" + traitement.getMinWorkers() + " à " + traitement.getMaxWorkers() + " processus, délai " + traitement.getDelaiMaxMillis() + " ms)");
+        }
+        System.out.println("Envoi de fichiers : " + (config.getConfig().getUploadPath().isEmpty() ? "Désactivé"
+                : config.getConfig().getUploadPath() + " vers " + config.getRepertoireEnvoi() + " (" + config.getTailleMaxEnvoi() / (1024 * 1024)
+                + " Mo par envoi, " + config.getTailleMaxFichierEnvoi() / (1024 * 1024) + " Mo par fichier, extensions : "
+                + String.join(", ", config.getConfig().getUploadExtensions()) + ")"));
+        System.out.println("Données du formulaire : " + (registre != null ? registre.getChemin() + " (" + registre.getNombreNoms() + " noms)" : "Indisponibles"));
+        System.out.println("Connexions persistantes : " + config.getKeepAliveTimeout() + " s d'inactivité max, " + config.getMaxKeepAliveRequests() + " requêtes max");
+    }
 
-            requestLine = in.readLine();
-            if (requestLine == null || requestLine.isEmpty()) {
-                return; // Requête vide
+    /**
+     * Crée l'exécuteur qui traite les connexions acceptées (moteur bloquant) ou les requêtes sorties des boucles
+     * d'événements (moteur NIO, voir estHorsBoucle). "virtual" utilise un thread virtuel par connexion (Java 21+), obtenu par réflexion pour rester compilable
+     * sur les JDK plus anciens ; si la JVM ne les supporte pas, on se replie sur un pool fixe de maxThreads threads.
+     */
+    private static ExecutorService creerExecuteur(String usage, String mode, int maxThreads) {
+        if ("virtual".equals(mode)) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                System.out.println(usage + " : threads virtuels");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println(usage + " : threads virtuels non disponibles sur cette JVM, utilisation d'un pool fixe de " + maxThreads + " threads.");
             }
+        } else {
+            System.out.println(usage + " : pool fixe de " + maxThreads + " threads");
+        }
+        return Executors.newFixedThreadPool(maxThreads);
+    }
 
-            System.out.println("Requête reçue : " + requestLine + " de " + clientIp);
+    /**
+     * Traite une connexion acceptée (filtrage IP puis requête), exécuté sur un thread de l'exécuteur.
+     */
+    private static void traiterConnexion(Socket clientSocket) {
+        Metriques.connexionOuverte();
+        InetAddress clientAddress = clientSocket.getInetAddress();
+        ConfigActive config = configActive; // Réglages de connexion fixés à l'ouverture
+        LimiteurIp limiteurConnexion = config.getLimiteur();
+        boolean connexionReservee = false;
+        try {
+            String clientIp = clientAddress.getHostAddress();
 
-            String[] requestParts = requestLine.split(" ");
-            if (requestParts.length < 2) {
-                sendHttpResponse(out, "400 Bad Request", "text/plain", "Requête invalide.\n");
-                logAccess(clientIp, "N/A", "N/A", "400 Bad Request");
+            if (!isIpAllowed(config, clientAddress)) {
+                sendHttpResponse(new SortieHttp(clientSocket.getOutputStream()), "403 Forbidden", "text/plain", "Accès refusé : votre IP est bloquée.\n");
+                logAccess(clientIp, "N/A", "N/A", "403 Forbidden");
                 return;
             }
 
-            String method = requestParts[0];
-            String path = requestParts[1];
+            connexionReservee = limiteurConnexion.ouvrirConnexion(clientAddress);
+            if (!connexionReservee) {
+                sendTooManyRequests(new SortieHttp(clientSocket.getOutputStream()), 1, "Trop de connexions simultanées depuis votre adresse.\n");
+                logAccess(clientIp, "N/A", "N/A", "429 Too Many Requests");
+                return;
+            }
+
+            handleClient(clientSocket, config);
 
-            // Lire les en-têtes restants de la requête (utile pour POST plus tard)
-            // C'est important de consommer tout le stream de la requête
-            String line;
-            while ((line = in.readLine()) != null && !line.isEmpty()) {
-                // Pour le moment, nous ignorons les en-têtes, mais ils sont lus.
+        } catch (IOException e) {
+            logError("Erreur de traitement du client : " + e.getMessage());
+            System.out.println("Erreur de traitement du client : " + e.getMessage()); // System.out.println
+        } finally {
+            if (connexionReservee) {
+                limiteurConnexion.fermerConnexion(clientAddress);
             }
+            closeSocket(clientSocket);
+            Metriques.connexionFermee();
+        }
+    }
 
-            if (method.equalsIgnoreCase("GET")) {
-                if ("/info.html".equalsIgnoreCase(path)) {
-                    String infoHtml = SystemInfo.getSystemInfoHtml();
-                    sendHttpResponse(out, "200 OK", "text/html; charset=UTF-8", infoHtml);
-                    logAccess(clientIp, method, path, "200 OK");
-                } else {
-                    serveFile(out, clientIp, method, path);
+    /**
+     * Applique la limite de débit du client avant de traiter une requête.
+     * @return true si la requête est refusée : la réponse 429 a été écrite et la connexion sera fermée.
+     */
+    static boolean limiterDebit(SortieHttp out, ConfigActive config, InetAddress clientAddress, String clientIp, RequeteHttp requete) throws IOException {
+        long attente = config.getLimiteur().consommer(clientAddress);
+        if (attente == 0) {
+            return false;
+        }
+        out.setKeepAlive(false);
+        sendTooManyRequests(out, attente, "Trop de requêtes : réessayez plus tard.\n");
+        logAccess(clientIp, requete.getMethode(), requete.getChemin(), "429 Too Many Requests");
+        return true;
+    }
+
+    static void sendTooManyRequests(SortieHttp out, long retryAfterSeconds, String message) throws IOException {
+        byte[] bodyBytes = message.getBytes(StandardCharsets.UTF_8);
+        String responseHeader = "HTTP/1.1 429 Too Many Requests\r\n" +
+                "Content-Type: text/plain; charset=UTF-8\r\n" +
+                "Retry-After: " + retryAfterSeconds + "\r\n" +
+                "Content-Length: " + bodyBytes.length + "\r\n" +
+                "Connection: " + out.enTeteConnexion() + "\r\n\r\n";
+        out.write(responseHeader.getBytes(StandardCharsets.UTF_8));
+        out.write(bodyBytes);
+        out.flush();
+    }
+
+    static boolean isIpAllowed(ConfigActive config, InetAddress clientAddress) {
+        if (config.getDeniedIps().contient(clientAddress)) {
+            Metriques.connexionRefusee();
+            return false; // Explicitement refusé
+        }
+        if (config.getAllowedIps().contient(clientAddress)) {
+            return true; // Explicitement autorisé
+        }
+        // Ni autorisée ni refusée : politique par défaut (<security><default>, sinon acceptée si 'Allow' est vide)
+        if (!config.isDefaultAccept()) {
+            Metriques.connexionRefusee();
+            return false;
+        }
+        return true;
+    }
+
+
+    private static void handleClient(Socket clientSocket, ConfigActive config) throws IOException {
+        EntreeHttp in = null;
+        SortieHttp out = null;
+        String clientIp = clientSocket.getInetAddress().getHostAddress();
+
+        try {
+            in = new EntreeHttp(clientSocket.getInputStream());
+            out = new SortieHttp(new BufferedOutputStream(clientSocket.getOutputStream()), clientSocket.getChannel());
+            // Délai d'inactivité entre deux requêtes d'une même connexion persistante
+            clientSocket.setSoTimeout(config.getKeepAliveTimeout() * 1000);
+
+            // Boucle de requêtes : la connexion reste ouverte tant que le client le souhaite (HTTP/1.1 keep-alive),
+            // dans la limite de MaxKeepAliveRequests requêtes
+            RequeteHttp requete = new RequeteHttp(); // Réutilisée par chaque requête de la connexion
+            for (int numeroRequete = 1; ; numeroRequete++) {
+                try {
+                    if (!in.lireEnTetes(requete)) {
+                        return; // Le client a fermé la connexion
+                    }
+                } catch (SocketTimeoutException e) {
+                    return; // Connexion inactive trop longtemps
+                } catch (RequeteInvalideException e) {
+                    out.setKeepAlive(false);
+                    sendHttpResponse(out, e.getStatus(), "text/plain", "Requête invalide.\n");
+                    logAccess(clientIp, "N/A", "N/A", e.getStatus());
+                    return;
+                }
+
+                System.out.println("Requête reçue : " + requete.getMethode() + " " + requete.getChemin() + " " + requete.getVersion() + " de " + clientIp);
+
+                // Lu une fois : débit, corps et réponse suivent les mêmes réglages même en cas de rechargement
+                ConfigActive configRequete = configActive;
+                out.setKeepAlive(requete.demandeKeepAlive() && numeroRequete < configRequete.getMaxKeepAliveRequests());
+
+                // Refusée avant la lecture du corps : la connexion est fermée, le corps n'a pas à être lu
+                if (limiterDebit(out, configRequete, clientSocket.getInetAddress(), clientIp, requete)) {
+                    return;
+                }
+                // Le corps doit être consommé pour que la requête suivante soit lue au bon endroit
+                if (!lireCorps(in, out, configRequete, clientIp, requete)) {
+                    return;
+                }
+                traiterRequete(out, configRequete, clientSocket.getInetAddress(), clientIp, requete);
+                out.flush();
+
+                if (!out.isKeepAlive()) {
+                    return;
                 }
-            } else if (method.equalsIgnoreCase("POST")) {
-                // Pour la gestion des formulaires POST, vous devrez lire le corps de la requête.
-                // Cela nécessitera de récupérer le Content-Length de la requête et de lire ce nombre d'octets.
-                // Pour l'instant, juste une réponse simple.
-                sendHttpResponse(out, "200 OK", "text/plain", "Requête POST reçue. Traitement des formulaires non implémenté pour le moment.\n");
-                logAccess(clientIp, method, path, "200 OK");
-            } else {
-                sendHttpResponse(out, "405 Method Not Allowed", "text/plain", "Méthode non autorisée.\n");
-                logAccess(clientIp, method, path, "405 Method Not Allowed");
             }
         } catch (IOException e) {
             logError("Erreur lors du traitement de la requête de " + clientIp + " : " + e.getMessage());
@@ -157,6 +348,7 @@ public class WebServeur {
             // Tente d'envoyer une erreur 500 si possible
             try {
                 if (out != null) {
+                    out.setKeepAlive(false);
                     sendHttpResponse(out, "500 Internal Server Error", "text/plain", "Erreur interne du serveur.\n");
                 }
             } catch (IOException e2) {
@@ -168,7 +360,199 @@ public class WebServeur {
         }
     }
 
-    private static void serveFile(OutputStream out, String clientIp, String method, String path) throws IOException {
+    /**
+     * Lit le corps de la requête au fil de sa réception et l'attache à la requête. Seul le corps d'un POST est conservé
+     * (en mémoire s'il est petit, sinon dans un fichier temporaire, un envoi de fichiers étant découpé à la réception) ;
+     * celui des autres méthodes est lu et jeté.
+     * @return false si le corps a été refusé : une réponse d'erreur a été envoyée et la connexion doit être fermée.
+     */
+    private static boolean lireCorps(InputStream in, SortieHttp out, ConfigActive config, String clientIp, RequeteHttp requete) throws IOException {
+        CorpsRequete corps = null;
+        try {
+            corps = CorpsRequete.preparer(requete, config);
+            if (corps == null) {
+                return true;
+            }
+            if (requete.attendContinue()) {
+                out.write(REPONSE_CONTINUE); // Le client n'envoie le corps qu'après cette réponse intermédiaire
+                out.flush();
+            }
+            corps.lireDepuis(in);
+        } catch (RequeteInvalideException | SocketTimeoutException e) {
+            if (corps != null) {
+                corps.close();
+            }
+            String status = e instanceof RequeteInvalideException ? ((RequeteInvalideException) e).getStatus() : "408 Request Timeout";
+            out.setKeepAlive(false);
+            sendHttpResponse(out, status, "text/plain", e instanceof RequeteInvalideException ? e.getMessage() + "\n" : "Corps de requête incomplet.\n");
+            logAccess(clientIp, requete.getMethode(), requete.getChemin(), status);
+            return false;
+        } catch (IOException e) {
+            if (corps != null) {
+                corps.close();
+            }
+            throw e;
+        }
+        if (corps.isConserve()) {
+            requete.setCorps(corps); // Libéré par traiterRequete une fois la réponse produite
+        }
+        return true;
+    }
+
+    /**
+     * Aiguille une requête déjà analysée vers le bon traitement et écrit la réponse dans out.
+     * Partagé par le moteur bloquant et le moteur NIO (qui passe un tampon mémoire).
+     *
+     * @param config Instantané lu par le moteur une fois les en-têtes analysés, déjà utilisé pour le débit et le corps.
+     */
+    static void traiterRequete(SortieHttp out, ConfigActive config, InetAddress clientAddress, String clientIp, RequeteHttp requete) throws IOException {
+        long debut = System.nanoTime();
+        long octetsAvant = out.getOctetsEcrits();
+        ConfigActive.Site site = config.getSite(requete.getEnTete("host")); // Hôte virtuel, sinon le site principal
+        try {
+            if (!site.isIpAllowed(clientAddress)) {
+                Metriques.connexionRefusee();
+                sendHttpResponse(out, "403 Forbidden", "text/plain", "Accès refusé : votre IP est bloquée.\n");
+                logAccess(site, clientIp, requete.getMethode(), requete.getChemin(), "403 Forbidden");
+                return;
+            }
+            aiguillerRequete(out, config, site, clientIp, requete);
+        } finally {
+            requete.fermerCorps(); // Tampon rendu au pool, fichier temporaire supprimé
+            // Avec le moteur NIO, la durée couvre la production de la réponse, pas son envoi complet
+            Metriques.observerReponse(Metriques.route(requete.getMethode(), requete.getChemin()),
+                    System.nanoTime() - debut, out.getOctetsEcrits() - octetsAvant);
+        }
+    }
+
+    private static void aiguillerRequete(SortieHttp out, ConfigActive config, ConfigActive.Site site, String clientIp, RequeteHttp requete) throws IOException {
+        String method = requete.getMethode();
+        String path = requete.getChemin();
+        out.setGzip(config.isGzipActif() && Compression.accepteGzip(requete.getEnTete("accept-encoding")), config.getGzipTailleMin());
+        PoolTravailleurs traitement = config.getTraitementExterne(path);
+        if (traitement != null && (method.equalsIgnoreCase("GET") || method.equalsIgnoreCase("POST"))) {
+            traiterExterne(out, traitement, site, clientIp, requete);
+        } else if (method.equalsIgnoreCase("GET")) {
+            if ("/metrics".equals(path)) {
+                sendHttpResponse(out, "200 OK", "text/plain; version=0.0.4; charset=utf-8",
+                        Metriques.exposer(config));
+                logAccess(site, clientIp, method, path, "200 OK");
+            } else if ("/info.html".equalsIgnoreCase(path)) {
+                SystemInfo.Instantane page = SystemInfo.getInstantane();
+                sendHttpResponse(out, "200 OK", "text/html; charset=UTF-8", page.getCorps(), page.getCorpsGzip());
+                logAccess(site, clientIp, method, path, "200 OK");
+            } else if ("/info.json".equals(path)) {
+                SystemInfo.Instantane page = SystemInfo.getInstantane();
+                sendHttpResponse(out, "200 OK", "application/json", page.getJson(), page.getJsonGzip());
+                logAccess(site, clientIp, method, path, "200 OK");
+            } else if (FluxInfo.estFlux(path)) {
+                if (!FluxInfo.reserver()) {
+                    out.setKeepAlive(false);
+                    sendHttpResponse(out, "503 Service Unavailable", "text/plain", "Trop de flux d'informations ouverts.\n");
+                    logAccess(site, clientIp, method, path, "503 Service Unavailable");
+                    return;
+                }
+                // Journalisé dès l'ouverture : le flux dure tant que le client reste connecté
+                logAccess(site, clientIp, method, path, "200 OK");
+                try {
+                    FluxInfo.diffuser(out, FluxInfo.intervalle(path, config.getIntervalleFluxInfo()));
+                } finally {
+                    FluxInfo.liberer();
+                }
+            } else {
+                serveFile(out, config, site, clientIp, requete);
+            }
+        } else if (method.equalsIgnoreCase("POST")) {
+            // Le corps a déjà été lu en entier par le moteur (voir CorpsRequete)
+            if (estFormulaire(path)) {
+                String status = FormulaireUtilisateurs.repondre(out, config.getRegistre(), requete);
+                logAccess(site, clientIp, method, path, status);
+            } else if (config.isCheminEnvoi(path)) {
+                String status = EnvoiFichiers.repondre(out, site, requete);
+                logAccess(site, clientIp, method, path, status);
+            } else {
+                sendHttpResponse(out, "404 Not Found", "text/plain", "Aucun traitement pour cette adresse.\n");
+                logAccess(site, clientIp, method, path, "404 Not Found");
+            }
+        } else {
+            sendHttpResponse(out, "405 Method Not Allowed", "text/plain", "Méthode non autorisée.\n");
+            logAccess(site, clientIp, method, path, "405 Method Not Allowed");
+        }
+    }
+
+    /**
+     * Formulaire de index.html (sans attribut action : envoyé à la page elle-même).
+     */
+    private static boolean estFormulaire(String path) {
+        return "/".equals(path) || ("/" + DEFAULT_HTML_FILE).equals(path);
+    }
+
+    /**
+     * Indique si la réponse attend un autre processus (traitement externe) ou le disque (enregistrement du formulaire,
+     * qui attend son fsync) : le moteur NIO la produit alors hors de sa boucle.
+     */
+    static boolean estHorsBoucle(ConfigActive config, RequeteHttp requete) {
+        return config.getTraitementExterne(requete.getChemin()) != null
+                || ("POST".equalsIgnoreCase(requete.getMethode()) && estFormulaire(requete.getChemin()));
+    }
+
+    /**
+     * Transmet la requête à un processus du pool (variables CGI et corps) et renvoie sa réponse au client.
+     */
+    private static void traiterExterne(SortieHttp out, PoolTravailleurs pool, ConfigActive.Site site, String clientIp, RequeteHttp requete) throws IOException {
+        String method = requete.getMethode();
+        String path = requete.getChemin();
+        int debutRequete = path.indexOf('?');
+        String chemin = debutRequete >= 0 ? path.substring(0, debutRequete) : path;
+        String scriptName = pool.getDefinition().getChemin();
+        if (scriptName.endsWith("/")) {
+            scriptName = scriptName.substring(0, scriptName.length() - 1);
+        }
+        CorpsRequete corps = requete.getCorps();
+
+        List<String> variables = new ArrayList<>();
+        variables.add("GATEWAY_INTERFACE=CGI/1.1");
+        variables.add("SERVER_PROTOCOL=" + requete.getVersion());
+        variables.add("REQUEST_METHOD=" + method);
+        variables.add("SCRIPT_NAME=" + scriptName);
+        variables.add("PATH_INFO=" + chemin.substring(scriptName.length()));
+        variables.add("QUERY_STRING=" + (debutRequete >= 0 ? path.substring(debutRequete + 1) : ""));
+        variables.add("REMOTE_ADDR=" + clientIp);
+        variables.add("CONTENT_LENGTH=" + (corps != null ? corps.getTaille() : 0));
+        if (requete.getEnTete("content-type") != null) {
+            variables.add("CONTENT_TYPE=" + requete.getEnTete("content-type"));
+        }
+        for (Map.Entry<String, String> enTete : requete.getEnTetes().entrySet()) {
+            variables.add("HTTP_" + enTete.getKey().toUpperCase().replace('-', '_') + "=" + enTete.getValue());
+        }
+
+        PoolTravailleurs.Reponse reponse;
+        try {
+            reponse = pool.traiter(variables, corps);
+        } catch (PoolTravailleurs.EchecTraitement e) {
+            logError(site, "Traitement externe de " + path + " : " + e.getMessage());
+            sendHttpResponse(out, e.getStatus(), "text/plain", "Le traitement de la requête a échoué.\n");
+            logAccess(site, clientIp, method, path, e.getStatus());
+            return;
+        }
+        StringBuilder responseHeader = new StringBuilder("HTTP/1.1 ").append(reponse.getStatus()).append("\r\n");
+        responseHeader.append("Content-Type: ").append(reponse.getContentType()).append("\r\n");
+        for (String enTete : reponse.getEnTetes()) {
+            responseHeader.append(enTete).append("\r\n");
+        }
+        responseHeader.append("Content-Length: ").append(reponse.getCorps().length).append("\r\n");
+        out.write(responseHeader.toString().getBytes(StandardCharsets.UTF_8));
+        out.write(out.ligneConnexion());
+        out.write(reponse.getCorps());
+        out.flush();
+        logAccess(site, clientIp, method, path, reponse.getStatus());
+    }
+
+    private static void serveFile(SortieHttp out, ConfigActive config, ConfigActive.Site site, String clientIp, RequeteHttp requete) throws IOException {
+        CacheFichiers cacheFichiers = site.getCacheFichiers(); // Budget propre au site
+        CacheChemins cacheChemins = site.getCacheChemins();
+        String method = requete.getMethode();
+        String path = requete.getChemin();
         // Définition de la variable pour l'emplacement du fichier HTML par défaut
         // Cette variable n'est utilisée que si le chemin est la racine "/"
 
@@ -176,78 +560,308 @@ public class WebServeur {
             path = "/" + DEFAULT_HTML_FILE; // Serve index.html by default
         }
 
-        // Construire le chemin complet du fichier demandé
-        Path requestedPath = Paths.get(currentDocumentRoot, path).normalize();
-        File file = requestedPath.toFile();
+        // Requête partielle (lecture d'un média à une position donnée) : jamais servie depuis le cache
+        String range = requete.getEnTete("range");
 
-        // Vérifier si le fichier est à l'intérieur du DocumentRoot (sécurité: éviter le "directory traversal")
-        // Utilisation de getCanonicalPath pour résoudre les ../ et autres.
-        // Cette vérification est cruciale.
-        try {
-            if (!file.getCanonicalPath().startsWith(new File(currentDocumentRoot).getCanonicalPath())) {
-                sendHttpResponse(out, "403 Forbidden", "text/plain", "Accès refusé : Tentative d'accès en dehors du répertoire racine.\n");
-                logAccess(clientIp, method, path, "403 Forbidden");
+        // Les clients gzip et les autres ne reçoivent pas la même variante : clés de cache distinctes
+        boolean typeCompressible = config.isGzipActif() && Compression.estCompressible(getContentType(path));
+        String cleCache = typeCompressible && out.isGzipAccepte() ? Compression.PREFIXE_CLE_GZIP + path : path;
+
+        // Fichier chaud déjà en cache : réponse complète prête, sans résolution de chemin ni lecture disque
+        CacheFichiers.Entree enCache = range == null ? cacheFichiers.obtenir(cleCache) : null;
+        if (enCache != null) {
+            if (nonModifie(requete, enCache.getEtag(), enCache.getDateModification())) {
+                sendNotModified(out, enCache.getEtag(), enCache.getDateModification());
+                logAccess(site, clientIp, method, path, "304 Not Modified");
                 return;
             }
+            enCache.ecrire(out);
+            logAccess(site, clientIp, method, path, "200 OK");
+            return;
+        }
+
+        // Résolution du chemin (normalisation, anti-traversée, type de cible) mémorisée par CacheChemins
+        CacheChemins.Resolution resolution;
+        try {
+            resolution = cacheChemins.resoudre(path);
         } catch (IOException e) {
-            logError("Erreur de sécurité (canonical path) pour le chemin " + path + " : " + e.getMessage());
+            logError(site, "Erreur de sécurité (canonical path) pour le chemin " + path + " : " + e.getMessage());
             System.out.println("Erreur de sécurité (canonical path) pour le chemin " + path + " : " + e.getMessage()); // System.out.println
             sendHttpResponse(out, "500 Internal Server Error", "text/plain", "Erreur interne du serveur lors de la vérification du chemin.\n");
-            logAccess(clientIp, method, path, "500 Internal Server Error");
+            logAccess(site, clientIp, method, path, "500 Internal Server Error");
             return;
         }
+        File file = resolution.getFichier();
 
+        // Vérifier si le fichier est à l'intérieur du DocumentRoot (sécurité: éviter le "directory traversal")
+        if (resolution.getType() == CacheChemins.Type.HORS_RACINE) {
+            sendHttpResponse(out, "403 Forbidden", "text/plain", "Accès refusé : Tentative d'accès en dehors du répertoire racine.\n");
+            logAccess(site, clientIp, method, path, "403 Forbidden");
+            return;
+        }
 
-        if (file.isDirectory()) {
-            if ("on".equalsIgnoreCase(currentDirectoryListing)) {
-                sendDirectoryListing(out, file, clientIp, method, path);
+        if (resolution.getType() == CacheChemins.Type.REPERTOIRE) {
+            if (site.isDirectoryListing()) {
+                sendDirectoryListing(out, site, file, clientIp, method, path);
             } else {
                 sendHttpResponse(out, "403 Forbidden", "text/plain", "L'affichage des répertoires est désactivé.\n");
-                logAccess(clientIp, method, path, "403 Forbidden");
+                logAccess(site, clientIp, method, path, "403 Forbidden");
             }
-        } else if (file.exists() && file.isFile()) {
+        } else if (resolution.getType() == CacheChemins.Type.FICHIER) {
             // Fichier trouvé, le servir
             String contentType = getContentType(file.getName());
+            // Fichier déposé par un client : téléchargé, jamais affiché ni interprété comme une page du site
+            String enTetesEnvoi = config.isFichierEnvoye(file)
+                    ? "X-Content-Type-Options: nosniff\r\nContent-Disposition: attachment\r\n" : "";
+            long octetsAvant = out.getOctetsEcrits();
             try {
-                // Utiliser Files.readAllBytes pour lire le fichier en octets (important pour Content-Length)
-                byte[] fileContent = Files.readAllBytes(file.toPath());
+                // Le fichier est envoyé en flux (copie zéro si possible) : la mémoire utilisée ne dépend pas de sa taille
+                BasicFileAttributes attributs;
+                try {
+                    attributs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    // Supprimé depuis la mise en cache de sa résolution
+                    cacheChemins.invalider();
+                    sendHttpResponse(out, "404 Not Found", "text/plain", "Le fichier demandé n'a pas été trouvé.\n");
+                    logAccess(site, clientIp, method, path, "404 Not Found");
+                    return;
+                }
+                long tailleFichier = attributs.size();
+                long dateModification = attributs.lastModifiedTime().toMillis();
+                // Variante gzip seulement pour les types texte assez gros, mise en cache pour n'être compressée qu'une fois ;
+                // les fichiers trop gros pour le cache partent tels quels (copie zéro)
+                boolean gzip = typeCompressible && out.isGzipAccepte() && range == null
+                        && tailleFichier >= out.getGzipTailleMin() && cacheFichiers.accepte(tailleFichier);
+                String etag = calculerEtag(tailleFichier, dateModification);
+                if (gzip) {
+                    etag = Compression.etagGzip(etag);
+                }
+
+                // Le client a déjà cette version : réponse sans corps
+                if (nonModifie(requete, etag, dateModification)) {
+                    sendNotModified(out, etag, dateModification);
+                    logAccess(site, clientIp, method, path, "304 Not Modified");
+                    return;
+                }
+
+                List<PlagesOctets.Plage> plages = PlagesOctets.analyser(range, tailleFichier);
+                if (plages != null && ifRangeValide(requete.getEnTete("if-range"), etag, dateModification)) {
+                    String status = sendFileRanges(out, file, contentType, enTetesEnvoi, plages, tailleFichier);
+                    logAccess(site, clientIp, method, path, status);
+                    return;
+                }
+
                 String responseHeader = "HTTP/1.1 200 OK\r\n" +
                         "Content-Type: " + contentType + "; charset=UTF-8\r\n" + // Toujours spécifier l'encodage
-                        "Content-Length: " + fileContent.length + "\r\n" + // Taille en octets du contenu
-                        "Connection: close\r\n\r\n"; // Ferme la connexion après chaque requête
+                        "Accept-Ranges: bytes\r\n" + // Le client peut demander une partie du fichier (Range)
+                        "ETag: " + etag + "\r\n" + // Validateurs pour les requêtes conditionnelles (304)
+                        "Last-Modified: " + formaterDateHttp(dateModification) + "\r\n" +
+                        (typeCompressible ? "Vary: Accept-Encoding\r\n" : "") + // La réponse dépend de Accept-Encoding
+                        (gzip ? "Content-Encoding: gzip\r\n" : "") +
+                        enTetesEnvoi;
 
-                out.write(responseHeader.getBytes(StandardCharsets.UTF_8)); // En-têtes aussi en UTF-8
-                out.write(fileContent); // Écrire les octets du fichier
-                out.flush(); // S'assurer que tout est envoyé
-                logAccess(clientIp, method, path, "200 OK");
+                if (cacheFichiers.accepte(tailleFichier)) {
+                    // Petit fichier : on garde la réponse complète en mémoire pour les prochaines requêtes
+                    cacheFichiers.charger(cleCache, file.toPath(), attributs, etag, responseHeader, gzip).ecrire(out);
+                } else {
+                    responseHeader += "Content-Length: " + tailleFichier + "\r\n"; // Taille en octets du contenu
+                    out.write(responseHeader.getBytes(StandardCharsets.UTF_8)); // En-têtes aussi en UTF-8
+                    out.write(out.ligneConnexion()); // close ou keep-alive selon la connexion
+                    out.envoyerFichier(file.toPath(), 0, tailleFichier); // Écrire les octets du fichier
+                    out.flush(); // S'assurer que tout est envoyé
+                }
+                logAccess(site, clientIp, method, path, "200 OK");
             } catch (IOException e) {
-                logError("Erreur de lecture du fichier " + file.getAbsolutePath() + " : " + e.getMessage());
+                logError(site, "Erreur de lecture du fichier " + file.getAbsolutePath() + " : " + e.getMessage());
                 System.out.println("Erreur de lecture du fichier " + file.getAbsolutePath() + " : " + e.getMessage()); // System.out.println
-                sendHttpResponse(out, "500 Internal Server Error", "text/plain", "Erreur interne du serveur lors de la lecture du fichier.\n");
-                logAccess(clientIp, method, path, "500 Internal Server Error");
+                if (out.getOctetsEcrits() == octetsAvant) {
+                    // Échec avant toute écriture (attributs, chargement en cache) : une réponse d'erreur complète est possible
+                    sendHttpResponse(out, "500 Internal Server Error", "text/plain", "Erreur de lecture du fichier.\n");
+                } else {
+                    // Les en-têtes sont déjà partis : la réponse ne peut plus être corrigée, on ferme la connexion
+                    out.setKeepAlive(false);
+                }
+                logAccess(site, clientIp, method, path, "500 Internal Server Error");
             }
         } else {
             // Fichier non trouvé
             sendHttpResponse(out, "404 Not Found", "text/plain", "Le fichier demandé n'a pas été trouvé.\n");
-            logAccess(clientIp, method, path, "404 Not Found");
+            logAccess(site, clientIp, method, path, "404 Not Found");
+        }
+    }
+
+    /**
+     * ETag fort dérivé de la taille et de la date de modification (comme Apache/nginx) :
+     * aucune lecture du contenu, et il change dès que le fichier est réécrit.
+     */
+    static String calculerEtag(long taille, long dateModification) {
+        return "\"" + Long.toHexString(dateModification) + "-" + Long.toHexString(taille) + "\"";
+    }
+
+    /**
+     * Évalue If-None-Match (prioritaire) puis If-Modified-Since.
+     * @return true si le client possède déjà la version courante et peut recevoir un 304.
+     */
+    private static boolean nonModifie(RequeteHttp requete, String etag, long dateModification) {
+        String ifNoneMatch = requete.getEnTete("if-none-match");
+        if (ifNoneMatch != null) {
+            for (String candidat : ifNoneMatch.split(",")) {
+                String valeur = candidat.trim();
+                if (valeur.startsWith("W/")) {
+                    valeur = valeur.substring(2); // Comparaison faible pour If-None-Match
+                }
+                if ("*".equals(valeur) || etag.equals(valeur)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = requete.getEnTete("if-modified-since");
+        if (ifModifiedSince != null) {
+            try {
+                long dateClient = ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return dateModification / 1000 <= dateClient / 1000; // Les dates HTTP sont à la seconde
+            } catch (DateTimeParseException e) {
+                return false; // Date invalide : l'en-tête est ignoré
+            }
+        }
+        return false;
+    }
+
+    private static void sendNotModified(SortieHttp out, String etag, long dateModification) throws IOException {
+        String responseHeader = "HTTP/1.1 304 Not Modified\r\n" +
+                "ETag: " + etag + "\r\n" +
+                "Last-Modified: " + formaterDateHttp(dateModification) + "\r\n";
+        out.write(responseHeader.getBytes(StandardCharsets.UTF_8));
+        out.write(out.ligneConnexion());
+        out.flush();
+    }
+
+    /**
+     * If-Range : la plage n'est servie que si le fichier n'a pas changé (ETag fort identique ou même date) ;
+     * sinon le fichier complet est renvoyé. Sans If-Range, la plage est toujours servie.
+     */
+    private static boolean ifRangeValide(String ifRange, String etag, long dateModification) {
+        if (ifRange == null) {
+            return true;
+        }
+        String valeur = ifRange.trim();
+        if (valeur.startsWith("\"") || valeur.startsWith("W/")) {
+            return valeur.equals(etag); // Un ETag faible ne correspond jamais (comparaison forte)
+        }
+        return valeur.equals(formaterDateHttp(dateModification));
+    }
+
+    /**
+     * Formate une date (millisecondes) au format HTTP (IMF-fixdate, RFC 9110 section 5.6.7), à la seconde près.
+     * RFC_1123_DATE_TIME écrit le jour sur un seul chiffre ("Fri, 5 Jan ..."), ce que IMF-fixdate interdit.
+     */
+    static String formaterDateHttp(long millis) {
+        return DATE_HTTP.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * Envoie une ou plusieurs plages d'un fichier (206 Partial Content), ou 416 si aucune n'est satisfiable.
+     * Seuls les octets demandés sont lus : une reprise au milieu d'une vidéo ne recharge pas le début.
+     * @return Le statut envoyé, pour le journal d'accès.
+     */
+    private static String sendFileRanges(SortieHttp out, File file, String contentType, String enTetesEnvoi,
+                                         List<PlagesOctets.Plage> plages, long tailleFichier) throws IOException {
+        if (plages.isEmpty()) {
+            String status = "416 Range Not Satisfiable";
+            byte[] body = "Plage demandée hors du fichier.\n".getBytes(StandardCharsets.UTF_8);
+            String responseHeader = "HTTP/1.1 " + status + "\r\n" +
+                    "Content-Type: text/plain\r\n" +
+                    "Content-Range: bytes */" + tailleFichier + "\r\n" +
+                    "Content-Length: " + body.length + "\r\n";
+            out.write(responseHeader.getBytes(StandardCharsets.UTF_8));
+            out.write(out.ligneConnexion());
+            out.write(body);
+            out.flush();
+            return status;
+        }
+
+        String status = "206 Partial Content";
+        if (plages.size() == 1) {
+            PlagesOctets.Plage plage = plages.get(0);
+            String responseHeader = "HTTP/1.1 " + status + "\r\n" +
+                    "Content-Type: " + contentType + "; charset=UTF-8\r\n" +
+                    "Accept-Ranges: bytes\r\n" +
+                    "Content-Range: " + plage.contentRange(tailleFichier) + "\r\n" +
+                    "Content-Length: " + plage.getLongueur() + "\r\n" +
+                    enTetesEnvoi;
+            out.write(responseHeader.getBytes(StandardCharsets.UTF_8));
+            out.write(out.ligneConnexion());
+            out.envoyerFichier(file.toPath(), plage.getDebut(), plage.getLongueur());
+            out.flush();
+            return status;
+        }
+
+        // Plusieurs plages : corps multipart/byteranges, dont la longueur totale est calculée à l'avance
+        String boundary = Long.toHexString(System.nanoTime()) + Long.toHexString(tailleFichier);
+        List<byte[]> enTetesParties = new ArrayList<>();
+        long contentLength = 0;
+        for (PlagesOctets.Plage plage : plages) {
+            byte[] enTetePartie = ("\r\n--" + boundary + "\r\n" +
+                    "Content-Type: " + contentType + "\r\n" +
+                    "Content-Range: " + plage.contentRange(tailleFichier) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+            enTetesParties.add(enTetePartie);
+            contentLength += enTetePartie.length + plage.getLongueur();
+        }
+        byte[] fin = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        contentLength += fin.length;
+
+        String responseHeader = "HTTP/1.1 " + status + "\r\n" +
+                "Content-Type: multipart/byteranges; boundary=" + boundary + "\r\n" +
+                "Accept-Ranges: bytes\r\n" +
+                "Content-Length: " + contentLength + "\r\n" +
+                enTetesEnvoi;
+        out.write(responseHeader.getBytes(StandardCharsets.UTF_8));
+        out.write(out.ligneConnexion());
+        for (int i = 0; i < plages.size(); i++) {
+            PlagesOctets.Plage plage = plages.get(i);
+            out.write(enTetesParties.get(i));
+            out.envoyerFichier(file.toPath(), plage.getDebut(), plage.getLongueur());
         }
+        out.write(fin);
+        out.flush();
+        return status;
     }
 
-    private static void sendHttpResponse(OutputStream out, String status, String contentType, String body) throws IOException {
+    static void sendHttpResponse(SortieHttp out, String status, String contentType, String body) throws IOException {
         // Le Content-Length doit être la taille en octets du corps, pas le nombre de caractères.
         // Utiliser StandardCharsets.UTF_8 pour obtenir les octets du corps.
         byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        // Pages générées (listing, erreurs) : compressées à la volée si le client l'accepte et qu'elles sont assez grosses
+        boolean compresser = out.isGzipAccepte() && Compression.estCompressible(contentType) && bodyBytes.length >= out.getGzipTailleMin();
+        sendHttpResponse(out, status, contentType, bodyBytes, compresser ? Compression.gzip(bodyBytes) : null);
+    }
+
+    /**
+     * Envoie un corps déjà encodé, avec sa variante gzip si elle est connue (pages pré-calculées comme /info.html).
+     * @param bodyGzip Corps compressé, ou null pour toujours envoyer bodyBytes.
+     */
+    static void sendHttpResponse(SortieHttp out, String status, String contentType, byte[] bodyBytes, byte[] bodyGzip) throws IOException {
+        String encodage = "";
+        if (out.isGzipAccepte() && Compression.estCompressible(contentType)) {
+            encodage = "Vary: Accept-Encoding\r\n";
+            if (bodyGzip != null && bodyBytes.length >= out.getGzipTailleMin()) {
+                bodyBytes = bodyGzip;
+                encodage += "Content-Encoding: gzip\r\n";
+            }
+        }
         String responseHeader = "HTTP/1.1 " + status + "\r\n" +
                 "Content-Type: " + contentType + "\r\n" +
+                encodage +
                 "Content-Length: " + bodyBytes.length + "\r\n" +
-                "Connection: close\r\n\r\n"; // Ferme la connexion après chaque réponse
+                "Connection: " + out.enTeteConnexion() + "\r\n\r\n"; // close ou keep-alive selon la connexion
 
         out.write(responseHeader.getBytes(StandardCharsets.UTF_8)); // En-têtes en UTF-8
         out.write(bodyBytes); // Corps en UTF-8
         out.flush();
     }
 
-    private static void sendDirectoryListing(OutputStream out, File directory, String clientIp, String method, String requestedPath) throws IOException {
+    private static void sendDirectoryListing(SortieHttp out, ConfigActive.Site site, File directory, String clientIp, String method, String requestedPath) throws IOException {
         StringBuilder htmlContent = new StringBuilder();
         htmlContent.append("<!DOCTYPE html>\n");
         htmlContent.append("<html><head><title>Index of ").append(requestedPath).append("</title>");
@@ -276,7 +890,7 @@ public class WebServeur {
             // Correction pour le chemin parent : s'assurer qu'il est correct et relatif
             try {
                 String canonicalDirectoryPath = directory.getCanonicalPath();
-                String canonicalDocumentRootPath = new File(currentDocumentRoot).getCanonicalPath();
+                String canonicalDocumentRootPath = site.getCacheChemins().getRacineCanonique(); // Calculé une seule fois
 
                 if (!canonicalDirectoryPath.equals(canonicalDocumentRootPath)) {
                     // Si on n'est pas à la racine du DocumentRoot
@@ -293,7 +907,7 @@ public class WebServeur {
                     htmlContent.append("<li><a href=\"").append(encodedParentLink).append("\">.. (Parent Directory)</a></li>");
                 }
             } catch (IOException e) {
-                logError("Erreur lors de la détermination du chemin parent pour le listing de répertoire : " + e.getMessage());
+                logError(site, "Erreur lors de la détermination du chemin parent pour le listing de répertoire : " + e.getMessage());
                 System.out.println("Erreur lors de la détermination du chemin parent pour le listing de répertoire : " + e.getMessage()); // System.out.println
                 // Ne pas bloquer l'affichage, mais ajouter un message d'erreur dans les logs
             }
@@ -324,7 +938,7 @@ public class WebServeur {
         htmlContent.append("</ul></body></html>");
 
         sendHttpResponse(out, "200 OK", "text/html; charset=UTF-8", htmlContent.toString());
-        logAccess(clientIp, method, requestedPath, "200 OK");
+        logAccess(site, clientIp, method, requestedPath, "200 OK");
     }
 
     private static String getContentType(String fileName) {
@@ -380,45 +994,43 @@ public class WebServeur {
     /**
      * Enregistre les accès au serveur dans un fichier de log.
      * Le format est un exemple simple : [Date Heure] [IP Client] [Méthode] [Chemin] [Statut HTTP]
+     * Sans site connu (requête rejetée avant analyse), l'accès va dans le journal du site principal.
      */
-    private static void logAccess(String clientIp, String method, String path, String status) {
-        if (accessLogPath == null) {
-            return; // Le logging d'accès est désactivé si accessLogPath est null
-        }
-        try {
-            String timestamp = LocalDateTime.now().format(LOG_DATE_FORMATTER);
-            String logEntry = String.format("[%s] %s %s %s %s%n",
-                    timestamp,
-                    clientIp != null ? clientIp : "UNKNOWN_IP",
-                    method != null ? method : "UNKNOWN_METHOD",
-                    path != null ? path : "UNKNOWN_PATH",
-                    status != null ? status : "UNKNOWN_STATUS");
-            // Utilisation de StandardCharsets.UTF_8 pour les logs
-            Files.write(Paths.get(accessLogPath), logEntry.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-        } catch (IOException e) {
-            System.out.println("Erreur lors de l'écriture dans le fichier de log d'accès " + accessLogPath + " : " + e.getMessage());
-            // On ne log pas dans errorLog ici pour éviter une boucle infinie si errorLog a aussi un problème
+    static void logAccess(String clientIp, String method, String path, String status) {
+        ConfigActive config = configActive;
+        logAccess(config != null ? config.getSitePrincipal() : null, clientIp, method, path, status);
+    }
+
+    static void logAccess(ConfigActive.Site site, String clientIp, String method, String path, String status) {
+        Metriques.compterRequete(method, path, status);
+        JournalAsync journal = site != null ? site.getJournalAcces() : null;
+        if (journal == null) {
+            return; // Le logging d'accès est désactivé si AccessLog n'est pas configuré
         }
+        // Simple concaténation (pas de String.format) ; l'écriture disque est faite par le thread du journal
+        journal.ajouter("[" + JournalAsync.horodatage() + "] " +
+                (clientIp != null ? clientIp : "UNKNOWN_IP") + " " +
+                (method != null ? method : "UNKNOWN_METHOD") + " " +
+                (path != null ? path : "UNKNOWN_PATH") + " " +
+                (status != null ? status : "UNKNOWN_STATUS") + System.lineSeparator());
     }
 
     /**
      * Enregistre les erreurs du serveur dans un fichier de log.
      * Le format est un exemple simple : [Date Heure] ERROR: [Message d'erreur]
      */
-    private static void logError(String errorMessage) {
-        if (errorLogPath == null) {
-            return; // Le logging d'erreur est désactivé si errorLogPath est null
-        }
-        try {
-            String timestamp = LocalDateTime.now().format(LOG_DATE_FORMATTER);
-            String logEntry = String.format("[%s] ERROR: %s%n",
-                    timestamp,
-                    errorMessage != null ? errorMessage : "NO_ERROR_MESSAGE");
-            // Utilisation de StandardCharsets.UTF_8 pour les logs
-            Files.write(Paths.get(errorLogPath), logEntry.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-        } catch (IOException e) {
-            System.out.println("Erreur lors de l'écriture dans le fichier de log d'erreur " + errorLogPath + " : " + e.getMessage());
+    static void logError(String errorMessage) {
+        ConfigActive config = configActive;
+        logError(config != null ? config.getSitePrincipal() : null, errorMessage);
+    }
+
+    static void logError(ConfigActive.Site site, String errorMessage) {
+        JournalAsync journal = site != null ? site.getJournalErreurs() : null;
+        if (journal == null) {
+            return; // Le logging d'erreur est désactivé si ErrorLog n'est pas configuré
         }
+        journal.ajouter("[" + JournalAsync.horodatage() + "] ERROR: " +
+                (errorMessage != null ? errorMessage : "NO_ERROR_MESSAGE") + System.lineSeparator());
     }
 
     // Méthodes utilitaires pour fermer les sockets et les streams en toute sécurité
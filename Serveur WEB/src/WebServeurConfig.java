@@ -1,15 +1,20 @@
+import javax.xml.stream.XMLStreamException;
 import java.io.File;
 import java.io.IOException; // Ajout de l'import pour IOException
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
     public class WebServeurConfig {
 
         // --- Constantes pour le fichier de configuration et les valeurs par défaut ---
         // Correction ici : le chemin du fichier de configuration doit être /tmp/etc/myweb/myweb.conf
-        private static final String CONFIG_FILE_PATH = "../XML/conf.xml";
+        static final String CONFIG_FILE_PATH = "../XML/conf.xml";
 
         private static final int DEFAULT_PORT = 80; // Utilisation du port 80 par défaut comme demandé
         private static final String DEFAULT_DOCUMENT_ROOT = Paths.get(System.getProperty("user.dir")).toAbsolutePath().toString(); // Répertoire racine par défaut selon la SAE
@@ -18,170 +23,634 @@ import java.util.List;
         private static final List<String> DEFAULT_DENIED_IPS = new ArrayList<>(); // Aucune IP refusée par défaut
         private static final String DEFAULT_ACCESS_LOG_PATH = null; // Par défaut, pas de log d'accès
         private static final String DEFAULT_ERROR_LOG_PATH = null;   // Par défaut, pas de log d'erreur
+        private static final String DEFAULT_EXECUTOR = "virtual"; // Threads virtuels si la JVM les supporte, sinon pool fixe
+        private static final int DEFAULT_MAX_THREADS = 200; // Taille du pool fixe (ignorée pour les threads virtuels)
+        private static final String DEFAULT_ENGINE = "blocking"; // Moteur historique : ServerSocket + un thread par connexion
+        private static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 5; // Secondes d'inactivité avant fermeture d'une connexion persistante
+        private static final int DEFAULT_MAX_KEEP_ALIVE_REQUESTS = 100; // Requêtes max sur une même connexion
+        private static final long DEFAULT_FILE_CACHE_SIZE = 32L * 1024 * 1024; // Budget total du cache de fichiers (0 = désactivé)
+        private static final long DEFAULT_FILE_CACHE_MAX_ENTRY = 1024L * 1024; // Taille max d'un fichier mis en cache
+        private static final String DEFAULT_GZIP = "on"; // Compression gzip des réponses texte
+        private static final int DEFAULT_GZIP_MIN_SIZE = 1024; // En dessous, le gain ne compense pas le coût
+        private static final int DEFAULT_LOG_BUFFER_SIZE = 8192; // Lignes de journal en attente d'écriture au maximum
+        private static final String DEFAULT_LOG_OVERFLOW = "count"; // Tampon plein : "block", "drop" ou "count"
+        private static final int DEFAULT_LOG_FLUSH_INTERVAL = 200; // Millisecondes entre deux écritures groupées
+        private static final long DEFAULT_LOG_ROTATE_SIZE = 100L * 1024 * 1024; // Octets ; 0 désactive la rotation par taille
+        private static final String DEFAULT_LOG_ROTATE_PERIOD = "daily"; // "none", "hourly" ou "daily"
+        private static final int DEFAULT_LOG_RETENTION = 7; // Segments renommés conservés ; 0 les conserve tous
+        private static final String DEFAULT_LOG_COMPRESS = "on"; // Compression gzip des segments renommés
+        private static final int DEFAULT_INFO_REFRESH_INTERVAL = 2000; // Millisecondes entre deux échantillons de /info.html
+        private static final int DEFAULT_INFO_STREAM_INTERVAL = 5; // Secondes entre deux événements du flux /info/stream
+        private static final int DEFAULT_RATE_LIMIT = 200; // Requêtes par seconde et par IP ; 0 désactive la limite de débit
+        private static final int DEFAULT_RATE_LIMIT_BURST = 400; // Requêtes acceptées d'un coup avant que le débit ne s'applique
+        private static final int DEFAULT_MAX_CONNECTIONS_PER_IP = 100; // Connexions simultanées par IP ; 0 désactive la limite
+        private static final int DEFAULT_RATE_LIMIT_TABLE_SIZE = 65536; // Nombre maximal d'IPs suivies par le limiteur
+        private static final long DEFAULT_MAX_BODY_SIZE = 10L * 1024 * 1024; // Taille max du corps d'une requête (hors envoi de fichiers), conservé ou jeté, en octets
+        private static final String DEFAULT_FORM_DATA_FILE = "./data.txt"; // Enregistrements du formulaire, comme form_handler.bashrc
+        private static final String DEFAULT_FORM_DATA_DIR = "./data.db";
+        private static final String DEFAULT_UPLOAD_PATH = ""; // Chemin des envois de fichiers ; vide (défaut) pour les refuser
+        private static final String DEFAULT_UPLOAD_DIR = "./uploads"; // Sous le DocumentRoot par défaut : fichiers servis ensuite
+        private static final String DEFAULT_UPLOAD_EXTENSIONS = "txt,pdf,png,jpg,jpeg,gif,webp,mp3,mp4,zip"; // Extensions acceptées à l'envoi
+        private static final long DEFAULT_MAX_UPLOAD_SIZE = 1024L * 1024 * 1024; // Taille max d'un envoi (toutes parties), en octets
+        private static final long DEFAULT_MAX_UPLOAD_PART_SIZE = 512L * 1024 * 1024; // Taille max d'un fichier envoyé, en octets
+        private static final int DEFAULT_MIN_WORKERS = 1; // Processus gardés en vie par traitement externe
+        private static final int DEFAULT_MAX_WORKERS = 4; // Processus lancés au plus par traitement externe
+        private static final int DEFAULT_HANDLER_TIMEOUT = 10000; // Millisecondes accordées à un processus pour répondre
+        private static final int DEFAULT_HEALTH_CHECK_INTERVAL = 30; // Secondes entre deux contrôles de santé des processus
+        private static final int DEFAULT_EVENT_LOOPS = Runtime.getRuntime().availableProcessors(); // Une boucle NIO par cœur
 
 
-        // Variables pour stocker la configuration actuelle
-        private int port;
-        private String documentRoot;
-        private String directoryListing;
-        private List<String> allowedIps;
-        private List<String> deniedIps;
-        private String accessLogPath;
-        private String errorLogPath;
+        // Configuration chargée : immuable, donc partageable entre threads sans synchronisation
+        private final int port;
+        private final String documentRoot;
+        private final String directoryListing;
+        private final List<String> allowedIps;
+        private final List<String> deniedIps;
+        private final boolean defaultAccept;
+        private final String accessLogPath;
+        private final String errorLogPath;
+        private final String executor;
+        private final int maxThreads;
+        private final String engine;
+        private final int eventLoops;
+        private final int keepAliveTimeout;
+        private final int maxKeepAliveRequests;
+        private final long fileCacheSize;
+        private final long fileCacheMaxEntry;
+        private final String gzip;
+        private final int gzipMinSize;
+        private final int logBufferSize;
+        private final String logOverflow;
+        private final int logFlushInterval;
+        private final long logRotateSize;
+        private final String logRotatePeriod;
+        private final int logRetention;
+        private final String logCompress;
+        private final int infoRefreshInterval;
+        private final int infoStreamInterval;
+        private final int rateLimit;
+        private final int rateLimitBurst;
+        private final int maxConnectionsPerIp;
+        private final int rateLimitTableSize;
+        private final long maxBodySize;
+        private final String formDataFile;
+        private final String formDataDir;
+        private final String uploadPath;
+        private final String uploadDir;
+        private final List<String> uploadExtensions;
+        private final long maxUploadSize;
+        private final long maxUploadPartSize;
+        private final List<HoteVirtuel> hotesVirtuels;
+        private final List<TraitementExterne> traitementsExternes;
+        private final List<String> avertissements; // Tous les problèmes relevés pendant le chargement
+        private final boolean fichierLu; // false : fichier absent ou mal formé, toutes les valeurs sont celles par défaut
 
 
         public WebServeurConfig() {
-            // Initialiser avec les valeurs par défaut
-            this.port = DEFAULT_PORT;
-            this.documentRoot = DEFAULT_DOCUMENT_ROOT;
-            this.directoryListing = DEFAULT_DIRECTORY_LISTING_SETTING;
-            this.allowedIps = new ArrayList<>(DEFAULT_ALLOWED_IPS);
-            this.deniedIps = new ArrayList<>(DEFAULT_DENIED_IPS);
-            this.accessLogPath = DEFAULT_ACCESS_LOG_PATH;
-            this.errorLogPath = DEFAULT_ERROR_LOG_PATH;
-
-            loadConfiguration(); // Charger la configuration à partir du fichier XML
+            this(CONFIG_FILE_PATH);
         }
 
-        private void loadConfiguration() {
-            System.out.println("Chargement de la configuration depuis : " + CONFIG_FILE_PATH);
-            File configFile = new File(CONFIG_FILE_PATH);
+        /**
+         * Charge la configuration en une seule lecture du fichier XML. Chaque valeur absente ou invalide est remplacée
+         * par sa valeur par défaut ; les avertissements sont regroupés et affichés ensemble à la fin du chargement.
+         */
+        public WebServeurConfig(String cheminFichier) {
+            System.out.println("Chargement de la configuration depuis : " + cheminFichier);
+            Lecture lecture = new Lecture(cheminFichier);
 
-            if (!configFile.exists() || !configFile.isFile() || !configFile.canRead()) {
-                System.out.println("Avertissement : Fichier de configuration " + CONFIG_FILE_PATH + " introuvable ou illisible. Utilisation des valeurs par défaut.");
-                // Si le fichier n'est pas trouvé ou accessible, on garde les valeurs par défaut déjà initialisées
-                return;
+            lecture.signalerAbsence("port", "Utilisation du port par défaut : " + DEFAULT_PORT);
+            this.port = lecture.entier("port", DEFAULT_PORT, 0, 65535);
+            this.documentRoot = lireDocumentRoot(lecture);
+            lecture.signalerAbsence("DirectoryListing", "Utilisation de la valeur par défaut : " + DEFAULT_DIRECTORY_LISTING_SETTING);
+            this.directoryListing = lecture.texteOuDefaut("DirectoryListing", DEFAULT_DIRECTORY_LISTING_SETTING).toLowerCase();
+
+            // Filtrage IP : Allow/Deny, complétés par <security><accept>/<reject> et par les fichiers AllowFile/DenyFile
+            List<String> allowed = lecture.isFichierLu() ? lireListeIps(lecture, "Allow",
+                    "Toutes les IPs seront autorisées.") : new ArrayList<>(DEFAULT_ALLOWED_IPS);
+            List<String> denied = lecture.isFichierLu() ? lireListeIps(lecture, "Deny",
+                    "Aucune IP ne sera spécifiquement refusée.") : new ArrayList<>(DEFAULT_DENIED_IPS);
+            ajouterIps(lecture.texte("security/accept"), allowed);
+            ajouterIps(lecture.texte("security/reject"), denied);
+            ajouterPlagesDepuisFichier(lecture, "AllowFile", allowed);
+            ajouterPlagesDepuisFichier(lecture, "DenyFile", denied);
+            this.allowedIps = Collections.unmodifiableList(allowed);
+            this.deniedIps = Collections.unmodifiableList(denied);
+            this.defaultAccept = lireDefaultAccept(lecture, "security/default", allowed.isEmpty());
+
+            // <AccessLog>/<ErrorLog> prioritaires, sinon <security><accesslog>/<errorlog>
+            this.accessLogPath = lireCheminJournal(lecture, "AccessLog", "security/accesslog", DEFAULT_ACCESS_LOG_PATH, "log d'accès", "Le journal d'accès sera désactivé.");
+            this.errorLogPath = lireCheminJournal(lecture, "ErrorLog", "security/errorlog", DEFAULT_ERROR_LOG_PATH, "log d'erreur", "Le journal d'erreur sera désactivé.");
+
+            // Mode d'exécution des connexions : "virtual" (un thread virtuel par connexion), "fixed" (pool borné)
+            this.executor = lecture.choix("Executor", DEFAULT_EXECUTOR, "virtual", "fixed");
+            this.maxThreads = lecture.entier("MaxThreads", DEFAULT_MAX_THREADS, 1, Integer.MAX_VALUE);
+
+            // Moteur du serveur : "blocking" (ServerSocket) ou "nio" (Selector non bloquant)
+            this.engine = lecture.choix("Engine", DEFAULT_ENGINE, "blocking", "nio");
+            this.eventLoops = lecture.entier("EventLoops", DEFAULT_EVENT_LOOPS, 1, Integer.MAX_VALUE);
+
+            // Connexions persistantes : délai d'inactivité (secondes) et nombre max de requêtes par connexion
+            this.keepAliveTimeout = lecture.entier("KeepAliveTimeout", DEFAULT_KEEP_ALIVE_TIMEOUT, 1, Integer.MAX_VALUE);
+            this.maxKeepAliveRequests = lecture.entier("MaxKeepAliveRequests", DEFAULT_MAX_KEEP_ALIVE_REQUESTS, 1, Integer.MAX_VALUE);
+
+            // Cache mémoire des petits fichiers : budget total et taille max d'un fichier, en octets
+            this.fileCacheSize = lecture.entierLong("FileCacheSize", DEFAULT_FILE_CACHE_SIZE, 0);
+            this.fileCacheMaxEntry = lecture.entierLong("FileCacheMaxEntry", DEFAULT_FILE_CACHE_MAX_ENTRY, 1);
+
+            // Compression gzip ("on"/"off") et taille minimale d'une réponse pour être compressée
+            this.gzip = lecture.texteOuDefaut("Gzip", DEFAULT_GZIP).toLowerCase();
+            this.gzipMinSize = lecture.entier("GzipMinSize", DEFAULT_GZIP_MIN_SIZE, 0, Integer.MAX_VALUE);
+
+            // Journaux asynchrones : taille du tampon, politique de débordement, intervalle d'écriture
+            this.logBufferSize = lecture.entier("LogBufferSize", DEFAULT_LOG_BUFFER_SIZE, 1, Integer.MAX_VALUE);
+            this.logOverflow = lecture.choix("LogOverflow", DEFAULT_LOG_OVERFLOW, "block", "drop", "count");
+            this.logFlushInterval = lecture.entier("LogFlushInterval", DEFAULT_LOG_FLUSH_INTERVAL, 1, Integer.MAX_VALUE);
+
+            // Rotation des journaux : taille, période, rétention et compression des segments
+            this.logRotateSize = lecture.entierLong("LogRotateSize", DEFAULT_LOG_ROTATE_SIZE, 0);
+            this.logRotatePeriod = lecture.choix("LogRotatePeriod", DEFAULT_LOG_ROTATE_PERIOD, "none", "hourly", "daily");
+            this.logRetention = lecture.entier("LogRetention", DEFAULT_LOG_RETENTION, 0, Integer.MAX_VALUE);
+            this.logCompress = lecture.texteOuDefaut("LogCompress", DEFAULT_LOG_COMPRESS).toLowerCase();
+
+            // Intervalles d'échantillonnage de /info.html et du flux /info/stream
+            this.infoRefreshInterval = lecture.entier("InfoRefreshInterval", DEFAULT_INFO_REFRESH_INTERVAL, 1, Integer.MAX_VALUE);
+            this.infoStreamInterval = lecture.entier("InfoStreamInterval", DEFAULT_INFO_STREAM_INTERVAL, 1, Integer.MAX_VALUE);
+
+            // Limites par IP : débit (seau à jetons) et connexions simultanées
+            this.rateLimit = lecture.entier("RateLimit", DEFAULT_RATE_LIMIT, 0, Integer.MAX_VALUE);
+            this.rateLimitBurst = lecture.entier("RateLimitBurst", DEFAULT_RATE_LIMIT_BURST, 1, Integer.MAX_VALUE);
+            this.maxConnectionsPerIp = lecture.entier("MaxConnectionsPerIp", DEFAULT_MAX_CONNECTIONS_PER_IP, 0, Integer.MAX_VALUE);
+            this.rateLimitTableSize = lecture.entier("RateLimitTableSize", DEFAULT_RATE_LIMIT_TABLE_SIZE, 1, Integer.MAX_VALUE);
+
+            // Corps des requêtes POST : au-delà, réponse 413 (les petits corps restent en mémoire, les autres sur disque)
+            this.maxBodySize = lecture.entierLong("MaxBodySize", DEFAULT_MAX_BODY_SIZE, 0);
+
+            // Noms et e-mails enregistrés par le formulaire de index.html : magasin (répertoire de segments),
+            // et ancien fichier "nom,email" de form_handler.bashrc, importé une fois dans un magasin vide
+            this.formDataDir = lecture.texteOuDefaut("FormDataDir", DEFAULT_FORM_DATA_DIR);
+            this.formDataFile = lecture.texteOuDefaut("FormDataFile", DEFAULT_FORM_DATA_FILE);
+
+            // Envoi de fichiers (multipart/form-data), écrits au fil de la réception dans UploadDir
+            this.uploadPath = lecture.texteOuDefaut("UploadPath", DEFAULT_UPLOAD_PATH);
+            this.uploadDir = lecture.texteOuDefaut("UploadDir", DEFAULT_UPLOAD_DIR);
+            this.uploadExtensions = lireExtensions(lecture.texteOuDefaut("UploadExtensions", DEFAULT_UPLOAD_EXTENSIONS));
+            this.maxUploadSize = lecture.entierLong("MaxUploadSize", DEFAULT_MAX_UPLOAD_SIZE, 0);
+            this.maxUploadPartSize = lecture.entierLong("MaxUploadPartSize", DEFAULT_MAX_UPLOAD_PART_SIZE, 0);
+
+            // Hôtes virtuels : sections <VirtualHost> répétées, choisies d'après l'en-tête Host de chaque requête
+            List<HoteVirtuel> hotes = new ArrayList<>();
+            for (int i = 1; ; i++) {
+                String prefixe = i == 1 ? "VirtualHost" : "VirtualHost[" + i + "]";
+                if (!lecture.contientSection(prefixe)) {
+                    break;
+                }
+                HoteVirtuel hote = lireHoteVirtuel(lecture, prefixe);
+                if (hote != null) {
+                    hotes.add(hote);
+                }
             }
+            this.hotesVirtuels = Collections.unmodifiableList(hotes);
 
-            try {
-                // Utiliser XmlValueExtracteur pour lire les valeurs
-                String portString = XmlValueExtracteur.getTagTextValue(CONFIG_FILE_PATH, "port");
-                if (!portString.isEmpty()) {
+            // Traitements externes : sections <ExternalHandler> répétées, un pool de processus par chemin
+            List<TraitementExterne> traitements = new ArrayList<>();
+            for (int i = 1; ; i++) {
+                String prefixe = i == 1 ? "ExternalHandler" : "ExternalHandler[" + i + "]";
+                if (!lecture.contientSection(prefixe)) {
+                    break;
+                }
+                TraitementExterne traitement = lireTraitementExterne(lecture, prefixe);
+                if (traitement != null) {
+                    traitements.add(traitement);
+                }
+            }
+            this.traitementsExternes = Collections.unmodifiableList(traitements);
+
+            this.avertissements = Collections.unmodifiableList(lecture.avertissements);
+            this.fichierLu = lecture.isFichierLu();
+            if (!avertissements.isEmpty()) {
+                System.out.println("Configuration chargée avec " + avertissements.size() + " avertissement(s) :");
+                for (String avertissement : avertissements) {
+                    System.out.println("  - " + avertissement);
+                }
+            }
+        }
+
+        /**
+         * Valeurs brutes du fichier, lues une seule fois, et avertissements accumulés pendant leur validation.
+         */
+        private static final class Lecture {
+            private final Map<String, String> valeurs;
+            private final List<String> avertissements = new ArrayList<>();
+            private final boolean fichierLu;
+
+            Lecture(String cheminFichier) {
+                File configFile = new File(cheminFichier);
+                Map<String, String> lues = Collections.emptyMap();
+                boolean lu = false;
+                if (!configFile.exists() || !configFile.isFile() || !configFile.canRead()) {
+                    avertissements.add("Fichier de configuration " + cheminFichier + " introuvable ou illisible. Utilisation des valeurs par défaut.");
+                } else {
                     try {
-                        int parsedPort = Integer.parseInt(portString);
-                        if (parsedPort >= 0 && parsedPort <= 65535) { // Vérifier la validité du port
-                            this.port = parsedPort;
-                        } else {
-                            System.out.println("Avertissement : Port configuré invalide (" + parsedPort + "). Utilisation du port par défaut : " + DEFAULT_PORT); // System.out.println
-                        }
-                    } catch (NumberFormatException e) {
-                        System.out.println("Avertissement : Le port configuré n'est pas un nombre valide. Utilisation du port par défaut : " + DEFAULT_PORT); // System.out.println
+                        lues = XmlValueExtracteur.lireValeurs(cheminFichier);
+                        lu = true;
+                    } catch (IOException | XMLStreamException e) {
+                        avertissements.add("Erreur critique lors du parsing du fichier de configuration : " + e.getMessage() + ". Utilisation des valeurs par défaut.");
                     }
-                } else {
-                    System.out.println("Avertissement : La balise <port> est introuvable ou vide. Utilisation du port par défaut : " + DEFAULT_PORT);
                 }
+                this.valeurs = lues;
+                this.fichierLu = lu;
+            }
 
-                String documentRootString = XmlValueExtracteur.getTagTextValue(CONFIG_FILE_PATH, "DocumentRoot");
-                if (!documentRootString.isEmpty()) {
-                    // S'assurer que le documentRoot est un chemin absolu et valide
-                    File rootDir = new File(documentRootString);
-                    // Utiliser getCanonicalPath pour résoudre les chemins relatifs et les ".."
-                    // et s'assurer que le répertoire existe et est accessible
-                    try {
-                        if (rootDir.exists() && rootDir.isDirectory() && rootDir.canRead()) {
-                            this.documentRoot = rootDir.getCanonicalPath(); // Assurer un chemin canonique
-                        } else {
-                            System.out.println("Avertissement : DocumentRoot configuré (" + documentRootString + ") est invalide ou inaccessible. Utilisation du DocumentRoot par défaut : " + DEFAULT_DOCUMENT_ROOT); // System.out.println
-                        }
-                    } catch (IOException e) {
-                        System.out.println("Avertissement : Erreur lors de la résolution du chemin canonical de DocumentRoot (" + documentRootString + "). Utilisation du DocumentRoot par défaut : " + DEFAULT_DOCUMENT_ROOT + " : " + e.getMessage()); // System.out.println
+            boolean isFichierLu() { return fichierLu; }
+
+            /**
+             * Indique si le fichier contient au moins une balise sous cette section ("VirtualHost[2]").
+             */
+            boolean contientSection(String prefixe) {
+                String debut = prefixe + "/";
+                for (String cle : valeurs.keySet()) {
+                    if (cle.startsWith(debut)) {
+                        return true;
                     }
-                } else {
-                    System.out.println("Avertissement : La balise <DocumentRoot> est introuvable ou vide. Utilisation du DocumentRoot par défaut : " + DEFAULT_DOCUMENT_ROOT);
                 }
+                return false;
+            }
 
-                String directoryListingString = XmlValueExtracteur.getTagTextValue(CONFIG_FILE_PATH, "DirectoryListing");
-                if (!directoryListingString.isEmpty()) {
-                    // Normaliser la valeur pour être insensible à la casse
-                    this.directoryListing = directoryListingString.toLowerCase();
-                } else {
-                    System.out.println("Avertissement : La balise <DirectoryListing> est introuvable ou vide. Utilisation de la valeur par défaut : " + DEFAULT_DIRECTORY_LISTING_SETTING);
+            void avertir(String message) { avertissements.add(message); }
+
+            /**
+             * Signale une balise attendue mais absente du fichier (rien à signaler si le fichier n'a pas pu être lu).
+             */
+            void signalerAbsence(String balise, String consequence) {
+                if (fichierLu && texte(balise).isEmpty()) {
+                    avertir("La balise <" + balise + "> est introuvable ou vide. " + consequence);
                 }
+            }
 
-                String allowedIpsString = XmlValueExtracteur.getTagTextValue(CONFIG_FILE_PATH, "Allow");
-                if (!allowedIpsString.isEmpty()) {
-                    this.allowedIps.clear(); // Efface les valeurs par défaut avant d'ajouter celles du XML
-                    for (String ip : allowedIpsString.split(",")) {
-                        String trimmedIp = ip.trim();
-                        if (!trimmedIp.isEmpty()) {
-                            this.allowedIps.add(trimmedIp);
-                        }
+            /**
+             * Texte de la balise (nom simple ou chemin "section/balise"), chaîne vide si absente.
+             */
+            String texte(String balise) {
+                String valeur = valeurs.get(balise);
+                return valeur == null ? "" : valeur;
+            }
+
+            String texteOuDefaut(String balise, String defaut) {
+                String valeur = texte(balise);
+                return valeur.isEmpty() ? defaut : valeur;
+            }
+
+            int entier(String balise, int defaut, int min, int max) {
+                return (int) entierBorne(balise, defaut, min, max);
+            }
+
+            long entierLong(String balise, long defaut, long min) {
+                return entierBorne(balise, defaut, min, Long.MAX_VALUE);
+            }
+
+            private long entierBorne(String balise, long defaut, long min, long max) {
+                String valeur = texte(balise);
+                if (valeur.isEmpty()) {
+                    return defaut;
+                }
+                try {
+                    long nombre = Long.parseLong(valeur);
+                    if (nombre >= min && nombre <= max) {
+                        return nombre;
                     }
-                    if (this.allowedIps.isEmpty()) { // Si la balise était là mais vide/mal formée
-                        System.out.println("Avertissement : La balise <Allow> ne contient pas d'IPs valides. Aucune IP ne sera spécifiquement autorisée (toutes les IPs sont autorisées si 'Allow' est vide).");
-                        this.allowedIps = new ArrayList<>(); // Réinitialiser à une liste vide si la configuration explicite est vide
+                    avertir(balise + " configuré invalide (" + nombre + "). Utilisation de la valeur par défaut : " + defaut);
+                } catch (NumberFormatException e) {
+                    avertir(balise + " n'est pas un nombre valide (" + valeur + "). Utilisation de la valeur par défaut : " + defaut);
+                }
+                return defaut;
+            }
+
+            String choix(String balise, String defaut, String... valeursPermises) {
+                String valeur = texte(balise);
+                if (valeur.isEmpty()) {
+                    return defaut;
+                }
+                String normalisee = valeur.toLowerCase();
+                for (String permise : valeursPermises) {
+                    if (permise.equals(normalisee)) {
+                        return normalisee;
                     }
-                } else {
-                    System.out.println("Avertissement : La balise <Allow> est introuvable ou vide. Toutes les IPs seront autorisées.");
-                    this.allowedIps = new ArrayList<>(); // Si la balise n'existe pas, toutes les IPs sont autorisées
                 }
+                avertir(balise + " configuré invalide (" + valeur + "). Utilisation de la valeur par défaut : " + defaut);
+                return defaut;
+            }
+        }
 
+        /**
+         * Site servi pour un ou plusieurs noms d'hôte, avec sa racine, ses règles d'accès, ses journaux et son propre
+         * budget de cache. Les valeurs non renseignées dans la section reprennent celles de la configuration principale.
+         */
+        public static final class HoteVirtuel {
+            private final String serverName;
+            private final List<String> noms; // ServerName puis ServerAlias, en minuscules
+            private final String documentRoot;
+            private final String directoryListing;
+            private final List<String> allowedIps;
+            private final List<String> deniedIps;
+            private final boolean defaultAccept;
+            private final String accessLogPath;
+            private final String errorLogPath;
+            private final long fileCacheSize;
 
-                String deniedIpsString = XmlValueExtracteur.getTagTextValue(CONFIG_FILE_PATH, "Deny");
-                if (!deniedIpsString.isEmpty()) {
-                    this.deniedIps.clear(); // Efface les valeurs par défaut avant d'ajouter celles du XML
-                    for (String ip : deniedIpsString.split(",")) {
-                        String trimmedIp = ip.trim();
-                        if (!trimmedIp.isEmpty()) {
-                            this.deniedIps.add(trimmedIp);
-                        }
-                    }
-                    if (this.deniedIps.isEmpty()) { // Si la balise était là mais vide/mal formée
-                        System.out.println("Avertissement : La balise <Deny> ne contient pas d'IPs valides. Aucune IP ne sera spécifiquement refusée.");
-                    }
-                } else {
-                    System.out.println("Avertissement : La balise <Deny> est introuvable ou vide. Aucune IP ne sera spécifiquement refusée.");
+            HoteVirtuel(String serverName, List<String> noms, String documentRoot, String directoryListing, List<String> allowedIps,
+                        List<String> deniedIps, boolean defaultAccept, String accessLogPath, String errorLogPath, long fileCacheSize) {
+                this.serverName = serverName;
+                this.noms = Collections.unmodifiableList(noms);
+                this.documentRoot = documentRoot;
+                this.directoryListing = directoryListing;
+                this.allowedIps = Collections.unmodifiableList(allowedIps);
+                this.deniedIps = Collections.unmodifiableList(deniedIps);
+                this.defaultAccept = defaultAccept;
+                this.accessLogPath = accessLogPath;
+                this.errorLogPath = errorLogPath;
+                this.fileCacheSize = fileCacheSize;
+            }
+
+            public String getServerName() { return serverName; }
+
+            public List<String> getNoms() { return noms; }
+
+            public String getDocumentRoot() { return documentRoot; }
+
+            public String getDirectoryListing() { return directoryListing; }
+
+            public List<String> getAllowedIps() { return allowedIps; }
+
+            public List<String> getDeniedIps() { return deniedIps; }
+
+            public boolean isDefaultAccept() { return defaultAccept; }
+
+            public String getAccessLogPath() { return accessLogPath; }
+
+            public String getErrorLogPath() { return errorLogPath; }
+
+            public long getFileCacheSize() { return fileCacheSize; }
+        }
+
+        /**
+         * Chemin de requête confié à un script externe, exécuté par un pool de processus réutilisés (voir PoolTravailleurs).
+         */
+        public static final class TraitementExterne {
+            private final String chemin;
+            private final List<String> commande;
+            private final String repertoire; // null : répertoire courant du serveur
+            private final int minWorkers;
+            private final int maxWorkers;
+            private final int delaiMaxMillis;
+            private final int intervalleControle;
+
+            TraitementExterne(String chemin, List<String> commande, String repertoire, int minWorkers, int maxWorkers,
+                              int delaiMaxMillis, int intervalleControle) {
+                this.chemin = chemin;
+                this.commande = Collections.unmodifiableList(commande);
+                this.repertoire = repertoire;
+                this.minWorkers = minWorkers;
+                this.maxWorkers = maxWorkers;
+                this.delaiMaxMillis = delaiMaxMillis;
+                this.intervalleControle = intervalleControle;
+            }
+
+            /**
+             * Chemin traité : correspondance exacte, ou préfixe s'il se termine par '/'.
+             */
+            public String getChemin() { return chemin; }
+
+            public List<String> getCommande() { return commande; }
+
+            public String getRepertoire() { return repertoire; }
+
+            public int getMinWorkers() { return minWorkers; }
+
+            public int getMaxWorkers() { return maxWorkers; }
+
+            public int getDelaiMaxMillis() { return delaiMaxMillis; }
+
+            public int getIntervalleControle() { return intervalleControle; }
+        }
+
+        /**
+         * Lit une section <ExternalHandler> ; null (avec un avertissement) si Path ou Command manque ou est invalide.
+         */
+        private static TraitementExterne lireTraitementExterne(Lecture lecture, String prefixe) {
+            String chemin = lecture.texte(prefixe + "/Path");
+            if (!chemin.startsWith("/")) {
+                lecture.avertir("La section <" + prefixe + "> n'a pas de <Path> valide (" + chemin + "). Traitement externe ignoré.");
+                return null;
+            }
+            List<String> commande = new ArrayList<>();
+            for (String mot : lecture.texte(prefixe + "/Command").split("\\s+")) {
+                if (!mot.isEmpty()) {
+                    commande.add(mot); // Pas d'interprétation par un shell : "bash script.sh" et non une ligne de commande
                 }
+            }
+            if (commande.isEmpty()) {
+                lecture.avertir("La section <" + prefixe + "> (" + chemin + ") n'a pas de <Command>. Traitement externe ignoré.");
+                return null;
+            }
+            String repertoire = lecture.texte(prefixe + "/Directory");
+            if (!repertoire.isEmpty() && !new File(repertoire).isDirectory()) {
+                lecture.avertir(prefixe + "/Directory configuré invalide (" + repertoire + "). Utilisation de la valeur par défaut : répertoire courant");
+                repertoire = "";
+            }
+            int minWorkers = lecture.entier(prefixe + "/MinWorkers", DEFAULT_MIN_WORKERS, 0, Integer.MAX_VALUE);
+            int maxWorkers = lecture.entier(prefixe + "/MaxWorkers", Math.max(DEFAULT_MAX_WORKERS, minWorkers), 1, Integer.MAX_VALUE);
+            if (maxWorkers < minWorkers) {
+                lecture.avertir(prefixe + "/MaxWorkers configuré invalide (" + maxWorkers + " < MinWorkers). Utilisation de la valeur par défaut : " + minWorkers);
+                maxWorkers = minWorkers;
+            }
+            return new TraitementExterne(chemin, commande, repertoire.isEmpty() ? null : repertoire, minWorkers, maxWorkers,
+                    lecture.entier(prefixe + "/Timeout", DEFAULT_HANDLER_TIMEOUT, 1, Integer.MAX_VALUE),
+                    lecture.entier(prefixe + "/HealthCheckInterval", DEFAULT_HEALTH_CHECK_INTERVAL, 1, Integer.MAX_VALUE));
+        }
 
-                // Chargement et validation du chemin du log d'accès
-                String accessLogPathString = XmlValueExtracteur.getTagTextValue(CONFIG_FILE_PATH, "AccessLog");
-                if (!accessLogPathString.isEmpty()) {
-                    try {
-                        File logFile = new File(accessLogPathString);
-                        File parentDir = logFile.getParentFile();
-                        if (parentDir != null && !parentDir.exists()) {
-                            if (parentDir.mkdirs()) {
-                                System.out.println("Répertoire de log d'accès créé : " + parentDir.getAbsolutePath());
-                            } else {
-                                System.out.println("Avertissement : Impossible de créer le répertoire pour le log d'accès : " + parentDir.getAbsolutePath() + ". Le log pourrait ne pas fonctionner."); // System.out.println
-                            }
-                        }
-                        this.accessLogPath = accessLogPathString;
-                    } catch (SecurityException e) {
-                        System.out.println("Erreur: Impossible de créer ou d'accéder au chemin du log d'accès : " + accessLogPathString + " : " + e.getMessage()); // System.out.println
-                        this.accessLogPath = DEFAULT_ACCESS_LOG_PATH; // Désactiver si problème
-                    }
-                } else {
-                    System.out.println("Avertissement : La balise <AccessLog> est introuvable ou vide. Le journal d'accès sera désactivé.");
-                    this.accessLogPath = DEFAULT_ACCESS_LOG_PATH; // S'assurer qu'il est null si non configuré
+        /**
+         * Lit une section <VirtualHost> ; null (avec un avertissement) si ServerName ou DocumentRoot manque ou est invalide.
+         */
+        private HoteVirtuel lireHoteVirtuel(Lecture lecture, String prefixe) {
+            String serverName = lecture.texte(prefixe + "/ServerName").toLowerCase();
+            if (serverName.isEmpty()) {
+                lecture.avertir("La section <" + prefixe + "> n'a pas de <ServerName>. Hôte virtuel ignoré.");
+                return null;
+            }
+            List<String> noms = new ArrayList<>();
+            noms.add(serverName);
+            for (String alias : lecture.texte(prefixe + "/ServerAlias").split(",")) {
+                if (!alias.trim().isEmpty()) {
+                    noms.add(alias.trim().toLowerCase());
                 }
+            }
 
-                // Chargement et validation du chemin du log d'erreur
-                String errorLogPathString = XmlValueExtracteur.getTagTextValue(CONFIG_FILE_PATH, "ErrorLog");
-                if (!errorLogPathString.isEmpty()) {
-                    try {
-                        File logFile = new File(errorLogPathString);
-                        File parentDir = logFile.getParentFile();
-                        if (parentDir != null && !parentDir.exists()) {
-                            if (parentDir.mkdirs()) {
-                                System.out.println("Répertoire de log d'erreur créé : " + parentDir.getAbsolutePath());
-                            } else {
-                                System.out.println("Avertissement : Impossible de créer le répertoire pour le log d'erreur : " + parentDir.getAbsolutePath() + ". Le log pourrait ne pas fonctionner."); // System.out.println
-                            }
-                        }
-                        this.errorLogPath = errorLogPathString;
-                    } catch (SecurityException e) {
-                        System.out.println("Erreur: Impossible de créer ou d'accéder au chemin du log d'erreur : " + errorLogPathString + " : " + e.getMessage()); // System.out.println
-                        this.errorLogPath = DEFAULT_ERROR_LOG_PATH; // Désactiver si problème
+            String racine = lecture.texte(prefixe + "/DocumentRoot");
+            File rootDir = new File(racine);
+            String racineCanonique;
+            try {
+                if (racine.isEmpty() || !rootDir.isDirectory() || !rootDir.canRead()) {
+                    lecture.avertir("DocumentRoot de l'hôte virtuel " + serverName + " (" + racine + ") est invalide ou inaccessible. Hôte virtuel ignoré.");
+                    return null;
+                }
+                racineCanonique = rootDir.getCanonicalPath();
+            } catch (IOException e) {
+                lecture.avertir("Erreur lors de la résolution du DocumentRoot de l'hôte virtuel " + serverName + " (" + racine + ") : " + e.getMessage() + ". Hôte virtuel ignoré.");
+                return null;
+            }
+
+            // Règles d'accès propres à l'hôte, appliquées à chaque requête en plus du filtrage des connexions
+            List<String> allowed = new ArrayList<>();
+            List<String> denied = new ArrayList<>();
+            ajouterIps(lecture.texte(prefixe + "/Allow"), allowed);
+            ajouterIps(lecture.texte(prefixe + "/security/accept"), allowed);
+            ajouterIps(lecture.texte(prefixe + "/Deny"), denied);
+            ajouterIps(lecture.texte(prefixe + "/security/reject"), denied);
+
+            return new HoteVirtuel(serverName, noms, racineCanonique,
+                    lecture.texteOuDefaut(prefixe + "/DirectoryListing", directoryListing).toLowerCase(),
+                    allowed, denied, lireDefaultAccept(lecture, prefixe + "/security/default", allowed.isEmpty()),
+                    lireCheminJournal(lecture, prefixe + "/AccessLog", prefixe + "/security/accesslog", accessLogPath, "log d'accès", null),
+                    lireCheminJournal(lecture, prefixe + "/ErrorLog", prefixe + "/security/errorlog", errorLogPath, "log d'erreur", null),
+                    lecture.entierLong(prefixe + "/FileCacheSize", fileCacheSize, 0));
+        }
+
+        private static String lireDocumentRoot(Lecture lecture) {
+            String documentRootString = lecture.texte("DocumentRoot");
+            if (documentRootString.isEmpty()) {
+                lecture.signalerAbsence("DocumentRoot", "Utilisation du DocumentRoot par défaut : " + DEFAULT_DOCUMENT_ROOT);
+                return DEFAULT_DOCUMENT_ROOT;
+            }
+            // getCanonicalPath résout les chemins relatifs et les "..", le répertoire doit exister et être lisible
+            File rootDir = new File(documentRootString);
+            try {
+                if (rootDir.exists() && rootDir.isDirectory() && rootDir.canRead()) {
+                    return rootDir.getCanonicalPath();
+                }
+                lecture.avertir("DocumentRoot configuré (" + documentRootString + ") est invalide ou inaccessible. Utilisation du DocumentRoot par défaut : " + DEFAULT_DOCUMENT_ROOT);
+            } catch (IOException e) {
+                lecture.avertir("Erreur lors de la résolution du chemin canonical de DocumentRoot (" + documentRootString + "). Utilisation du DocumentRoot par défaut : " + DEFAULT_DOCUMENT_ROOT + " : " + e.getMessage());
+            }
+            return DEFAULT_DOCUMENT_ROOT;
+        }
+
+        /**
+         * Liste d'adresses ou plages séparées par des virgules ; une balise absente donne une liste vide.
+         */
+        private static List<String> lireListeIps(Lecture lecture, String balise, String siAbsente) {
+            List<String> ips = new ArrayList<>();
+            String valeur = lecture.texte(balise);
+            if (valeur.isEmpty()) {
+                lecture.signalerAbsence(balise, siAbsente);
+                return ips;
+            }
+            ajouterIps(valeur, ips);
+            if (ips.isEmpty()) {
+                lecture.avertir("La balise <" + balise + "> ne contient pas d'IPs valides. " + siAbsente);
+            }
+            return ips;
+        }
+
+        /**
+         * Extensions séparées par des virgules, sans point et en minuscules ("PNG" et ".png" donnent "png").
+         */
+        private static List<String> lireExtensions(String liste) {
+            List<String> extensions = new ArrayList<>();
+            for (String extension : liste.split(",")) {
+                String nettoyee = extension.trim().toLowerCase(Locale.ROOT);
+                if (nettoyee.startsWith(".")) {
+                    nettoyee = nettoyee.substring(1);
+                }
+                if (!nettoyee.isEmpty()) {
+                    extensions.add(nettoyee);
+                }
+            }
+            return extensions;
+        }
+
+        private static void ajouterIps(String liste, List<String> ips) {
+            for (String ip : liste.split(",")) {
+                String trimmedIp = ip.trim();
+                if (!trimmedIp.isEmpty()) {
+                    ips.add(trimmedIp);
+                }
+            }
+        }
+
+        /**
+         * Politique appliquée aux adresses qui ne figurent dans aucune liste : <security><default> ("accept" ou "reject").
+         * Sans valeur, on accepte tout si aucune adresse n'est autorisée explicitement, sinon on refuse les autres.
+         */
+        private static boolean lireDefaultAccept(Lecture lecture, String cle, boolean aucuneIpAutorisee) {
+            String valeur = lecture.texte(cle).toLowerCase();
+            switch (valeur) {
+                case "":
+                    return aucuneIpAutorisee;
+                case "accept":
+                case "allow":
+                    return true;
+                case "reject":
+                case "deny":
+                    return false;
+                default:
+                    lecture.avertir(cle + " configuré invalide (" + valeur + "). Utilisation de la valeur par défaut : "
+                            + (aucuneIpAutorisee ? "accept" : "reject"));
+                    return aucuneIpAutorisee;
+            }
+        }
+
+        /**
+         * Chemin d'un journal : la balise principale, sinon la balise de repli de la section security.
+         * Le répertoire parent est créé si besoin ; null désactive le journal.
+         * @param siAbsente Conséquence signalée si aucune des deux balises n'est renseignée (null : balise facultative).
+         */
+        private static String lireCheminJournal(Lecture lecture, String balise, String baliseRepli, String defaut, String description, String siAbsente) {
+            String chemin = lecture.texte(balise);
+            if (chemin.isEmpty()) {
+                chemin = lecture.texte(baliseRepli);
+            }
+            if (chemin.isEmpty()) {
+                if (siAbsente != null) {
+                    lecture.signalerAbsence(balise, siAbsente);
+                }
+                return defaut;
+            }
+            try {
+                File parentDir = new File(chemin).getParentFile();
+                if (parentDir != null && !parentDir.exists()) {
+                    if (parentDir.mkdirs()) {
+                        System.out.println("Répertoire de " + description + " créé : " + parentDir.getAbsolutePath());
+                    } else {
+                        lecture.avertir("Impossible de créer le répertoire pour le " + description + " : " + parentDir.getAbsolutePath() + ". Le log pourrait ne pas fonctionner.");
                     }
-                } else {
-                    System.out.println("Avertissement : La balise <ErrorLog> est introuvable ou vide. Le journal d'erreur sera désactivé.");
-                    this.errorLogPath = DEFAULT_ERROR_LOG_PATH; // S'assurer qu'il est null si non configuré
                 }
+                return chemin;
+            } catch (SecurityException e) {
+                lecture.avertir("Impossible de créer ou d'accéder au chemin du " + description + " : " + chemin + " : " + e.getMessage());
+                return defaut;
+            }
+        }
 
-            } catch (Exception e) {
-                System.out.println("Erreur critique lors du parsing du fichier de configuration : " + e.getMessage()); // System.out.println
-                // Les valeurs par défaut seront utilisées
+        /**
+         * Ajoute à la liste les adresses ou plages CIDR d'un fichier (une par ligne, '#' pour les commentaires).
+         */
+        private static void ajouterPlagesDepuisFichier(Lecture lecture, String nomBalise, List<String> plages) {
+            String cheminFichier = lecture.texte(nomBalise);
+            if (cheminFichier.isEmpty()) {
+                return;
+            }
+            try {
+                int avant = plages.size();
+                for (String ligne : Files.readAllLines(Paths.get(cheminFichier))) {
+                    int diese = ligne.indexOf('#');
+                    String plage = (diese >= 0 ? ligne.substring(0, diese) : ligne).trim();
+                    if (!plage.isEmpty()) {
+                        plages.add(plage);
+                    }
+                }
+                System.out.println(nomBalise + " : " + (plages.size() - avant) + " plages chargées depuis " + cheminFichier);
+            } catch (IOException e) {
+                lecture.avertir("Impossible de lire le fichier " + nomBalise + " (" + cheminFichier + ") : " + e.getMessage());
             }
         }
 
@@ -192,11 +661,82 @@ import java.util.List;
 
         public String getDirectoryListing() { return this.directoryListing; }
 
-        public List<String> getAllowedIps() { return new ArrayList<>(allowedIps); } // Retourne une copie défensive
+        public List<String> getAllowedIps() { return allowedIps; } // Liste non modifiable
+
+        public List<String> getDeniedIps() { return deniedIps; }   // Liste non modifiable
 
-        public List<String> getDeniedIps() { return new ArrayList<>(deniedIps); }   // Retourne une copie défensive
+        public boolean isDefaultAccept() { return defaultAccept; }
 
         public String getAccessLogPath() { return accessLogPath; }
 
         public String getErrorLogPath() { return errorLogPath; }
+
+        public String getExecutor() { return executor; }
+
+        public int getMaxThreads() { return maxThreads; }
+
+        public String getEngine() { return engine; }
+
+        public int getEventLoops() { return eventLoops; }
+
+        public int getKeepAliveTimeout() { return keepAliveTimeout; }
+
+        public int getMaxKeepAliveRequests() { return maxKeepAliveRequests; }
+
+        public long getFileCacheSize() { return fileCacheSize; }
+
+        public long getFileCacheMaxEntry() { return fileCacheMaxEntry; }
+
+        public String getGzip() { return gzip; }
+
+        public int getGzipMinSize() { return gzipMinSize; }
+
+        public int getLogBufferSize() { return logBufferSize; }
+
+        public String getLogOverflow() { return logOverflow; }
+
+        public int getLogFlushInterval() { return logFlushInterval; }
+
+        public long getLogRotateSize() { return logRotateSize; }
+
+        public String getLogRotatePeriod() { return logRotatePeriod; }
+
+        public int getLogRetention() { return logRetention; }
+
+        public String getLogCompress() { return logCompress; }
+
+        public int getInfoRefreshInterval() { return infoRefreshInterval; }
+
+        public int getInfoStreamInterval() { return infoStreamInterval; }
+
+        public int getRateLimit() { return rateLimit; }
+
+        public int getRateLimitBurst() { return rateLimitBurst; }
+
+        public int getMaxConnectionsPerIp() { return maxConnectionsPerIp; }
+
+        public int getRateLimitTableSize() { return rateLimitTableSize; }
+
+        public long getMaxBodySize() { return maxBodySize; }
+
+        public String getFormDataFile() { return formDataFile; }
+        public String getFormDataDir() { return formDataDir; }
+
+        public String getUploadPath() { return uploadPath; }
+
+        public String getUploadDir() { return uploadDir; }
+
+        public List<String> getUploadExtensions() { return uploadExtensions; }
+
+        public long getMaxUploadSize() { return maxUploadSize; }
+
+        public long getMaxUploadPartSize() { return maxUploadPartSize; }
+
+        public List<HoteVirtuel> getHotesVirtuels() { return hotesVirtuels; }
+
+        public List<TraitementExterne> getTraitementsExternes() { return traitementsExternes; }
+
+        public List<String> getAvertissements() { return avertissements; }
+
+        public boolean isFichierLu() { return fichierLu; }
     }
\ No newline at end of file
@@ -1,41 +1,81 @@
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
-import org.w3c.dom.*;
-import java.io.File;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
 
 public class XmlValueExtracteur {
+
+    // Fabrique StAX partagée (thread-safe une fois configurée) ; DTD et entités externes désactivées
+    private static final XMLInputFactory FABRIQUE = creerFabrique();
+
+    private static XMLInputFactory creerFabrique() {
+        XMLInputFactory fabrique = XMLInputFactory.newFactory();
+        fabrique.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        fabrique.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        fabrique.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return fabrique;
+    }
+
     /**
-     * Méthode pour récupérer le contenu textuel d'une balise XML.
+     * Lit le fichier XML en une seule passe (StAX, sans construire de DOM) et retourne le texte de chaque balise feuille,
+     * indexé par son chemin sous l'élément racine : "port", "security/accesslog"... Un élément répété parmi ses frères
+     * est numéroté à partir de sa deuxième occurrence : "VirtualHost/ServerName", "VirtualHost[2]/ServerName".
      *
      * @param filePath Chemin du fichier XML
-     * @param tagName  Nom de la balise
-     * @return Texte contenu dans la balise (String), ou une chaîne vide si non trouvée/erreur.
+     * @return Texte (sans espaces autour) de chaque balise feuille, vide pour une balise vide.
      */
-    public static String getTagTextValue(String filePath, String tagName) {
-        try {
-            File xmlFile = new File(filePath);
-            // Vérifier si le fichier existe et est lisible AVANT de tenter de le parser
-            if (!xmlFile.exists() || !xmlFile.isFile() || !xmlFile.canRead()) {
-                // Pas d'erreur ici, car WebServeurConfig gère l'absence du fichier.
-                // Cela évite d'afficher "Erreur : Le fichier XML... introuvable" et "Erreur lors de la lecture..."
-                // quand le fichier est simplement absent (ce qui est géré par WebServeurConfig).
-                return "";
-            }
-
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(xmlFile);
-            doc.getDocumentElement().normalize();
-
-            NodeList nodeList = doc.getElementsByTagName(tagName);
-            if (nodeList.getLength() > 0) {
-                Node node = nodeList.item(0);
-                return node.getTextContent().trim();
+    public static Map<String, String> lireValeurs(String filePath) throws IOException, XMLStreamException {
+        Map<String, String> valeurs = new HashMap<>();
+        try (InputStream in = Files.newInputStream(Paths.get(filePath))) {
+            XMLStreamReader lecteur = FABRIQUE.createXMLStreamReader(in);
+            try {
+                Deque<String> chemin = new ArrayDeque<>(); // Éléments ouverts, sans la racine
+                Deque<Map<String, Integer>> occurrences = new ArrayDeque<>(); // Noms des enfants déjà vus, par élément ouvert
+                StringBuilder texte = new StringBuilder();
+                boolean feuille = false; // Aucun élément enfant depuis la dernière ouverture
+                int profondeur = 0;
+                while (lecteur.hasNext()) {
+                    switch (lecteur.next()) {
+                        case XMLStreamConstants.START_ELEMENT:
+                            if (profondeur++ > 0) {
+                                String nom = lecteur.getLocalName();
+                                int rang = occurrences.getLast().merge(nom, 1, Integer::sum);
+                                chemin.addLast(rang == 1 ? nom : nom + "[" + rang + "]");
+                            }
+                            occurrences.addLast(new HashMap<>());
+                            texte.setLength(0);
+                            feuille = true;
+                            break;
+                        case XMLStreamConstants.CHARACTERS:
+                        case XMLStreamConstants.CDATA:
+                            texte.append(lecteur.getText());
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            if (feuille && !chemin.isEmpty()) {
+                                valeurs.put(String.join("/", chemin), texte.toString().trim());
+                            }
+                            occurrences.removeLast();
+                            if (profondeur-- > 1) {
+                                chemin.removeLast();
+                            }
+                            feuille = false;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } finally {
+                lecteur.close();
             }
-        } catch (Exception e) {
-            // Afficher l'erreur si le fichier existe mais est mal formé par exemple.
-            System.out.println("Erreur lors de la lecture de la balise <" + tagName + "> dans le fichier " + filePath + " : " + e.getMessage()); // System.out.println
         }
-        return "";
+        return valeurs;
     }
-}
\ No newline at end of file
+}